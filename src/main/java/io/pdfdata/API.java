@@ -9,8 +9,16 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the entry point to the {@code pdfdata-java} library.
@@ -61,6 +69,16 @@ public class API {
     static final DateTimeFormatter INSTANT_FORMATTER =
             DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
 
+    /**
+     * The {@link Executor} used by default to run the asynchronous variants of this library's
+     * requests (e.g. {@link ProcsRequest#byIDAsync(String)}): a pool of as many daemon threads
+     * as the {@link PooledTransport#shared() shared connection pool} has connections to an
+     * endpoint, shared by all {@code API} instances, which are retired after a minute of
+     * idleness. Asynchronous requests beyond that are queued until a thread (and so a
+     * connection) is free, rather than each parking a thread of its own.
+     */
+    public static final Executor DEFAULT_EXECUTOR = defaultExecutor();
+
     // TODO load from jar
     public static String VERSION = "0.9.9";
 
@@ -69,6 +87,19 @@ public class API {
     private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
     private int readTimeout = DEFAULT_READ_TIMEOUT;
     private boolean captureResponseBodies = false;
+    private Transport transport = PooledTransport.shared();
+    private Executor executor = DEFAULT_EXECUTOR;
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private RetryPolicy.Budget retryBudget = retryPolicy.newBudget();
+    private ConcurrencyLimiter concurrencyLimiter;
+    private CircuitBreaker circuitBreaker;
+    private final RateLimiter rateLimiter;
+    private boolean deduplicateUploads = false;
+    private DocumentCache documentCache = new DocumentCache();
+    private boolean cacheDocuments = false;
+    private boolean lazyResults = false;
+    private ResultCache resultCache;
+    private ResourceStore resourceStore;
     final JSON json;
 
 
@@ -122,6 +153,7 @@ public class API {
 
         this.apiKey = apiKey;
         this.endpoint = endpoint;
+        this.rateLimiter = RateLimiter.forAPIKey(apiKey);
         json = new JSON(this);
     }
 
@@ -141,6 +173,195 @@ public class API {
         return readTimeout;
     }
 
+    /**
+     * Returns the {@link Transport} through which this instance sends its requests; by default,
+     * the {@link PooledTransport#shared() connection pool shared} by all {@code API} instances.
+     */
+    public Transport getTransport () {
+        return transport;
+    }
+
+    /**
+     * Sets the {@link Transport} through which this instance sends its requests.
+     */
+    public void setTransport (Transport transport) {
+        if (transport == null) throw new IllegalArgumentException("transport must not be null");
+        this.transport = transport;
+    }
+
+    /**
+     * Returns the {@link Executor} on which this instance runs asynchronous requests.
+     */
+    public Executor getExecutor () {
+        return executor;
+    }
+
+    /**
+     * Sets the {@link Executor} on which this instance runs asynchronous requests, such as
+     * {@link ProcsRequest.ProcCreationBuilder#startAsync()}. Each asynchronous request occupies
+     * one of the executor's threads while it is in flight, so bounding the executor's size
+     * bounds the number of concurrent requests; beyond the number of connections the
+     * {@link #getTransport() transport} allows, extra threads would only wait for one.
+     */
+    public void setExecutor (Executor executor) {
+        if (executor == null) throw new IllegalArgumentException("executor must not be null");
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the {@link RetryPolicy} that determines whether and when this instance retries
+     * failed requests; {@link RetryPolicy#NONE} (i.e. failed requests are not retried) unless
+     * otherwise configured.
+     */
+    public RetryPolicy getRetryPolicy () {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the {@link RetryPolicy} used by this instance, resetting its retry budget. Use
+     * {@link RetryPolicy#DEFAULT} (or a variation of it) to enable retries.
+     */
+    public void setRetryPolicy (RetryPolicy retryPolicy) {
+        if (retryPolicy == null) throw new IllegalArgumentException("retryPolicy must not be null");
+        this.retryPolicy = retryPolicy;
+        this.retryBudget = retryPolicy.newBudget();
+    }
+
+    RetryPolicy.Budget getRetryBudget () {
+        return retryBudget;
+    }
+
+    /**
+     * Returns the {@link ConcurrencyLimiter} bounding the number of requests this instance has in
+     * flight, or null if none has been configured (the default).
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter () {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sets the {@link ConcurrencyLimiter} bounding the number of requests this instance has in
+     * flight; null disables concurrency limiting.
+     */
+    public void setConcurrencyLimiter (ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Returns the {@link CircuitBreaker} guarding this instance's requests, or null if none has
+     * been configured (the default).
+     */
+    public CircuitBreaker getCircuitBreaker () {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets the {@link CircuitBreaker} guarding this instance's requests; null disables it.
+     */
+    public void setCircuitBreaker (CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the {@link RateLimiter} shared by all {@code API} instances using this instance's
+     * {@link #getAPIKey() API key}.
+     */
+    public RateLimiter getRateLimiter () {
+        return rateLimiter;
+    }
+
+    public boolean isDeduplicateUploads () {
+        return deduplicateUploads;
+    }
+
+    /**
+     * Enables or disables upload deduplication (disabled by default). When enabled, starting a
+     * proc {@link ProcsRequest.ProcCreationBuilder#withFiles(DocumentSource...) with files}
+     * first hashes each file locally, and refers to those already stored by PDFDATA.io by their
+     * document IDs (as if they had been provided via
+     * {@link ProcsRequest.ProcCreationBuilder#withDocumentIDs(String...)}) instead of uploading
+     * them again. Known documents are tracked in this instance's {@link #getDocumentCache()
+     * document cache}; documents missing from it are looked up via
+     * {@link DocumentsRequest#byID(String)} before being uploaded.
+     */
+    public void setDeduplicateUploads (boolean deduplicateUploads) {
+        this.deduplicateUploads = deduplicateUploads;
+    }
+
+    /**
+     * Returns the {@link ResultCache} in use, or null (the default) if results aren't cached.
+     */
+    public ResultCache getResultCache () {
+        return resultCache;
+    }
+
+    /**
+     * Sets the {@link ResultCache} used to avoid reprocessing documents with the same
+     * operations, or null to disable result caching.
+     */
+    public void setResultCache (ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Returns the {@link ResourceStore} in use, or null (the default) if resources aren't
+     * stored locally.
+     */
+    public ResourceStore getResourceStore () {
+        return resourceStore;
+    }
+
+    /**
+     * Sets the {@link ResourceStore} used to avoid downloading resources repeatedly, or null to
+     * always download them.
+     */
+    public void setResourceStore (ResourceStore resourceStore) {
+        this.resourceStore = resourceStore;
+    }
+
+    public boolean isLazyResults () {
+        return lazyResults;
+    }
+
+    /**
+     * Enables or disables lazy results (disabled by default). When enabled, the
+     * {@link io.pdfdata.model.ProcessedDocument#getResults() results} of procs retrieved
+     * subsequently are each copied from the response into a compact JSON buffer, and only
+     * mapped to objects (and their resources registered) when first obtained from their list.
+     * Responses are still read and tokenized in full; what's deferred is building the results'
+     * objects, which saves considerable time and memory when only some of a proc's results are
+     * used, e.g. those of a metadata operation applied alongside a text one.
+     */
+    public void setLazyResults (boolean lazyResults) {
+        this.lazyResults = lazyResults;
+    }
+
+    public boolean isCacheDocuments () {
+        return cacheDocuments;
+    }
+
+    /**
+     * Enables or disables document caching (disabled by default). When enabled,
+     * {@link DocumentsRequest#byID(String)} serves documents from the
+     * {@link #getDocumentCache() document cache} where it can, and caches those it retrieves,
+     * as well as all those {@link DocumentsRequest#list() listed} or uploaded.
+     */
+    public void setCacheDocuments (boolean cacheDocuments) {
+        this.cacheDocuments = cacheDocuments;
+    }
+
+    /**
+     * Returns the {@link DocumentCache} used for upload deduplication and document caching.
+     */
+    public DocumentCache getDocumentCache () {
+        return documentCache;
+    }
+
+    public void setDocumentCache (DocumentCache documentCache) {
+        if (documentCache == null) throw new IllegalArgumentException("documentCache must not be null");
+        this.documentCache = documentCache;
+    }
+
     public String getAPIKey () {
         return apiKey;
     }
@@ -194,6 +415,16 @@ public class API {
         return new InfoRequest(this);
     }
 
+    /**
+     * Prepares the JSON mapping shared by all {@code API} instances in the JVM for every kind of
+     * entity PDFDATA.io responds with. This otherwise happens as each kind is first encountered,
+     * slowing the first few requests made; calling this at startup (optionally on a background
+     * thread) moves that cost out of the way of the first requests made by any {@code API}.
+     */
+    public static void warmUp () {
+        JSON.warmUp();
+    }
+
     /**
      * Parses a {@link String} in the format used by the PDFDATA.io API (the ISO 8601 string format
      * that corresponds to <a href="http://www.ecma-international.org/ecma-262/5.1/#sec-15.9.1.15">
@@ -202,9 +433,68 @@ public class API {
      * @throws java.time.format.DateTimeParseException if {@code s} is not in the expected format
      */
     public static Instant parseDate (String s) {
+        // PDFDATA.io's dates are all of the same fixed-width form, so parse them by hand (there
+        // are a lot of them); anything else goes through the formatter, for its error reporting
+        long epochSecond = parseEpochSecond(s);
+        if (epochSecond != Long.MIN_VALUE) return Instant.ofEpochSecond(epochSecond);
         return LocalDateTime.parse(s, INSTANT_FORMATTER).toInstant(ZoneOffset.UTC);
     }
 
+    /**
+     * Returns the epoch second of a {@code yyyy-MM-ddTHH:mm:ssZ} date, or {@code Long.MIN_VALUE}
+     * if {@code s} isn't one.
+     */
+    private static long parseEpochSecond (String s) {
+        if (s.length() != 20 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' ||
+                s.charAt(13) != ':' || s.charAt(16) != ':' || s.charAt(19) != 'Z') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(s, 0, 4), month = digits(s, 5, 2), day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2), minute = digits(s, 14, 2), second = digits(s, 17, 2);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23 ||
+                minute < 0 || minute > 59 || second < 0 || second > 59 ||
+                day > Month.of(month).length(Year.isLeap(year))) {
+            return Long.MIN_VALUE;
+        }
+
+        // days since the epoch of the given proleptic Gregorian date, per
+        // http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long epochDay = era * 146097L + dayOfEra - 719468;
+        return epochDay * 86400 + hour * 3600 + minute * 60 + second;
+    }
+
+    /**
+     * Returns the value of the {@code len} decimal digits of {@code s} at {@code offset}, or -1
+     * if any of them aren't digits.
+     */
+    private static int digits (String s, int offset, int len) {
+        int value = 0;
+        for (int i = offset; i < offset + len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static ExecutorService defaultExecutor () {
+        AtomicInteger threadCount = new AtomicInteger();
+        int threads = PooledTransport.DEFAULT_MAX_PER_ROUTE;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1,
+                TimeUnit.MINUTES, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "pdfdata-async-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private static String apikey_env () {
         String apikey = environment("PDFDATA_APIKEY", null);
         if (apikey == null)
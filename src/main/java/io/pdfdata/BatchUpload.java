@@ -0,0 +1,164 @@
+package io.pdfdata;
+
+import io.pdfdata.model.Document;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of {@link DocumentsRequest#uploadInBatches(Collection, Collection, long, int, int)
+ * uploading documents in batches}: the {@link Document}s uploaded, in the order of the files
+ * given, and the error that prevented each of the others from being uploaded.
+ *
+ * @publicapi
+ */
+public class BatchUpload {
+    private final Object[] files;
+    private final Document[] documents;
+    private final IOException[] failures;
+
+    private BatchUpload (Object[] files) {
+        this.files = files;
+        this.documents = new Document[files.length];
+        this.failures = new IOException[files.length];
+    }
+
+    /**
+     * Returns the documents uploaded, in the order of the files they were uploaded from.
+     */
+    public List<Document> getDocuments () {
+        List<Document> uploaded = new ArrayList<>(documents.length);
+        for (Document d : documents) {
+            if (d != null) uploaded.add(d);
+        }
+        return uploaded;
+    }
+
+    /**
+     * Returns the errors that prevented files from being uploaded, keyed by the files as given
+     * (in the order given). All of the files in a failed batch share its error.
+     */
+    public Map<Object, IOException> getFailures () {
+        Map<Object, IOException> failed = new LinkedHashMap<>();
+        for (int i = 0; i < files.length; i++) {
+            if (failures[i] != null) failed.put(files[i], failures[i]);
+        }
+        return Collections.unmodifiableMap(failed);
+    }
+
+    /**
+     * Returns true if every file was uploaded.
+     */
+    public boolean isComplete () {
+        for (IOException e : failures) {
+            if (e != null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Packs files of the given lengths into as few batches as the limits allow, each of at
+     * most {@code maxBytes} (unless a single file is larger) and {@code maxFiles}, balancing
+     * their byte counts. Files of unknown length (-1) are each assumed to be
+     * {@code maxBytes} long. Returns the batches' file indexes, each batch in ascending order,
+     * the batches ordered by their first index.
+     */
+    static List<int[]> plan (long[] lengths, long maxBytes, int maxFiles) {
+        int n = lengths.length;
+        long[] sizes = new long[n];
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            sizes[i] = lengths[i] < 0 ? maxBytes : lengths[i];
+            total += sizes[i];
+        }
+
+        // start with as many batches as the limits require, then place the largest files
+        // first, each in the least full batch it fits in, adding batches only as needed
+        int count = (int) Math.max(Math.max((total + maxBytes - 1) / maxBytes,
+                (n + maxFiles - 1) / maxFiles), 1);
+        List<long[]> loads = new ArrayList<>();
+        List<List<Integer>> batches = new ArrayList<>();
+        for (int b = 0; b < count; b++) {
+            loads.add(new long[2]);
+            batches.add(new ArrayList<>());
+        }
+        Integer[] bySize = new Integer[n];
+        for (int i = 0; i < n; i++) bySize[i] = i;
+        Arrays.sort(bySize, (a, b) -> Long.compare(sizes[b], sizes[a]));
+
+        for (int i : bySize) {
+            int best = -1;
+            for (int b = 0; b < loads.size(); b++) {
+                long[] load = loads.get(b);
+                boolean fits = load[1] < maxFiles &&
+                        (load[1] == 0 || load[0] + sizes[i] <= maxBytes);
+                if (fits && (best < 0 || load[0] < loads.get(best)[0])) best = b;
+            }
+            if (best < 0) {
+                best = loads.size();
+                loads.add(new long[2]);
+                batches.add(new ArrayList<>());
+            }
+            loads.get(best)[0] += sizes[i];
+            loads.get(best)[1]++;
+            batches.get(best).add(i);
+        }
+
+        List<int[]> plan = new ArrayList<>();
+        for (List<Integer> batch : batches) {
+            if (batch.isEmpty()) continue;
+            plan.add(batch.stream().mapToInt(Integer::intValue).sorted().toArray());
+        }
+        plan.sort((a, b) -> Integer.compare(a[0], b[0]));
+        return plan;
+    }
+
+    /**
+     * Uploads the given files in batches {@link #plan planned} according to the given limits,
+     * with up to {@code parallelism} batches being uploaded at once on the API's executor,
+     * blocking until all have been attempted.
+     */
+    static BatchUpload upload (DocumentsRequest request, Collection<String> tags,
+                               Collection<?> files, long maxBytes, int maxFiles,
+                               int parallelism) throws IOException {
+        if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be positive");
+        if (maxFiles < 1) throw new IllegalArgumentException("maxFiles must be positive");
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+
+        BatchUpload upload = new BatchUpload(files.toArray());
+        DocumentSource[] sources = new DocumentSource[upload.files.length];
+        long[] lengths = new long[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = DocumentSource.from(upload.files[i]);
+            lengths[i] = sources[i].getLength();
+        }
+        if (sources.length == 0) return upload;
+        List<int[]> plan = plan(lengths, maxBytes, maxFiles);
+
+        Util.drain(plan, parallelism, request.pdfdata.getExecutor(), "uploading documents",
+                batch -> {
+            List<DocumentSource> batchSources = new ArrayList<>(batch.length);
+            for (int i : batch) batchSources.add(sources[i]);
+            try {
+                List<Document> uploaded = request.uploadSources(tags, batchSources);
+                if (uploaded.size() != batch.length) {
+                    throw new IOException(String.format("Uploaded %d files but got %d " +
+                            "documents back", batch.length, uploaded.size()));
+                }
+                // the API returns documents in the order their files were sent
+                for (int i = 0; i < batch.length; i++) {
+                    upload.documents[batch[i]] = uploaded.get(i);
+                }
+            } catch (IOException e) {
+                for (int i : batch) upload.failures[i] = e;
+            }
+        });
+        return upload;
+    }
+}
@@ -0,0 +1,150 @@
+package io.pdfdata;
+
+import java.time.Duration;
+
+/**
+ * Stops an {@link API} instance from sending requests to PDFDATA.io while most of its recent
+ * requests have failed, so that callers fail fast (with a {@link RequestRejectedException})
+ * instead of piling more load onto a struggling service.
+ *
+ * The breaker starts out {@link State#CLOSED closed}, recording the outcome of the last
+ * {@code windowSize} requests. Connection failures, timeouts, and 429 and 5xx responses count as
+ * failures; other responses (including 4xx errors, which indicate problems with the request
+ * rather than the service) count as successes. Once the window is full and the proportion of
+ * failures in it reaches {@code failureRateThreshold}, the breaker {@link State#OPEN opens},
+ * rejecting all requests. After {@code openDuration} has elapsed, it becomes
+ * {@link State#HALF_OPEN half-open}, letting up to {@code halfOpenProbes} requests through: if
+ * all of them succeed, the breaker closes again; if any fails, it reopens.
+ *
+ * Circuit breakers are configured via {@link API#setCircuitBreaker(CircuitBreaker)}, and may be
+ * shared by multiple {@code API} instances.
+ *
+ * @publicapi
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final double failureRateThreshold;
+    private final boolean[] window;
+    private final long openNanos;
+    private final int halfOpenProbes;
+
+    private State state = State.CLOSED;
+    private int windowCount;
+    private int windowFailures;
+    private int windowNext;
+    private long openedAt;
+    /** incremented each time the breaker becomes half-open, identifying that round of probes */
+    private int probeRound;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    /**
+     * Creates a breaker that opens when half of the last 20 requests have failed, and probes the
+     * service again with 3 requests after 30 seconds.
+     */
+    public CircuitBreaker () {
+        this(0.5, 20, Duration.ofSeconds(30), 3);
+    }
+
+    public CircuitBreaker (double failureRateThreshold, int windowSize, Duration openDuration,
+                           int halfOpenProbes) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("failureRateThreshold must be in (0, 1]");
+        }
+        if (windowSize < 1 || halfOpenProbes < 1 || openDuration.isNegative()) {
+            throw new IllegalArgumentException("windowSize, halfOpenProbes, and openDuration " +
+                    "must be positive");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[windowSize];
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    public synchronized State getState () {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            if (++probeRound == 0) probeRound = 1;
+            probesInFlight = 0;
+            probeSuccesses = 0;
+        }
+        return state;
+    }
+
+    /**
+     * Admits a request, or throws if the breaker is open (or half-open, with all of its probes
+     * already in flight). Returns a token identifying the request as a probe (or not), which
+     * must be passed to a following call to {@link #onSuccess(int)}, {@link #onFailure(int)},
+     * or {@link #onIgnored(int)}.
+     */
+    synchronized int acquire () throws RequestRejectedException {
+        State current = getState();
+        if (current == State.CLOSED) return 0;
+        if (current == State.HALF_OPEN && probesInFlight < halfOpenProbes) {
+            probesInFlight++;
+            return probeRound;
+        }
+        throw new RequestRejectedException(String.format("Request rejected: the circuit " +
+                "breaker is %s after repeated failures to reach PDFDATA.io", state));
+    }
+
+    synchronized void onSuccess (int token) {
+        if (isProbe(token)) {
+            probesInFlight--;
+            if (++probeSuccesses >= halfOpenProbes) {
+                state = State.CLOSED;
+                windowCount = windowFailures = windowNext = 0;
+            }
+        } else if (token == 0 && state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    synchronized void onFailure (int token) {
+        if (isProbe(token)) {
+            open();
+        } else if (token == 0 && state == State.CLOSED) {
+            record(true);
+            if (windowCount == window.length &&
+                    windowFailures >= failureRateThreshold * window.length) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request whose outcome says nothing about the service's health (e.g.
+     * one that was interrupted).
+     */
+    synchronized void onIgnored (int token) {
+        if (isProbe(token)) probesInFlight--;
+    }
+
+    /**
+     * Returns true if the given token is from a probe of the current half-open round; requests
+     * admitted before the breaker opened, or probes of an earlier round, don't count towards
+     * (or against) closing it.
+     */
+    private boolean isProbe (int token) {
+        return token != 0 && token == probeRound && state == State.HALF_OPEN;
+    }
+
+    private void record (boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowNext]) windowFailures--;
+        } else {
+            windowCount++;
+        }
+        window[windowNext] = failure;
+        if (failure) windowFailures++;
+        windowNext = (windowNext + 1) % window.length;
+    }
+
+    private void open () {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+}
@@ -0,0 +1,121 @@
+package io.pdfdata;
+
+/**
+ * Limits the number of requests an {@link API} instance has in flight at once, adapting the
+ * limit to the latency and overload signals observed from PDFDATA.io. Requests made while the
+ * limit is reached are rejected immediately with a {@link RequestRejectedException}, rather than
+ * being queued.
+ *
+ * The limit is adjusted using additive-increase/multiplicative-decrease (AIMD): each request
+ * that completes promptly while the limit is at least half used raises the limit by
+ * {@code 1/limit} (i.e. by about one per "round" of requests), while each request that is
+ * throttled (429), finds the service unavailable (503/504), times out, or takes longer than
+ * {@code latencyTolerance} times the long-run average latency, multiplies it by
+ * {@code backoffRatio}. Requests that deliberately wait on the service (e.g. long polls for a
+ * proc to complete) are only taken as a signal if they find it overloaded, as their latency
+ * reflects the wait rather than the service's load.
+ *
+ * Limiters are configured via {@link API#setConcurrencyLimiter(ConcurrencyLimiter)}, and may be
+ * shared by multiple {@code API} instances.
+ *
+ * @publicapi
+ */
+public class ConcurrencyLimiter {
+    private static final double LATENCY_SMOOTHING = 0.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private double averageLatency;
+
+    /**
+     * Creates a limiter starting at a limit of 20 concurrent requests, which may adapt between 1
+     * and 200.
+     */
+    public ConcurrencyLimiter () {
+        this(20, 1, 200);
+    }
+
+    public ConcurrencyLimiter (int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 0.9, 2.0);
+    }
+
+    /**
+     * @param backoffRatio the factor by which the limit is multiplied when overload is detected
+     * @param latencyTolerance the multiple of the average request latency beyond which a request
+     *                         is considered to indicate overload
+     */
+    public ConcurrencyLimiter (int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                               double latencyTolerance) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException(String.format("Invalid limits: 1 <= %s <= %s <= %s " +
+                    "does not hold", minLimit, initialLimit, maxLimit));
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1 || latencyTolerance <= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1, and " +
+                    "latencyTolerance must be greater than 1");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Returns the current concurrency limit.
+     */
+    public synchronized int getLimit () {
+        return (int) limit;
+    }
+
+    /**
+     * Returns the number of requests currently in flight.
+     */
+    public synchronized int getInFlight () {
+        return inFlight;
+    }
+
+    /**
+     * Reserves a slot for a request, returning its start time (per {@link System#nanoTime()}),
+     * to be passed to {@link #release(long, Boolean, boolean)} once the request completes.
+     */
+    synchronized long acquire () throws RequestRejectedException {
+        if (inFlight >= (int) limit) {
+            throw new RequestRejectedException(String.format("Request rejected: %s requests are " +
+                    "already in flight, the current concurrency limit", inFlight));
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Releases a slot reserved by {@link #acquire()}, adjusting the limit.
+     *
+     * @param overloaded true if the request failed in a way that indicates the service is
+     *                   overloaded; null if the request's outcome says nothing about the service's
+     *                   load (e.g. it was interrupted), in which case the limit is left alone
+     * @param waited true if the request asked the service to wait (e.g. for a proc to complete)
+     *               before responding, in which case its latency is disregarded
+     */
+    synchronized void release (long start, Boolean overloaded, boolean waited) {
+        int used = inFlight--;
+        if (overloaded == null) return;
+
+        double latency = System.nanoTime() - start;
+        boolean slow = !waited && averageLatency > 0 && latency > latencyTolerance * averageLatency;
+        if (overloaded || slow) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (!waited && used * 2 >= (int) limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        if (!overloaded && !waited) {
+            averageLatency = averageLatency == 0 ? latency :
+                    averageLatency + LATENCY_SMOOTHING * (latency - averageLatency);
+        }
+    }
+}
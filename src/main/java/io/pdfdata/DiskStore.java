@@ -0,0 +1,158 @@
+package io.pdfdata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory of files, one per key, bounded in total size by evicting the least recently used.
+ * Recency is tracked via the files' modification times, so that it survives reopening the
+ * directory. Files are written to a temporary file and then moved into place, so that readers
+ * never see a partial one. Backs {@link ResultCache} and {@link ResourceStore}.
+ */
+final class DiskStore {
+    private final Path directory;
+    private final String suffix;
+    private final long maxBytes;
+    /** entry sizes by key, in access order (least recently used first) */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    DiskStore (Path directory, String suffix, long maxBytes) throws IOException {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be positive");
+        this.directory = Files.createDirectories(directory);
+        this.suffix = suffix;
+        this.maxBytes = maxBytes;
+
+        // left behind by writes interrupted by the end of an earlier process
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory, "tmp*.part")) {
+            for (Path f : dir) Files.deleteIfExists(f);
+        }
+
+        List<Path> files = new ArrayList<>();
+        Map<Path, FileTime> mtimes = new HashMap<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path f : dir) {
+                files.add(f);
+                mtimes.put(f, Files.getLastModifiedTime(f));
+            }
+        }
+        files.sort((a, b) -> mtimes.get(a).compareTo(mtimes.get(b)));
+        for (Path f : files) {
+            long size = Files.size(f);
+            String name = f.getFileName().toString();
+            entries.put(name.substring(0, name.length() - suffix.length()), size);
+            totalBytes += size;
+        }
+        evict();
+    }
+
+    /**
+     * Opens the file stored under the given key, marking it as the most recently used, or
+     * returns null if there is none. Once opened, the file remains readable even if it is
+     * evicted (on platforms that allow open files to be deleted).
+     */
+    synchronized InputStream open (String key) {
+        if (entries.get(key) == null) return null;
+        Path file = fileOf(key);
+        InputStream in;
+        try {
+            in = Files.newInputStream(file);
+        } catch (IOException e) {
+            // deleted from under us
+            totalBytes -= entries.remove(key);
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            try {
+                in.close();
+            } catch (IOException ce) {
+                e.addSuppressed(ce);
+            }
+            // deleted from under us, or not ours to touch; either way, treat it as a miss
+            remove(key);
+            return null;
+        }
+        return in;
+    }
+
+    /**
+     * Returns a new temporary file in the store's directory, to be written and then
+     * {@link #commit(String, Path) committed}.
+     */
+    Path newTempFile () throws IOException {
+        return Files.createTempFile(directory, "tmp", ".part");
+    }
+
+    /**
+     * Moves the given temporary file into place under the given key, evicting the least
+     * recently used files as necessary (though never the one just committed).
+     */
+    synchronized void commit (String key, Path tmp) throws IOException {
+        long size = Files.size(tmp);
+        try {
+            Files.move(tmp, fileOf(key), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Long replaced = entries.put(key, size);
+        totalBytes += size - (replaced == null ? 0 : replaced);
+        evict();
+    }
+
+    synchronized void remove (String key) {
+        Long size = entries.remove(key);
+        if (size == null) return;
+        totalBytes -= size;
+        delete(key);
+    }
+
+    private void evict () {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1 && eldest.hasNext()) {
+            Map.Entry<String, Long> e = eldest.next();
+            delete(e.getKey());
+            totalBytes -= e.getValue();
+            eldest.remove();
+        }
+    }
+
+    private void delete (String key) {
+        try {
+            Files.deleteIfExists(fileOf(key));
+        } catch (IOException e) {
+            // e.g. still open on Windows; it will be overwritten if it is ever stored again
+        }
+    }
+
+    synchronized int size () {
+        return entries.size();
+    }
+
+    synchronized long sizeBytes () {
+        return totalBytes;
+    }
+
+    synchronized void clear () {
+        for (String key : entries.keySet()) delete(key);
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    private Path fileOf (String key) {
+        return directory.resolve(key + suffix);
+    }
+}
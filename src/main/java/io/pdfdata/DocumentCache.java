@@ -0,0 +1,140 @@
+package io.pdfdata;
+
+import io.pdfdata.model.Document;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A local record of the {@link Document}s known to be stored by PDFDATA.io, keyed by the SHA-1
+ * hash of their contents (from which PDFDATA.io derives document IDs). Used to avoid uploading
+ * documents that PDFDATA.io already has when {@link API#setDeduplicateUploads(boolean) upload
+ * deduplication} is enabled.
+ *
+ * Also used to serve {@link DocumentsRequest#byID(String)} lookups locally when
+ * {@link API#setCacheDocuments(boolean) document caching} is enabled, since documents don't
+ * change until they expire.
+ *
+ * Documents are only returned by {@link #get(String)} until {@code expiryMargin} before their
+ * {@link Document#getExpires() expiry}, so that a proc started using a cached document has time to
+ * run before PDFDATA.io discards it. The cache holds up to {@code maxEntries} documents; beyond
+ * that, those expiring soonest are evicted.
+ *
+ * @publicapi
+ */
+public class DocumentCache {
+    private static final Duration DEFAULT_EXPIRY_MARGIN = Duration.ofMinutes(5);
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final String ID_PREFIX = "doc_";
+    private static final Comparator<Map.Entry<String, Document>> BY_EXPIRY = Comparator.comparing(
+            e -> e.getValue().getExpires(), Comparator.nullsLast(Comparator.naturalOrder()));
+
+    private final Duration expiryMargin;
+    private final int maxEntries;
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+
+    public DocumentCache () {
+        this(DEFAULT_EXPIRY_MARGIN);
+    }
+
+    public DocumentCache (Duration expiryMargin) {
+        this(expiryMargin, DEFAULT_MAX_ENTRIES);
+    }
+
+    public DocumentCache (Duration expiryMargin, int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive");
+        this.expiryMargin = expiryMargin;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cached document with the given content hash, or null if there is none, or it
+     * is about to expire.
+     */
+    public Document get (String hash) {
+        Document d = documents.get(hash);
+        if (d == null) return null;
+        if (isExpiring(d)) {
+            documents.remove(hash, d);
+            return null;
+        }
+        return d;
+    }
+
+    /**
+     * Returns the cached document with the given ID, or null if there is none, or it is about to
+     * expire.
+     */
+    public Document getByID (String docID) {
+        String hash = hashOf(docID);
+        return hash == null ? null : get(hash);
+    }
+
+    /**
+     * Caches the given document, if it is not about to expire.
+     */
+    public void put (String hash, Document document) {
+        if (isExpiring(document)) return;
+        documents.put(hash, document);
+        if (documents.size() > maxEntries) evict();
+    }
+
+    /**
+     * Caches the given document under the content hash embedded in its ID, if any.
+     */
+    public void put (Document document) {
+        String hash = hashOf(document.getID());
+        if (hash != null) put(hash, document);
+    }
+
+    public void remove (String hash) {
+        documents.remove(hash);
+    }
+
+    public int size () {
+        return documents.size();
+    }
+
+    public void clear () {
+        documents.clear();
+    }
+
+    /**
+     * Evicts expiring documents, and then those expiring soonest, until the cache is down to 90%
+     * of its capacity (so that the cost of doing so is amortized over many puts).
+     */
+    private synchronized void evict () {
+        if (documents.size() <= maxEntries) return;
+        List<Map.Entry<String, Document>> entries = new ArrayList<>(documents.entrySet());
+        entries.sort(BY_EXPIRY);
+        int excess = documents.size() - maxEntries * 9 / 10;
+        for (Map.Entry<String, Document> e : entries) {
+            if (excess <= 0 && !isExpiring(e.getValue())) break;
+            if (documents.remove(e.getKey(), e.getValue())) excess--;
+        }
+    }
+
+    private boolean isExpiring (Document d) {
+        return d.getExpires() != null && Instant.now().plus(expiryMargin).isAfter(d.getExpires());
+    }
+
+    /**
+     * Returns the ID PDFDATA.io gives documents with the given content hash.
+     */
+    static String idOf (String hash) {
+        return ID_PREFIX + hash;
+    }
+
+    /**
+     * Returns the content hash embedded in the given document ID, or null.
+     */
+    static String hashOf (String docID) {
+        return docID != null && docID.startsWith(ID_PREFIX) ?
+                docID.substring(ID_PREFIX.length()) : null;
+    }
+}
@@ -0,0 +1,111 @@
+package io.pdfdata;
+
+import io.pdfdata.model.Document;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Iterates over the documents {@link DocumentsRequest#list(Instant) listed} before some
+ * instant, a page at a time. The next page is requested as soon as the current one arrives, so
+ * that it is (ideally) available by the time the current one has been consumed.
+ *
+ * As listing is by creation time, which PDFDATA.io reports to the second, each page after the
+ * first is requested with the second after the creation time of the last document of the page
+ * before, so that no other document created in that same second is skipped; the documents of
+ * that second already returned are dropped from the page. A page of documents all created in
+ * the same second, all already returned, is ambiguous: there may be more created in that second
+ * than fit on a page, which can't be listed, so rather than silently skipping them, the
+ * iterator fails.
+ *
+ * Relies on PDFDATA.io listing documents newest first.
+ */
+final class DocumentPager implements Iterator<Document>, AutoCloseable {
+    private final DocumentsRequest request;
+    private final Instant createdBefore;
+    private Iterator<Document> page = Collections.emptyIterator();
+    private CompletableFuture<List<Document>> next;
+    private boolean started;
+    /** the creation time of the last document returned, and the IDs of those created then */
+    private Instant boundary;
+    private final Set<String> boundaryIDs = new HashSet<>();
+    private int largestPage;
+
+    DocumentPager (DocumentsRequest request, Instant createdBefore) {
+        this.request = request;
+        this.createdBefore = createdBefore;
+    }
+
+    @Override
+    public boolean hasNext () {
+        if (!started) {
+            started = true;
+            next = request.listAsync(createdBefore);
+        }
+        while (!page.hasNext()) {
+            if (next == null) return false;
+            List<Document> documents;
+            try {
+                documents = next.join();
+            } catch (CompletionException e) {
+                next = null;
+                throw new UncheckedIOException(Util.unwrap(e));
+            }
+            next = null;
+            if (documents.isEmpty()) return false;
+
+            List<Document> fresh = new ArrayList<>();
+            for (Document d : documents) {
+                if (!boundaryIDs.contains(d.getID())) fresh.add(d);
+            }
+            if (fresh.isEmpty()) {
+                // a page less full than others is the last
+                if (documents.size() < largestPage) return false;
+                throw new UncheckedIOException(new IOException(String.format("At least %d " +
+                        "documents were created at %s, more than can be listed beyond the " +
+                        "first page of them", documents.size(), boundary)));
+            }
+            largestPage = Math.max(largestPage, documents.size());
+
+            Instant last = documents.get(documents.size() - 1).getCreated();
+            if (!last.equals(boundary)) {
+                boundary = last;
+                boundaryIDs.clear();
+            }
+            for (Document d : documents) {
+                if (d.getCreated().equals(boundary)) boundaryIDs.add(d.getID());
+            }
+            Instant cursor = boundary.plusSeconds(1);
+            next = request.listAsync(cursor.isBefore(createdBefore) ? cursor : createdBefore);
+            page = fresh.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Document next () {
+        if (!hasNext()) throw new NoSuchElementException();
+        return page.next();
+    }
+
+    /**
+     * Cancels the request for the next page, if one is outstanding.
+     */
+    @Override
+    public void close () {
+        started = true;
+        CompletableFuture<List<Document>> pending = next;
+        next = null;
+        if (pending != null) pending.cancel(true);
+    }
+}
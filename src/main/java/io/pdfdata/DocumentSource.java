@@ -0,0 +1,300 @@
+package io.pdfdata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A source PDF document to be uploaded to PDFDATA.io, either via
+ * {@link DocumentsRequest#uploadSources(DocumentSource...)} or as part of starting a new proc via
+ * {@link ProcsRequest.ProcCreationBuilder#withFiles(DocumentSource...)}.
+ *
+ * Documents can be sourced from files, in-memory byte arrays and {@link ByteBuffer}s (heap or
+ * direct), or {@link InputStream}s; their contents are streamed directly into the upload
+ * request, without being written to a temporary file or copied into an intermediate buffer.
+ *
+ * Example:
+ *
+ * <pre>byte[] pdf = objectStore.get(key);
+ * Proc proc = pdfdata.procs().configure()
+ *     .withFiles(DocumentSource.of("invoice.pdf", pdf))
+ *     .withOperations(new Text())
+ *     .start();</pre>
+ *
+ * @publicapi
+ */
+public abstract class DocumentSource {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final String filename;
+
+    DocumentSource (String filename) {
+        if (filename == null) throw new IllegalArgumentException("filename must not be null");
+        this.filename = filename;
+    }
+
+    /**
+     * Returns the filename the document will be uploaded under, which will be reflected by the
+     * resulting {@link io.pdfdata.model.Document#getFilename()}.
+     */
+    public String getFilename () {
+        return filename;
+    }
+
+    /**
+     * Returns the exact length of the document in bytes, or -1 if it isn't known ahead of time
+     * (in which case it will be uploaded using chunked transfer encoding).
+     */
+    public abstract long getLength ();
+
+    /**
+     * Returns true if this source can be read more than once, which is required to retry a
+     * failed upload. Only sources backed by {@link InputStream}s are not repeatable.
+     */
+    public boolean isRepeatable () {
+        return true;
+    }
+
+    abstract void writeTo (OutputStream out) throws IOException;
+
+    /**
+     * Returns the hex-encoded SHA-1 hash of the document's contents, or null if it can't be
+     * computed without consuming the source.
+     */
+    String contentHash () throws IOException {
+        return null;
+    }
+
+    private static MessageDigest sha1 () {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE is required to support SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String hex (byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                .append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+
+    public static DocumentSource of (File file) {
+        return new PathSource(file.toPath());
+    }
+
+    public static DocumentSource of (Path path) {
+        return new PathSource(path);
+    }
+
+    public static DocumentSource of (String filename, byte[] data) {
+        return new BufferSource(filename, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Returns a source reading the given buffer's remaining bytes. The buffer's position is not
+     * modified, but its contents must not be changed until the upload has completed.
+     */
+    public static DocumentSource of (String filename, ByteBuffer data) {
+        return new BufferSource(filename, data.slice());
+    }
+
+    /**
+     * Returns a source that will read exactly {@code length} bytes from the given stream, and
+     * then close it. Such sources can only be uploaded once.
+     */
+    public static DocumentSource of (String filename, InputStream in, long length) {
+        return new StreamSource(filename, in, length);
+    }
+
+    /**
+     * Returns a source that will read the given stream to its end, and then close it. Because
+     * the document's length isn't known ahead of time, it will be uploaded using chunked transfer
+     * encoding. Such sources can only be uploaded once.
+     */
+    public static DocumentSource of (String filename, InputStream in) {
+        return new StreamSource(filename, in, -1);
+    }
+
+    /**
+     * Coerces a {@link File}, {@link Path}, {@link String} path, or {@code DocumentSource} to a
+     * {@code DocumentSource}.
+     */
+    static DocumentSource from (Object source) {
+        if (source instanceof DocumentSource) {
+            return (DocumentSource) source;
+        } else if (source instanceof File) {
+            return of((File) source);
+        } else if (source instanceof Path) {
+            return of((Path) source);
+        } else if (source instanceof String) {
+            return of(new File((String) source));
+        } else {
+            throw new IllegalArgumentException(String.format("Cannot upload a document from a " +
+                    "%s; use a File, Path, String path, or DocumentSource",
+                    source == null ? null : source.getClass().getName()));
+        }
+    }
+
+    private static void copy (InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[(int) (length >= 0 ? Math.min(length, COPY_BUFFER_SIZE) :
+                COPY_BUFFER_SIZE)];
+        long remaining = length >= 0 ? length : Long.MAX_VALUE;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                if (length >= 0) {
+                    throw new IOException(String.format("Document stream ended %s bytes short " +
+                            "of its declared length of %s bytes", remaining, length));
+                }
+                break;
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    private static final class PathSource extends DocumentSource {
+        private final Path path;
+
+        PathSource (Path path) {
+            super(path.getFileName().toString());
+            this.path = path;
+        }
+
+        @Override
+        public long getLength () {
+            // only regular files have a length we can rely on (not e.g. named pipes)
+            try {
+                return Files.isRegularFile(path) ? Files.size(path) : -1;
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        void writeTo (OutputStream out) throws IOException {
+            try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+                if (channel instanceof FileChannel && Files.isRegularFile(path) &&
+                        out instanceof MultipartProcessor.ChannelTarget) {
+                    ((MultipartProcessor.ChannelTarget) out)
+                            .transferFrom((FileChannel) channel, 0, channel.size());
+                } else {
+                    copy(Channels.newInputStream(channel), out, -1);
+                }
+            }
+        }
+
+        @Override
+        String contentHash () throws IOException {
+            MessageDigest digest = sha1();
+            ByteBuffer buf = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+            try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+                while (channel.read(buf) != -1) {
+                    buf.flip();
+                    digest.update(buf);
+                    buf.clear();
+                }
+            }
+            return hex(digest.digest());
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            return o instanceof PathSource && path.equals(((PathSource) o).path);
+        }
+
+        @Override
+        public int hashCode () {
+            return path.hashCode();
+        }
+
+        @Override
+        public String toString () {
+            return path.toString();
+        }
+    }
+
+    private static final class BufferSource extends DocumentSource {
+        private final ByteBuffer data;
+
+        BufferSource (String filename, ByteBuffer data) {
+            super(filename);
+            this.data = data;
+        }
+
+        @Override
+        public long getLength () {
+            return data.remaining();
+        }
+
+        @Override
+        String contentHash () {
+            MessageDigest digest = sha1();
+            digest.update(data.duplicate());
+            return hex(digest.digest());
+        }
+
+        @Override
+        void writeTo (OutputStream out) throws IOException {
+            ByteBuffer buf = data.duplicate();
+            if (out instanceof MultipartProcessor.ChannelTarget) {
+                ((MultipartProcessor.ChannelTarget) out).write(buf);
+            } else if (buf.hasArray()) {
+                out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            } else {
+                byte[] chunk = new byte[Math.min(buf.remaining(), COPY_BUFFER_SIZE)];
+                while (buf.hasRemaining()) {
+                    int n = Math.min(chunk.length, buf.remaining());
+                    buf.get(chunk, 0, n);
+                    out.write(chunk, 0, n);
+                }
+            }
+        }
+    }
+
+    private static final class StreamSource extends DocumentSource {
+        private final InputStream in;
+        private final long length;
+        private final AtomicBoolean consumed = new AtomicBoolean();
+
+        StreamSource (String filename, InputStream in, long length) {
+            super(filename);
+            this.in = in;
+            this.length = length;
+        }
+
+        @Override
+        public long getLength () {
+            return length;
+        }
+
+        @Override
+        public boolean isRepeatable () {
+            return false;
+        }
+
+        @Override
+        void writeTo (OutputStream out) throws IOException {
+            if (consumed.getAndSet(true)) {
+                throw new IOException(String.format("The stream backing document %s has " +
+                        "already been uploaded, and cannot be read again", getFilename()));
+            }
+            try (InputStream is = in) {
+                copy(is, out, length);
+            }
+        }
+    }
+}
@@ -9,6 +9,9 @@ import java.io.File;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static io.pdfdata.Network.Method.*;
 
@@ -20,25 +23,86 @@ import static io.pdfdata.Network.Method.*;
  * @publicapi
  */
 public class DocumentsRequest extends Request {
+    /**
+     * The most bytes {@link #uploadInBatches(Collection, Collection)} sends in one batch.
+     */
+    public static final long DEFAULT_BATCH_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * The most files {@link #uploadInBatches(Collection, Collection)} sends in one batch.
+     */
+    public static final int DEFAULT_BATCH_FILES = 20;
+
+    /**
+     * The number of batches {@link #uploadInBatches(Collection, Collection)} uploads at once.
+     */
+    public static final int DEFAULT_BATCH_PARALLELISM = 4;
+
     private static final String base = "documents";
     private static final TypeReference<Document> TYPEREF = new TypeReference<Document>() {};
     private static final TypeReference<List<Document>> TYPEREF_LIST =
             new TypeReference<List<Document>> () {};
+    /** A creation cutoff later than that of any document, for listing all of them. */
+    private static final Instant LATEST = Instant.parse("2099-12-31T23:59:59Z");
 
     DocumentsRequest(API pdfdata) {
         super(pdfdata);
     }
 
+    /**
+     * Retrieves a {@link Document} given its ID, from the API's {@link DocumentCache} if
+     * {@link API#setCacheDocuments(boolean) document caching} is enabled and it is there.
+     */
     public Document byID(String docid) throws IOException {
-        return doRequest(GET, base + "/" + docid, TYPEREF);
+        if (!pdfdata.isCacheDocuments()) return doRequest(GET, base + "/" + docid, TYPEREF);
+
+        Document cached = pdfdata.getDocumentCache().getByID(docid);
+        if (cached != null) return cached;
+        Document d = doRequest(GET, base + "/" + docid, TYPEREF);
+        pdfdata.getDocumentCache().put(d);
+        return d;
     }
 
     public List<Document> list () throws IOException {
-        return list(Instant.ofEpochMilli(4102444799000L));
+        return list(LATEST);
     }
 
+    /**
+     * Lists documents created before the given instant, caching them all if
+     * {@link API#setCacheDocuments(boolean) document caching} is enabled.
+     */
     public List<Document> list (Instant createdBefore) throws IOException {
-        return doRequest(GET, base, Util.kvmap("before", createdBefore), TYPEREF_LIST);
+        List<Document> documents = doRequest(GET, base, Util.kvmap("before", createdBefore),
+                TYPEREF_LIST);
+        if (pdfdata.isCacheDocuments()) {
+            for (Document d : documents) pdfdata.getDocumentCache().put(d);
+        }
+        return documents;
+    }
+
+    /**
+     * Equivalent to {@link #stream(Instant)} with an instant after all documents' creation.
+     */
+    public Stream<Document> stream () {
+        return stream(LATEST);
+    }
+
+    /**
+     * Lazily lists all documents created before the given instant, newest first, requesting
+     * them a page at a time as the stream is consumed (each page after the first listing the
+     * documents created no later than the last of the page before). The next page is requested
+     * in the background as soon as the current one arrives. A failure to retrieve a page is
+     * thrown from the stream as an {@link java.io.UncheckedIOException}, as is finding a whole
+     * page of documents created in the same second, past which the rest can't be listed.
+     * Closing the stream cancels any outstanding request.
+     *
+     * Documents are cached as by {@link #list(Instant)}.
+     */
+    public Stream<Document> stream (Instant createdBefore) {
+        DocumentPager pager = new DocumentPager(this, createdBefore);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pager,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false)
+                .onClose(pager::close);
     }
 
     public List<Document> upload (File... files) throws IOException {
@@ -51,7 +115,141 @@ public class DocumentsRequest extends Request {
 
     public List<Document> upload (Collection<String> tags, Collection<File> files)
             throws IOException {
-        return doRequest(POST, base, Util.kvmap("tag", Util.setFrom(tags), "file", files), TYPEREF_LIST);
+        return uploadSources(tags, sources(files));
+    }
+
+    /**
+     * Uploads documents from sources other than files, e.g. in-memory byte arrays or streams.
+     */
+    public List<Document> uploadSources (DocumentSource... sources) throws IOException {
+        return uploadSources(null, Arrays.asList(sources));
+    }
+
+    /**
+     * Uploads documents from sources other than files, e.g. in-memory byte arrays or streams.
+     */
+    public List<Document> uploadSources (Collection<DocumentSource> sources) throws IOException {
+        return uploadSources(null, sources);
+    }
+
+    /**
+     * Uploads documents from sources other than files, e.g. in-memory byte arrays or streams.
+     */
+    public List<Document> uploadSources (Collection<String> tags,
+                                         Collection<DocumentSource> sources)
+            throws IOException {
+        List<Document> documents = doRequest(POST, base,
+                Util.kvmap("tag", Util.setFrom(tags), "file", sources), TYPEREF_LIST);
+        if (pdfdata.isDeduplicateUploads() || pdfdata.isCacheDocuments()) {
+            for (Document d : documents) pdfdata.getDocumentCache().put(d);
+        }
+        return documents;
+    }
+
+    /**
+     * Uploads documents as {@link #uploadInBatches(Collection, Collection, long, int, int)}
+     * does, using {@link #DEFAULT_BATCH_BYTES}, {@link #DEFAULT_BATCH_FILES}, and
+     * {@link #DEFAULT_BATCH_PARALLELISM}.
+     */
+    public BatchUpload uploadInBatches (Collection<String> tags, Collection<?> files)
+            throws IOException {
+        return uploadInBatches(tags, files, DEFAULT_BATCH_BYTES, DEFAULT_BATCH_FILES,
+                DEFAULT_BATCH_PARALLELISM);
+    }
+
+    /**
+     * Uploads documents in several requests rather than one, so that a slow or failed file
+     * holds up or fails only its own batch, and so that batches can be sent concurrently over
+     * separate connections. The files are packed into batches of up to {@code maxBatchBytes}
+     * and {@code maxBatchFiles} each, balanced by size, and up to {@code parallelism} batches
+     * are uploaded at once on the {@link API#getExecutor() API's executor}. Blocks until every
+     * batch has been attempted; unlike {@link #upload(Collection, Collection)}, upload
+     * failures are reported via the result rather than thrown.
+     *
+     * @param files a collection of {@link File}s, {@link java.nio.file.Path}s, {@link String}
+     *              paths, and/or {@link DocumentSource}s
+     */
+    public BatchUpload uploadInBatches (Collection<String> tags, Collection<?> files,
+                                        long maxBatchBytes, int maxBatchFiles, int parallelism)
+            throws IOException {
+        return BatchUpload.upload(this, tags, files, maxBatchBytes, maxBatchFiles, parallelism);
+    }
+
+    /**
+     * Asynchronous variant of {@link #byID(String)}, run on the
+     * {@link API#getExecutor() API's executor}.
+     */
+    public CompletableFuture<Document> byIDAsync (String docid) {
+        Document cached = pdfdata.isCacheDocuments() ?
+                pdfdata.getDocumentCache().getByID(docid) : null;
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+        return async(RateLimiter.Bucket.GET, 1, () -> byID(docid));
+    }
+
+    /**
+     * Asynchronous variant of {@link #list()}.
+     */
+    public CompletableFuture<List<Document>> listAsync () {
+        return async(RateLimiter.Bucket.GET, 1, this::list);
+    }
+
+    /**
+     * Asynchronous variant of {@link #list(Instant)}.
+     */
+    public CompletableFuture<List<Document>> listAsync (Instant createdBefore) {
+        return async(RateLimiter.Bucket.GET, 1, () -> list(createdBefore));
+    }
+
+    /**
+     * Asynchronous variant of {@link #upload(File...)}.
+     */
+    public CompletableFuture<List<Document>> uploadAsync (File... files) {
+        return uploadAsync(null, Arrays.asList(files));
+    }
+
+    /**
+     * Asynchronous variant of {@link #upload(Collection)}.
+     */
+    public CompletableFuture<List<Document>> uploadAsync (Collection<File> files) {
+        return uploadAsync(null, files);
+    }
+
+    /**
+     * Asynchronous variant of {@link #upload(Collection, Collection)}.
+     */
+    public CompletableFuture<List<Document>> uploadAsync (Collection<String> tags,
+                                                          Collection<File> files) {
+        return uploadSourcesAsync(tags, sources(files));
+    }
+
+    /**
+     * Asynchronous variant of {@link #uploadSources(DocumentSource...)}.
+     */
+    public CompletableFuture<List<Document>> uploadSourcesAsync (DocumentSource... sources) {
+        return uploadSourcesAsync(null, Arrays.asList(sources));
     }
 
+    /**
+     * Asynchronous variant of {@link #uploadSources(Collection)}.
+     */
+    public CompletableFuture<List<Document>> uploadSourcesAsync (
+            Collection<DocumentSource> sources) {
+        return uploadSourcesAsync(null, sources);
+    }
+
+    /**
+     * Asynchronous variant of {@link #uploadSources(Collection, Collection)}.
+     */
+    public CompletableFuture<List<Document>> uploadSourcesAsync (
+            Collection<String> tags, Collection<DocumentSource> sources) {
+        long bytes = 0;
+        for (DocumentSource s : sources) bytes += Math.max(0, s.getLength());
+        return async(RateLimiter.Bucket.UPLOAD_BYTES, bytes, () -> uploadSources(tags, sources));
+    }
+
+    private static List<DocumentSource> sources (Collection<File> files) {
+        List<DocumentSource> sources = new ArrayList<>(files.size());
+        for (File f : files) sources.add(DocumentSource.of(f));
+        return sources;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package io.pdfdata;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * A {@link Transport} that delegates to the JDK's {@link HttpURLConnection}, and therefore to its
+ * process-wide keep-alive cache (configured via the {@code http.keepAlive} and
+ * {@code http.maxConnections} system properties) and its proxy support (configured via the
+ * {@code https.proxyHost} and related system properties).
+ *
+ * Use this instead of the default {@link PooledTransport} if you need to reach PDFDATA.io
+ * through an HTTP proxy.
+ *
+ * @publicapi
+ */
+public class HttpURLConnectionTransport implements Transport {
+    public Response send (String method, URL url, Map<String, String> headers, Body body,
+                          int connectTimeout, int readTimeout) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        if (conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(Network.socketFactory);
+        }
+
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setUseCaches(false);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        if (body != null) {
+            conn.setDoOutput(true);
+            // stream the body rather than letting HttpURLConnection buffer it all in memory
+            long contentLength = body.getContentLength();
+            if (contentLength >= 0) {
+                conn.setFixedLengthStreamingMode(contentLength);
+            } else {
+                conn.setChunkedStreamingMode(0);
+            }
+        }
+
+        conn.connect();
+
+        if (body != null) {
+            try (OutputStream out = conn.getOutputStream()) {
+                body.writeTo(out);
+            }
+        }
+
+        return new ConnectionResponse(conn, conn.getResponseCode());
+    }
+
+    private static class ConnectionResponse implements Response {
+        private final HttpURLConnection conn;
+        private final int status;
+        private InputStream body;
+
+        ConnectionResponse (HttpURLConnection conn, int status) {
+            this.conn = conn;
+            this.status = status;
+        }
+
+        public int getStatus () {
+            return status;
+        }
+
+        public String getHeader (String name) {
+            return conn.getHeaderField(name);
+        }
+
+        public InputStream getBody () throws IOException {
+            if (body == null) {
+                body = status >= 200 && status < 300 ? conn.getInputStream() : conn.getErrorStream();
+                if (body == null) body = new ByteArrayInputStream(new byte[0]);
+            }
+            return body;
+        }
+
+        public void close () throws IOException {
+            // closing (rather than disconnecting) lets the JDK keep the connection alive
+            getBody().close();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import io.pdfdata.model.Info;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import static io.pdfdata.Network.Method.GET;
 
@@ -22,4 +23,12 @@ public class InfoRequest extends Request {
     public Info get () throws IOException {
         return doRequest(GET, "", TYPEREF);
     }
+
+    /**
+     * Asynchronous variant of {@link #get()}, run on the
+     * {@link API#getExecutor() API's executor}.
+     */
+    public CompletableFuture<Info> getAsync () {
+        return async(RateLimiter.Bucket.GET, 1, this::get);
+    }
 }
@@ -1,6 +1,7 @@
 package io.pdfdata;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -10,36 +11,83 @@ import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.node.TreeTraversingParser;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import io.pdfdata.model.Document;
+import io.pdfdata.model.Info;
+import io.pdfdata.model.Operation;
+import io.pdfdata.model.Proc;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
 import java.time.Instant;
 import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @nodoc
  */
 public class JSON {
+    /**
+     * The mapper shared by all {@code JSON} instances (and so all {@link API}s), so that the
+     * (de)serializers it builds by introspecting the model are built and cached just once.
+     */
     private static final ObjectMapper MAPPER = configureMapper(new ObjectMapper());
     private final API pdfdata;
-    private final ObjectMapper mapper;
+    final ObjectMapper mapper;
     private final ObjectReader reader;
 
-    private static final ThreadLocal<API> TL_API = new ThreadLocal<>();
+    /**
+     * Returns the {@link API} on whose behalf the given context is mapping, as available to
+     * custom deserializers. (Entities needing it should instead have it injected via
+     * {@code @JacksonInject}.)
+     */
+    public static API api (DeserializationContext ctxt) {
+        return of(ctxt).pdfdata;
+    }
 
-    public static API currentAPI () {
-        API pdfdata = TL_API.get();
-        assert pdfdata != null;
-        return pdfdata;
+    /**
+     * Returns the {@code JSON} instance mapping via the given context.
+     */
+    public static JSON of (DeserializationContext ctxt) {
+        JSON json = (JSON) ctxt.getAttribute(JSON.class);
+        assert json != null;
+        return json;
     }
 
     public JSON (API pdfdata) {
         this.pdfdata = pdfdata;
-        mapper = configureMapper(new ObjectMapper());
-        reader = mapper.reader();
-        // left here so we can remember how to configure the ObjectCodec
-        // .withAttribute(API_BASE_URL, pdfdata.getEndpoint());
+        mapper = MAPPER;
+        // the API is bound to each mapping via the reader, rather than to the mapping thread,
+        // so that values can be mapped on any thread, and from within other mappings
+        reader = mapper.reader()
+                .with(new InjectableValues.Std().addValue(API.class, pdfdata))
+                .withAttribute(JSON.class, this);
+    }
+
+    /**
+     * Has the shared mapper build and cache the deserializers for all of the entities mapped
+     * from PDFDATA.io responses (and the serializers for the {@link Operation}s sent to it),
+     * which otherwise happens piecemeal as each type is first encountered.
+     */
+    static void warmUp () {
+        for (JavaType type : Arrays.asList(
+                MAPPER.constructType(Proc.class),
+                MAPPER.constructType(Document.class),
+                MAPPER.constructType(Info.class),
+                MAPPER.getTypeFactory().constructCollectionType(List.class, Proc.class),
+                MAPPER.getTypeFactory().constructCollectionType(List.class, Document.class),
+                MAPPER.getTypeFactory().constructCollectionType(List.class, Operation.class))) {
+            MAPPER.readerFor(type);
+        }
+        for (Class<?> base : Arrays.asList(Operation.class, Operation.Result.class)) {
+            for (JsonSubTypes.Type subtype : base.getAnnotation(JsonSubTypes.class).value()) {
+                MAPPER.readerFor(subtype.value());
+                if (base == Operation.class) MAPPER.canSerialize(subtype.value());
+            }
+        }
     }
 
     private static ObjectMapper configureMapper (ObjectMapper mapper) {
@@ -49,18 +97,26 @@ public class JSON {
         // support for instants w/o the additional dependency
         m.addSerializer(new InstantSerializer());
         m.addDeserializer(Instant.class, new InstantDeserializer());
-        // case-converting enum mapping, from https://stackoverflow.com/a/24173645
+        // case-converting enum mapping, from https://stackoverflow.com/a/24173645, with each
+        // type's constants looked up by name rather than converted and resolved per token
         m.setDeserializerModifier(new BeanDeserializerModifier() {
             @Override
             public JsonDeserializer<Enum> modifyEnumDeserializer(DeserializationConfig config,
                                                                  final JavaType type,
                                                                  BeanDescription beanDesc,
                                                                  final JsonDeserializer<?> deserializer) {
+                Class<? extends Enum> rawClass = (Class<Enum<?>>) type.getRawClass();
+                Map<String, Enum> constants = new HashMap<>();
+                for (Enum e : rawClass.getEnumConstants()) {
+                    constants.put(e.name(), e);
+                    constants.put(e.name().toLowerCase(), e);
+                }
                 return new JsonDeserializer<Enum>() {
                     @Override
                     public Enum deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
-                        Class<? extends Enum> rawClass = (Class<Enum<?>>) type.getRawClass();
-                        return Enum.valueOf(rawClass, jp.getValueAsString().toUpperCase());
+                        String name = jp.getValueAsString();
+                        Enum e = constants.get(name);
+                        return e != null ? e : Enum.valueOf(rawClass, name.toUpperCase());
                     }
                 };
             }
@@ -75,10 +131,6 @@ public class JSON {
         return mapper;
     }
 
-    private void startMapping () {
-        TL_API.set(pdfdata);
-    }
-
     public String to (Object obj) throws IOException {
         return to(obj, mapper);
     }
@@ -93,31 +145,50 @@ public class JSON {
         return out.toString();
     }
 
+    /**
+     * Parses the given stream directly into the result type (without buffering it or building
+     * an intermediate tree), and closes it.
+     */
     public <T> T from(InputStream is, TypeReference<T> resultType) throws IOException {
-        return from(Util.readString(is), resultType);
+        try (JsonParser parser = reader.getFactory().createParser(is)) {
+            return reader.readValue(parser, resultType);
+        }
     }
 
     public <T> T from(InputStream is, Class<T> cls) throws IOException {
-        return from(Util.readString(is), cls);
+        try (JsonParser parser = reader.getFactory().createParser(is)) {
+            return reader.readValue(parser, cls);
+        }
+    }
+
+    /**
+     * Returns a parser over the given stream, for mapping values from it one at a time via
+     * {@link #from(JsonParser, Class)}.
+     */
+    JsonParser parser (InputStream is) throws IOException {
+        return reader.getFactory().createParser(is);
+    }
+
+    /**
+     * Maps the value at the parser's current token, leaving the parser on its last token.
+     */
+    <T> T from(JsonParser parser, Class<T> cls) throws IOException {
+        return reader.readValue(parser, cls);
     }
 
     public <T> T from(String data, Class<T> cls) throws IOException {
-        startMapping();
         return reader.readValue(reader.getFactory().createParser(data), cls);
     }
 
     public <T> T from(String data, TypeReference<T> resultType) throws IOException {
-        startMapping();
         return reader.readValue(reader.getFactory().createParser(data), resultType);
     }
 
     public <T> T from(JsonNode responseBody, TypeReference<T> resultType) throws IOException {
-        startMapping();
         return reader.readValue(new TreeTraversingParser(responseBody, reader), resultType);
     }
 
     public <T> T from(JsonNode responseBody, Class<T> resultType) throws IOException {
-        startMapping();
         return reader.readValue(new TreeTraversingParser(responseBody, reader), resultType);
     }
 
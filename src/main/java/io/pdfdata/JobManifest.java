@@ -0,0 +1,218 @@
+package io.pdfdata;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pdfdata.model.Document;
+import io.pdfdata.model.Operation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The append-only record of a {@link ProcPipeline} run, one JSON object per line, from which an
+ * interrupted run can be resumed. Documents are identified by the SHA-1 hash of their contents,
+ * and four kinds of record are written:
+ *
+ * <ul>
+ *     <li>{@code {"type":"operations","hash":...}} first, the SHA-1 hash of the canonical JSON
+ *     of the operations run, so that a run with different operations can't resume from the
+ *     manifest (and skip documents whose results it never produced);</li>
+ *     <li>{@code {"type":"document","hash":...,"id":...,"expires":...}} once a document has
+ *     been uploaded;</li>
+ *     <li>{@code {"type":"proc","id":...,"hashes":[...]}} once a proc has been started on some
+ *     documents;</li>
+ *     <li>{@code {"type":"complete","id":...,"hashes":[...]}} once a proc's results have been
+ *     handed off.</li>
+ * </ul>
+ *
+ * A trailing partial record (from a process that died mid-write) is ignored, and overwritten
+ * by the next record appended.
+ */
+final class JobManifest implements Closeable {
+    /** as {@link DocumentCache}'s, so that procs have time to run on reused documents */
+    private static final Duration EXPIRY_MARGIN = Duration.ofMinutes(5);
+
+    private final FileChannel out;
+    private final Map<String, String> documentIDs = new HashMap<>();
+    private final Map<String, Instant> documentExpiries = new HashMap<>();
+    private final Map<String, List<String>> pendingProcs = new LinkedHashMap<>();
+    private final Set<String> completed = new HashSet<>();
+    /** the hash of the operations recorded by the manifest's header, if it has one */
+    private String recordedOperations;
+
+    JobManifest (Path file, JSON json, List<Operation> operations) throws IOException {
+        String operationsHash = Util.sha1(JSON.to0(operations));
+        byte[] content = Files.exists(file) ? Files.readAllBytes(file) : new byte[0];
+        // the length of the complete records, and whether the last lacks its newline
+        int valid = 0;
+        boolean unterminated = false;
+        while (valid < content.length) {
+            int end = indexOf(content, (byte) '\n', valid);
+            int length = (end < 0 ? content.length : end) - valid;
+            if (length > 0) {
+                try {
+                    load(json.from(new String(content, valid, length, StandardCharsets.UTF_8),
+                            JsonNode.class));
+                } catch (IOException e) {
+                    // a partial last record is from a process that died mid-write
+                    if (end < 0) break;
+                    throw new IOException(String.format("Corrupt manifest %s at byte %d", file,
+                            valid), e);
+                }
+            }
+            unterminated = end < 0;
+            valid = end < 0 ? content.length : end + 1;
+        }
+        if (valid > 0 && !operationsHash.equals(recordedOperations)) {
+            throw new IOException(String.format("Manifest %s records a run with different " +
+                    "operations", file));
+        }
+
+        out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        out.truncate(valid);
+        out.position(valid);
+        if (unterminated) out.write(ByteBuffer.wrap(new byte[] {'\n'}));
+        if (valid == 0) {
+            ObjectNode header = record("operations", null);
+            header.put("hash", operationsHash);
+            append(header);
+        }
+    }
+
+    private static int indexOf (byte[] bytes, byte b, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private void load (JsonNode record) {
+        String type = record.path("type").asText();
+        String id = record.path("id").asText(null);
+        switch (type) {
+            case "operations":
+                recordedOperations = record.path("hash").asText();
+                break;
+            case "document":
+                String hash = record.path("hash").asText();
+                documentIDs.put(hash, id);
+                String expires = record.path("expires").asText(null);
+                if (expires == null) {
+                    documentExpiries.remove(hash);
+                } else {
+                    documentExpiries.put(hash, API.parseDate(expires));
+                }
+                break;
+            case "proc":
+                pendingProcs.put(id, hashes(record));
+                break;
+            case "complete":
+                if (id != null) pendingProcs.remove(id);
+                completed.addAll(hashes(record));
+                break;
+            default:
+                // written by a later version
+        }
+    }
+
+    private static List<String> hashes (JsonNode record) {
+        List<String> hashes = new ArrayList<>();
+        for (JsonNode h : record.path("hashes")) hashes.add(h.asText());
+        return hashes;
+    }
+
+    /**
+     * Returns true if the results for the document with the given hash have been handed off.
+     */
+    synchronized boolean isCompleted (String hash) {
+        return completed.contains(hash);
+    }
+
+    /**
+     * Returns the procs started but not completed, with the hashes of their documents, by ID.
+     */
+    synchronized Map<String, List<String>> getPendingProcs () {
+        return new LinkedHashMap<>(pendingProcs);
+    }
+
+    /**
+     * Returns the ID of the uploaded document with the given hash, or null if it was never
+     * uploaded or has expired (or is about to).
+     */
+    synchronized String getDocumentID (String hash) {
+        Instant expires = documentExpiries.get(hash);
+        if (expires != null && Instant.now().plus(EXPIRY_MARGIN).isAfter(expires)) return null;
+        return documentIDs.get(hash);
+    }
+
+    synchronized void uploaded (String hash, Document document) throws IOException {
+        ObjectNode record = record("document", document.getID());
+        record.put("hash", hash);
+        if (document.getExpires() != null) {
+            record.put("expires", API.INSTANT_FORMATTER.format(
+                    document.getExpires().atOffset(ZoneOffset.UTC)));
+        }
+        append(record);
+        documentIDs.put(hash, document.getID());
+        if (document.getExpires() != null) documentExpiries.put(hash, document.getExpires());
+    }
+
+    synchronized void started (String procID, Collection<String> hashes) throws IOException {
+        append(record("proc", procID, hashes));
+        pendingProcs.put(procID, new ArrayList<>(hashes));
+    }
+
+    /**
+     * Records that the results of the given proc (null if it was never started, e.g. because
+     * all of its results were cached) have been handed off.
+     */
+    synchronized void completed (String procID, Collection<String> hashes) throws IOException {
+        append(record("complete", procID, hashes));
+        if (procID != null) pendingProcs.remove(procID);
+        completed.addAll(hashes);
+    }
+
+    private static ObjectNode record (String type, String id) {
+        ObjectNode record = JsonNodeFactory.instance.objectNode();
+        record.put("type", type);
+        if (id != null) record.put("id", id);
+        return record;
+    }
+
+    private static ObjectNode record (String type, String id, Collection<String> hashes) {
+        ObjectNode record = record(type, id);
+        ArrayNode array = record.putArray("hashes");
+        for (String h : hashes) array.add(h);
+        return record;
+    }
+
+    private void append (ObjectNode record) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((JSON.to0(record) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) out.write(line);
+    }
+
+    @Override
+    public synchronized void close () throws IOException {
+        out.close();
+    }
+}
@@ -1,28 +1,57 @@
 package io.pdfdata;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.net.URLConnection;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 /**
  * Generates multipart form data request bodies.
  *
- * Copied verbatim from Stripe's Java client library
+ * Parts are collected up front and only encoded as the body is written, so that the exact
+ * length of the body can be computed ahead of time (allowing it to be streamed with a fixed
+ * {@code Content-Length}, rather than buffered in full by the transport). If the length of any
+ * file part can't be determined, {@link #getContentLength()} returns -1 and the body is sent
+ * using chunked transfer encoding instead.
+ *
+ * Part headers are encoded to bytes once, when the part is added. File contents and direct
+ * buffers are handed to the transport as {@link FileChannel}s and {@link ByteBuffer}s when it
+ * supports that (see {@link ChannelTarget}), so they can be sent without being copied through
+ * the Java heap over plaintext connections.
+ *
+ * Originally derived from Stripe's Java client library
  * (https://github.com/stripe/stripe-java, MIT-licensed), commit e0ab7ce444f9
  * @nodoc
  */
-public class MultipartProcessor {
+public class MultipartProcessor implements Transport.Body {
     private final String boundary;
     private static final String LINE_BREAK = "\r\n";
-    private OutputStream outputStream;
-    private PrintWriter writer;
-    private String charset;
-    private java.net.HttpURLConnection conn;
+    private final Charset charset;
+    private final byte[] lineBreak;
+    private final byte[] closingDelimiter;
+    private final List<Part> parts = new ArrayList<>();
+
+    /**
+     * Implemented by request body streams that can send file contents and buffers more
+     * efficiently than by having them written to them as byte arrays.
+     */
+    interface ChannelTarget {
+        /**
+         * Writes {@code count} bytes of {@code src}, starting at {@code position}, to the body.
+         */
+        void transferFrom (FileChannel src, long position, long count) throws IOException;
+
+        /**
+         * Writes all of {@code src}'s remaining bytes to the body.
+         */
+        void write (ByteBuffer src) throws IOException;
+    }
 
     public static String getBoundary() {
         Random random = new Random();
@@ -30,65 +59,87 @@ public class MultipartProcessor {
         return String.valueOf(positiveRandomLong);
     }
 
-    public MultipartProcessor(java.net.HttpURLConnection conn, String boundary, String charset)
-            throws IOException {
+    public MultipartProcessor(String boundary, String charset) {
         this.boundary = boundary;
-        this.charset = charset;
-        this.conn = conn;
+        this.charset = Charset.forName(charset);
+        this.lineBreak = encode(LINE_BREAK);
+        this.closingDelimiter = encode("--" + boundary + "--" + LINE_BREAK);
+    }
 
-        this.outputStream = conn.getOutputStream();
-        this.writer = new PrintWriter(new OutputStreamWriter(outputStream,
-                charset), true);
+    /**
+     * Returns the value of the {@code Content-Type} header that must accompany this body.
+     */
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
     }
 
     public void addFormField(String name, String value) {
-        writer.append("--" + boundary).append(LINE_BREAK);
-        writer.append("Content-Disposition: form-data; name=\"" + name + "\"")
-                .append(LINE_BREAK);
-        writer.append(LINE_BREAK);
-        writer.append(value).append(LINE_BREAK);
-        writer.flush();
+        parts.add(new Part(encode("--" + boundary + LINE_BREAK +
+                "Content-Disposition: form-data; name=\"" + name + "\"" + LINE_BREAK +
+                LINE_BREAK +
+                value + LINE_BREAK), null));
+    }
+
+    public void addFileField(String name, File file) {
+        addFileField(name, DocumentSource.of(file));
+    }
+
+    public void addFileField(String name, DocumentSource source) {
+        String fileName = source.getFilename();
+        String probableContentType = URLConnection.guessContentTypeFromName(fileName);
+        if (probableContentType == null) probableContentType = "application/octet-stream";
+
+        parts.add(new Part(encode("--" + boundary + LINE_BREAK +
+                "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" +
+                fileName + "\"" + LINE_BREAK +
+                "Content-Type: " + probableContentType + LINE_BREAK +
+                "Content-Transfer-Encoding: binary" + LINE_BREAK +
+                LINE_BREAK), source));
     }
 
-    public void addFileField(String name, File file) throws IOException {
-        String fileName = file.getName();
-        writer.append("--" + boundary).append(LINE_BREAK);
-        writer.append(
-                "Content-Disposition: form-data; name=\"" + name
-                        + "\"; filename=\"" + fileName + "\"").append(
-                LINE_BREAK);
-
-        String probableContentType = URLConnection
-                .guessContentTypeFromName(fileName);
-        writer.append("Content-Type: " + probableContentType)
-                .append(LINE_BREAK);
-        writer.append("Content-Transfer-Encoding: binary").append(LINE_BREAK);
-        writer.append(LINE_BREAK);
-        writer.flush();
-
-        FileInputStream inputStream = new FileInputStream(file);
-        try {
-            byte[] buffer = new byte[4096];
-            int bytesRead = -1;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
+    private byte[] encode (String s) {
+        return s.getBytes(charset);
+    }
+
+    public long getContentLength() {
+        long length = closingDelimiter.length;
+        for (Part part : parts) {
+            length += part.header.length;
+            if (part.source != null) {
+                long sourceLength = part.source.getLength();
+                if (sourceLength < 0) return -1;
+                length += sourceLength + lineBreak.length;
             }
-            outputStream.flush();
-        } finally {
-            inputStream.close();
         }
+        return length;
+    }
 
-        writer.append(LINE_BREAK);
-        writer.flush();
+    public boolean isRepeatable() {
+        for (Part part : parts) {
+            if (part.source != null && !part.source.isRepeatable()) return false;
+        }
+        return true;
     }
 
-    public void finish() throws IOException {
-        writer.append("--" + boundary + "--").append(LINE_BREAK);
-        writer.flush();
-        writer.close();
+    public void writeTo(OutputStream outputStream) throws IOException {
+        for (Part part : parts) {
+            outputStream.write(part.header);
+            if (part.source != null) {
+                part.source.writeTo(outputStream);
+                outputStream.write(lineBreak);
+            }
+        }
+        outputStream.write(closingDelimiter);
         outputStream.flush();
-        outputStream.close();
     }
 
-}
+    private static class Part {
+        private final byte[] header;
+        private final DocumentSource source;
 
+        Part (byte[] header, DocumentSource source) {
+            this.header = header;
+            this.source = source;
+        }
+    }
+}
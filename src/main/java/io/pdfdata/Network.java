@@ -1,6 +1,5 @@
 package io.pdfdata;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 import javax.xml.bind.DatatypeConverter;
 import java.io.IOException;
@@ -24,7 +23,7 @@ class Network {
     static final String CHARSET_NAME = "UTF-8";
     static final Charset CHARSET = Charset.forName(CHARSET_NAME);
 
-    private static final SSLSocketFactory socketFactory = new PDFDATASSLSocketFactory();
+    static final SSLSocketFactory socketFactory = new PDFDATASSLSocketFactory();
     static boolean REQUIRE_SECURE_CONNECTIONS = true;
 
     public static enum Method {
@@ -39,12 +38,6 @@ class Network {
                 put("User-Agent",
                         String.format("PDFDATA.io/v1 JavaBindings/%s", API.VERSION));
                 put("X-API-Intent", "Y");
-                /*
-                put("Stripe-Version", apiVersion);
-                if (options.getIdempotencyKey() != null) {
-                    headers.put("Idempotency-Key", options.getIdempotencyKey());
-                }
-                */
 
                 // debug headers
                 String[] propertyNames = {"os.name", "os.version", "os.arch",
@@ -105,32 +98,20 @@ class Network {
         return headers;
     }
 
-    static HttpURLConnection openConnection (Method verb, URL url, Map<String, String> headers,
-                                             API pdfdata) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        if (conn instanceof HttpsURLConnection) {
-            ((HttpsURLConnection)conn).setSSLSocketFactory(socketFactory);
-        } else if (REQUIRE_SECURE_CONNECTIONS) {
+    /**
+     * Sends a request via the {@link Transport} configured for the given {@link API} instance,
+     * adding the base headers sent with every PDFDATA.io API request.
+     */
+    static Transport.Response send (Method verb, URL url, Map<String, String> headers,
+                                    Transport.Body body, API pdfdata) throws IOException {
+        if (REQUIRE_SECURE_CONNECTIONS && !"https".equalsIgnoreCase(url.getProtocol())) {
             throw new IOException("Could not establish secure connection to " + url);
         }
 
-        conn.setRequestMethod(verb.toString());
-        conn.setConnectTimeout(pdfdata.getConnectTimeout());
-        conn.setReadTimeout(pdfdata.getReadTimeout());
-        conn.setUseCaches(false);
-        for (Map.Entry<String, String> header : getHeaders(pdfdata).entrySet()) {
-            conn.setRequestProperty(header.getKey(), header.getValue());
-        }
-        if (headers != null) {
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                conn.setRequestProperty(header.getKey(), header.getValue());
-            }
-        }
-
-        if (verb == POST) conn.setDoOutput(true);
-
-        conn.connect();
+        Map<String, String> allHeaders = getHeaders(pdfdata);
+        if (headers != null) allHeaders.putAll(headers);
 
-        return conn;
+        return pdfdata.getTransport().send(verb.toString(), url, allHeaders, body,
+                pdfdata.getConnectTimeout(), pdfdata.getReadTimeout());
     }
 }
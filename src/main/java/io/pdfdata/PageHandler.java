@@ -0,0 +1,34 @@
+package io.pdfdata;
+
+import io.pdfdata.model.Operation;
+import io.pdfdata.model.Page;
+
+import java.io.IOException;
+
+/**
+ * Receives the pages of a {@link io.pdfdata.model.Proc}'s page-oriented results (those of
+ * {@link io.pdfdata.model.ops.Text} and {@link io.pdfdata.model.ops.Images} operations) one at a
+ * time, as they are read from PDFDATA.io, via
+ * {@link ProcsRequest#stream(String, PageHandler)}.
+ *
+ * @publicapi
+ */
+@FunctionalInterface
+public interface PageHandler {
+    /**
+     * Called for each page of each page-oriented result, in the order they appear in the
+     * response. The response is only read further once this method returns, so a slow handler
+     * slows the download rather than pages accumulating in memory.
+     *
+     * @param docID the ID of the document the page belongs to, or null in the unlikely event
+     *              that PDFDATA.io conveys it after the document's results
+     * @param operation the operation that produced the page's result
+     * @param page a {@link io.pdfdata.model.ops.Text.Page} or
+     *             {@link io.pdfdata.model.ops.Images.Page}, depending upon {@code operation}.
+     *             The {@link io.pdfdata.model.Image}s of the latter only carry their
+     *             {@link io.pdfdata.model.ResourcefulEntity#getResourceID() resource IDs}, as
+     *             their results' resources aren't available yet.
+     * @throws IOException to abort the stream
+     */
+    void page (String docID, Operation operation, Page page) throws IOException;
+}
@@ -0,0 +1,973 @@
+package io.pdfdata;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The default {@link Transport}, a minimal HTTP/1.1 client that keeps a bounded pool of
+ * persistent connections per endpoint (scheme, host, and port).
+ *
+ * <ul>
+ *     <li>At most {@link #getMaxPerRoute()} connections are open to any one endpoint at a time;
+ *     requests beyond that wait for a connection to be released, for up to the read timeout,
+ *     after which they fail with a {@link RequestRejectedException} (never sent, so never
+ *     retried). Long polls hold their connections for as long as PDFDATA.io waits, so the
+ *     default is generous; pass a {@code PooledTransport} of a different size to
+ *     {@link API#setTransport(Transport)} to change it for one {@code API} instance.</li>
+ *     <li>Idle connections are evicted once they have been idle for longer than
+ *     {@link #getIdleTimeout()} milliseconds.</li>
+ *     <li>Plaintext connections that have been idle for more than a couple of seconds are
+ *     checked for having been closed by the server before being reused. (TLS connections
+ *     aren't, as that would cost a read of a TLS record on every checkout.) A request that
+ *     fails on a reused connection before any response is received is retried once on a new
+ *     connection, if it's idempotent (by method, or by carrying an {@code Idempotency-Key}),
+ *     as the server may have received it.</li>
+ * </ul>
+ *
+ * Files uploaded over plaintext ({@code http}) connections are sent with
+ * {@link FileChannel#transferTo}, which lets the operating system copy them straight from the
+ * page cache to the socket. PDFDATA.io itself is only served over {@code https}, so this only
+ * helps with plaintext endpoints, such as local test servers or a TLS-terminating proxy. Over
+ * TLS, file contents must pass through the JVM to be encrypted; they are read in 64 KB blocks,
+ * which saves little over a plain stream copy, as encryption dominates the cost.
+ *
+ * All {@link API} instances share {@link #shared() a single pool} unless configured otherwise.
+ *
+ * @publicapi
+ */
+public class PooledTransport implements Transport {
+    public static final int DEFAULT_MAX_PER_ROUTE = 32;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30 * 1000;
+
+    private static final long VALIDATE_AFTER_INACTIVITY = 2 * 1000;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int MAX_DRAIN = 64 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final PooledTransport SHARED = new PooledTransport();
+
+    private final int maxPerRoute;
+    private final long idleTimeout;
+    private final SSLSocketFactory sslSocketFactory;
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Returns the process-wide pool used by default by all {@link API} instances.
+     */
+    public static PooledTransport shared () {
+        return SHARED;
+    }
+
+    public PooledTransport () {
+        this(DEFAULT_MAX_PER_ROUTE, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param maxPerRoute the maximum number of connections open to any one endpoint
+     * @param idleTimeout the number of milliseconds after which idle connections are evicted
+     */
+    public PooledTransport (int maxPerRoute, long idleTimeout) {
+        if (maxPerRoute < 1) throw new IllegalArgumentException("maxPerRoute must be positive");
+        this.maxPerRoute = maxPerRoute;
+        this.idleTimeout = idleTimeout;
+        this.sslSocketFactory = Network.socketFactory;
+    }
+
+    public int getMaxPerRoute () {
+        return maxPerRoute;
+    }
+
+    public long getIdleTimeout () {
+        return idleTimeout;
+    }
+
+    /**
+     * Returns the number of requests that were sent over a reused pooled connection.
+     */
+    public long getHits () {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that required opening a new connection.
+     */
+    public long getMisses () {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of TLS handshakes performed.
+     */
+    public long getHandshakes () {
+        return handshakes.get();
+    }
+
+    /**
+     * Returns the number of idle connections closed because they had expired or were found to
+     * have been closed by the server.
+     */
+    public long getEvictions () {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of connections currently idle in the pool.
+     */
+    public int getIdleCount () {
+        int count = 0;
+        for (Route route : routes.values()) count += route.idle.size();
+        return count;
+    }
+
+    /**
+     * Closes all connections that have been idle for longer than the idle timeout. This
+     * happens lazily as connections are checked out of the pool, so calling this is never
+     * required; it is offered for applications that want to shed idle sockets promptly.
+     */
+    public void evictIdle () {
+        long now = System.currentTimeMillis();
+        for (Route route : routes.values()) {
+            for (Connection c : route.idle) {
+                if (now - c.idleSince > idleTimeout && route.idle.remove(c)) {
+                    evictions.incrementAndGet();
+                    c.closeQuietly();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections.
+     */
+    public void clear () {
+        for (Route route : routes.values()) {
+            Connection c;
+            while ((c = route.idle.pollFirst()) != null) c.closeQuietly();
+        }
+    }
+
+    public Response send (String method, URL url, Map<String, String> headers, Body body,
+                          int connectTimeout, int readTimeout) throws IOException {
+        Route route = routes.computeIfAbsent(routeKey(url), k -> new Route(k, maxPerRoute));
+        acquirePermit(route, readTimeout);
+
+        boolean released = false;
+        try {
+            Connection c = checkout(route, url, connectTimeout, readTimeout, true);
+            Response response;
+            try {
+                response = exchange(c, method, url, headers, body);
+            } catch (StaleConnectionException e) {
+                // the server closed an idle connection on us; nothing was received, so retry once
+                c.closeQuietly();
+                if ((body != null && !body.isRepeatable()) || !isReplayable(method, headers)) {
+                    throw (IOException) e.getCause();
+                }
+                evictions.incrementAndGet();
+                c = checkout(route, url, connectTimeout, readTimeout, false);
+                response = exchange(c, method, url, headers, body);
+            }
+            released = true;
+            return response;
+        } finally {
+            if (!released) route.permits.release();
+        }
+    }
+
+    private static String routeKey (URL url) {
+        return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" +
+                port(url);
+    }
+
+    private static int port (URL url) {
+        return url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    }
+
+    /**
+     * Returns true if a request may be sent again without risking its effect being applied
+     * twice.
+     */
+    private static boolean isReplayable (String method, Map<String, String> headers) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+            case "OPTIONS":
+                return true;
+            default:
+                return headers != null && headers.containsKey("Idempotency-Key");
+        }
+    }
+
+    private void acquirePermit (Route route, int readTimeout) throws IOException {
+        try {
+            if (!route.permits.tryAcquire(readTimeout > 0 ? readTimeout : Long.MAX_VALUE,
+                    TimeUnit.MILLISECONDS)) {
+                throw new RequestRejectedException(String.format("Request rejected: none of " +
+                        "the %d connections to %s became available within %dms", maxPerRoute,
+                        route.key, readTimeout));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " +
+                    route.key);
+        }
+    }
+
+    private Connection checkout (Route route, URL url, int connectTimeout, int readTimeout,
+                                 boolean allowReuse) throws IOException {
+        if (allowReuse) {
+            long now = System.currentTimeMillis();
+            Connection c;
+            while ((c = route.idle.pollFirst()) != null) {
+                if (now - c.idleSince <= idleTimeout &&
+                        (now - c.idleSince < VALIDATE_AFTER_INACTIVITY || c.isAlive())) {
+                    hits.incrementAndGet();
+                    c.socket.setSoTimeout(readTimeout);
+                    return c;
+                }
+                evictions.incrementAndGet();
+                c.closeQuietly();
+            }
+        }
+
+        misses.incrementAndGet();
+        return connect(route, url, connectTimeout, readTimeout);
+    }
+
+    private Connection connect (Route route, URL url, int connectTimeout, int readTimeout)
+            throws IOException {
+        String host = url.getHost();
+        int port = port(url);
+        boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+        // plaintext sockets are opened via a channel, so file uploads can be sent with sendfile
+        SocketChannel channel = secure ? null : SocketChannel.open();
+        Socket socket = secure ? new Socket() : channel.socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(readTimeout);
+
+            if (secure) {
+                SSLSocket ssl = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+                SSLParameters params = ssl.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(params);
+                ssl.startHandshake();
+                handshakes.incrementAndGet();
+                socket = ssl;
+            }
+
+            return new Connection(route, socket, channel, false);
+        } catch (IOException | RuntimeException e) {
+            try {
+                socket.close();
+            } catch (IOException e2) {
+                // ignore
+            }
+            throw e;
+        }
+    }
+
+    private void release (Connection c, boolean reusable) {
+        if (reusable && !c.socket.isClosed()) {
+            c.idleSince = System.currentTimeMillis();
+            c.reused = true;
+            c.route.idle.offerFirst(c);
+        } else {
+            c.closeQuietly();
+        }
+        c.route.permits.release();
+    }
+
+    private Response exchange (Connection c, String method, URL url, Map<String, String> headers,
+                               Body body) throws IOException {
+        try {
+            writeRequest(c, method, url, headers, body);
+        } catch (IOException e) {
+            if (c.reused && !(e instanceof InterruptedIOException)) {
+                throw new StaleConnectionException(e);
+            }
+            c.closeQuietly();
+            throw e;
+        }
+
+        try {
+            return readResponse(c, method);
+        } catch (IOException e) {
+            c.closeQuietly();
+            throw e;
+        }
+    }
+
+    private static void writeRequest (Connection c, String method, URL url,
+                                      Map<String, String> headers, Body body)
+            throws IOException {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append(method).append(' ').append(url.getFile().isEmpty() ? "/" : url.getFile())
+                .append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            sb.append(':').append(url.getPort());
+        }
+        sb.append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+
+        long contentLength = body == null ? 0 : body.getContentLength();
+        if (contentLength >= 0) {
+            if (body != null || "POST".equals(method)) {
+                sb.append("Content-Length: ").append(contentLength).append("\r\n");
+            }
+        } else {
+            sb.append("Transfer-Encoding: chunked\r\n");
+        }
+        sb.append("\r\n");
+
+        c.out.write(sb.toString().getBytes(ASCII));
+
+        if (body != null) {
+            BodyOutputStream out = contentLength >= 0 ?
+                    new FixedLengthOutputStream(c.out, c.channel, contentLength) :
+                    new ChunkedOutputStream(c.out, c.channel);
+            body.writeTo(out);
+            out.finish();
+        }
+
+        c.out.flush();
+    }
+
+    private Response readResponse (Connection c, String method) throws IOException {
+        String statusLine;
+        int status;
+        TreeMap<String, String> headers;
+
+        do {
+            try {
+                statusLine = readLine(c.in);
+            } catch (IOException e) {
+                // a closed idle connection reads as ended, or as reset if the request written
+                // to it reached the server after it was closed
+                if (c.reused && !(e instanceof InterruptedIOException)) {
+                    throw new StaleConnectionException(e);
+                }
+                throw e;
+            }
+            status = parseStatus(statusLine);
+            headers = readHeaders(c.in);
+            // interim 1xx responses carry no body
+        } while (status >= 100 && status < 200);
+
+        boolean http11 = statusLine.startsWith("HTTP/1.1");
+        String connection = headers.get("Connection");
+        boolean keepAlive = http11 ?
+                !"close".equalsIgnoreCase(connection) :
+                "keep-alive".equalsIgnoreCase(connection);
+
+        InputStream body;
+        String transferEncoding = headers.get("Transfer-Encoding");
+        String contentLength = headers.get("Content-Length");
+        if ("HEAD".equals(method) || status == 204 || status == 304) {
+            body = new FixedLengthInputStream(c.in, 0);
+        } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            body = new ChunkedInputStream(c.in);
+        } else if (contentLength != null) {
+            try {
+                body = new FixedLengthInputStream(c.in, Long.parseLong(contentLength.trim()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length in response: " + contentLength);
+            }
+        } else {
+            // body is delimited by the server closing the connection
+            body = c.in;
+            keepAlive = false;
+        }
+
+        return new PooledResponse(status, headers, new ResponseBody(c, body, keepAlive));
+    }
+
+    private static int parseStatus (String statusLine) throws IOException {
+        if (statusLine.startsWith("HTTP/") && statusLine.length() >= 12) {
+            try {
+                return Integer.parseInt(statusLine.substring(9, 12));
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new IOException("Invalid HTTP status line: " + statusLine);
+    }
+
+    private static TreeMap<String, String> readHeaders (InputStream in) throws IOException {
+        TreeMap<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) throw new IOException("Invalid HTTP header line: " + line);
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            headers.merge(name, value, (a, b) -> a + ", " + b);
+        }
+        return headers;
+    }
+
+    private static String readLine (InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) throw new EOFException("Connection closed while reading response");
+            if (sb.length() >= MAX_LINE_LENGTH) throw new IOException("HTTP response line too long");
+            sb.append((char) b);
+        }
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == '\r') sb.setLength(len - 1);
+        return sb.toString();
+    }
+
+    private static final class Route {
+        final String key;
+        final Semaphore permits;
+        final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+        Route (String key, int maxConnections) {
+            this.key = key;
+            this.permits = new Semaphore(maxConnections, true);
+        }
+    }
+
+    private static final class Connection {
+        final Route route;
+        final Socket socket;
+        final SocketChannel channel;
+        final BufferedInputStream in;
+        final OutputStream out;
+        volatile long idleSince;
+        volatile boolean reused;
+
+        Connection (Route route, Socket socket, SocketChannel channel, boolean reused)
+                throws IOException {
+            this.route = route;
+            this.socket = socket;
+            this.channel = channel;
+            this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+            this.reused = reused;
+        }
+
+        /**
+         * Checks whether the server has closed this (idle) connection, by attempting a very
+         * short read of a plaintext connection; a healthy idle connection has nothing to read
+         * and times out.
+         */
+        boolean isAlive () {
+            if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+                return false;
+            }
+            // the stale connection retry covers TLS connections
+            if (socket instanceof SSLSocket) return true;
+            try {
+                int timeout = socket.getSoTimeout();
+                try {
+                    socket.setSoTimeout(1);
+                    in.mark(1);
+                    // any byte (or EOF) arriving on an idle connection means it's unusable
+                    in.read();
+                    return false;
+                } catch (SocketTimeoutException e) {
+                    return true;
+                } finally {
+                    socket.setSoTimeout(timeout);
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void closeQuietly () {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static final class StaleConnectionException extends IOException {
+        StaleConnectionException (IOException cause) {
+            super(cause);
+        }
+    }
+
+    private static final class PooledResponse implements Response {
+        private final int status;
+        private final Map<String, String> headers;
+        private final ResponseBody body;
+
+        PooledResponse (int status, Map<String, String> headers, ResponseBody body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getStatus () {
+            return status;
+        }
+
+        public String getHeader (String name) {
+            return headers.get(name);
+        }
+
+        public InputStream getBody () {
+            return body;
+        }
+
+        public void close () throws IOException {
+            body.close();
+        }
+    }
+
+    /**
+     * Wraps a response body stream, returning the connection to the pool once the body has
+     * been consumed, or closing it if the body is abandoned partway through.
+     */
+    private final class ResponseBody extends FilterInputStream {
+        private final Connection c;
+        private final boolean keepAlive;
+        private boolean released = false;
+
+        ResponseBody (Connection c, InputStream in, boolean keepAlive) {
+            super(in);
+            this.c = c;
+            this.keepAlive = keepAlive;
+        }
+
+        private synchronized void release (boolean reusable) {
+            if (!released) {
+                released = true;
+                PooledTransport.this.release(c, reusable);
+            }
+        }
+
+        @Override
+        public int read () throws IOException {
+            if (released) return -1;
+            try {
+                int b = in.read();
+                if (b == -1) release(keepAlive);
+                return b;
+            } catch (IOException e) {
+                release(false);
+                throw e;
+            }
+        }
+
+        @Override
+        public int read (byte[] b, int off, int len) throws IOException {
+            if (released) return -1;
+            try {
+                int n = in.read(b, off, len);
+                if (n == -1) release(keepAlive);
+                return n;
+            } catch (IOException e) {
+                release(false);
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip (long n) throws IOException {
+            if (released) return 0;
+            return in.skip(n);
+        }
+
+        @Override
+        public int available () throws IOException {
+            return released ? 0 : in.available();
+        }
+
+        @Override
+        public boolean markSupported () {
+            return false;
+        }
+
+        @Override
+        public void close () throws IOException {
+            if (released) return;
+            if (!keepAlive) {
+                release(false);
+                return;
+            }
+            // drain a small remainder so the connection can be reused; abandon it otherwise
+            try {
+                byte[] buf = new byte[4096];
+                long drained = 0;
+                int n;
+                while (drained <= MAX_DRAIN && (n = in.read(buf)) != -1) drained += n;
+                release(drained <= MAX_DRAIN);
+            } catch (IOException e) {
+                release(false);
+            }
+        }
+    }
+
+    private static final class FixedLengthInputStream extends FilterInputStream {
+        private long remaining;
+
+        FixedLengthInputStream (InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read () throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b == -1) throw new EOFException("Connection closed before end of response body");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read (byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) throw new EOFException("Connection closed before end of response body");
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip (long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available () throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close () {
+            // the underlying stream belongs to the connection
+        }
+    }
+
+    private static final class ChunkedInputStream extends FilterInputStream {
+        private long chunkRemaining = 0;
+        private boolean eof = false;
+
+        ChunkedInputStream (InputStream in) {
+            super(in);
+        }
+
+        private boolean nextChunk () throws IOException {
+            if (eof) return false;
+            if (chunkRemaining == 0) {
+                String line = readLine(in);
+                int semi = line.indexOf(';');
+                try {
+                    chunkRemaining = Long.parseLong(
+                            (semi == -1 ? line : line.substring(0, semi)).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size in response: " + line);
+                }
+                if (chunkRemaining == 0) {
+                    // skip trailers
+                    while (!readLine(in).isEmpty()) ;
+                    eof = true;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void endChunk () throws IOException {
+            if (chunkRemaining == 0 && !readLine(in).isEmpty()) {
+                throw new IOException("Malformed chunked response body");
+            }
+        }
+
+        @Override
+        public int read () throws IOException {
+            if (!nextChunk()) return -1;
+            int b = in.read();
+            if (b == -1) throw new EOFException("Connection closed before end of response body");
+            chunkRemaining--;
+            endChunk();
+            return b;
+        }
+
+        @Override
+        public int read (byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!nextChunk()) return -1;
+            int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (n == -1) throw new EOFException("Connection closed before end of response body");
+            chunkRemaining -= n;
+            endChunk();
+            return n;
+        }
+
+        @Override
+        public int available () throws IOException {
+            return eof ? 0 : (int) Math.min(in.available(), chunkRemaining);
+        }
+
+        @Override
+        public void close () {
+            // the underlying stream belongs to the connection
+        }
+    }
+
+    /**
+     * Base for request body streams; {@link #close()} completes the body without closing the
+     * underlying connection.
+     */
+    private static abstract class BodyOutputStream extends FilterOutputStream
+            implements MultipartProcessor.ChannelTarget {
+        private final WritableByteChannel channel;
+        private boolean finished = false;
+
+        /**
+         * @param channel the connection's socket channel, or null if it has none (i.e. is
+         *                secured with TLS)
+         */
+        BodyOutputStream (OutputStream out, WritableByteChannel channel) {
+            super(out);
+            this.channel = channel;
+        }
+
+        /**
+         * Sends {@code count} bytes of {@code src} starting at {@code position} to the
+         * connection, bypassing this stream's framing.
+         */
+        void transfer (FileChannel src, long position, long count) throws IOException {
+            out.flush();
+            if (channel != null) {
+                while (count > 0) {
+                    checkInterrupted();
+                    long n = src.transferTo(position, Math.min(count, TRANSFER_CHUNK_SIZE),
+                            channel);
+                    if (n <= 0 && position >= src.size()) {
+                        throw new EOFException("File truncated while being sent");
+                    }
+                    position += n;
+                    count -= n;
+                }
+            } else {
+                // TLS: the bytes have to be encrypted by the JVM, so the best we can do is to
+                // hand the socket large blocks
+                ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, COPY_BUFFER_SIZE));
+                while (count > 0) {
+                    checkInterrupted();
+                    buf.clear();
+                    buf.limit((int) Math.min(count, buf.capacity()));
+                    int n = src.read(buf, position);
+                    if (n < 0) throw new EOFException("File truncated while being sent");
+                    out.write(buf.array(), 0, n);
+                    position += n;
+                    count -= n;
+                }
+            }
+        }
+
+        /**
+         * Sends {@code src}'s remaining bytes to the connection, bypassing this stream's
+         * framing.
+         */
+        void transfer (ByteBuffer src) throws IOException {
+            out.flush();
+            if (channel != null) {
+                while (src.hasRemaining()) {
+                    checkInterrupted();
+                    channel.write(src);
+                }
+            } else if (src.hasArray()) {
+                out.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+                src.position(src.limit());
+            } else {
+                byte[] chunk = new byte[Math.min(src.remaining(), COPY_BUFFER_SIZE)];
+                while (src.hasRemaining()) {
+                    checkInterrupted();
+                    int n = Math.min(chunk.length, src.remaining());
+                    src.get(chunk, 0, n);
+                    out.write(chunk, 0, n);
+                }
+            }
+        }
+
+        @Override
+        public void write (int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public abstract void write (byte[] b, int off, int len) throws IOException;
+
+        /**
+         * Aborts the body (and so the request) if the sending thread has been interrupted, e.g.
+         * by the cancellation of an asynchronous request.
+         */
+        static void checkInterrupted () throws InterruptedIOException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted while sending request body");
+            }
+        }
+
+        void finish () throws IOException {
+            if (!finished) {
+                finished = true;
+                complete();
+                out.flush();
+            }
+        }
+
+        abstract void complete () throws IOException;
+
+        @Override
+        public void close () throws IOException {
+            finish();
+        }
+    }
+
+    private static final class FixedLengthOutputStream extends BodyOutputStream {
+        private final long length;
+        private long written = 0;
+
+        FixedLengthOutputStream (OutputStream out, WritableByteChannel channel, long length) {
+            super(out, channel);
+            this.length = length;
+        }
+
+        private void checkLength (long len) throws IOException {
+            if (written + len > length) {
+                throw new IOException(String.format("Request body exceeds its declared length " +
+                        "of %s bytes", length));
+            }
+        }
+
+        @Override
+        public void write (byte[] b, int off, int len) throws IOException {
+            checkInterrupted();
+            checkLength(len);
+            out.write(b, off, len);
+            written += len;
+        }
+
+        public void transferFrom (FileChannel src, long position, long count)
+                throws IOException {
+            checkLength(count);
+            transfer(src, position, count);
+            written += count;
+        }
+
+        public void write (ByteBuffer src) throws IOException {
+            int count = src.remaining();
+            checkLength(count);
+            transfer(src);
+            written += count;
+        }
+
+        @Override
+        void complete () throws IOException {
+            if (written != length) {
+                throw new IOException(String.format("Request body of %s bytes is shorter than " +
+                        "its declared length of %s bytes", written, length));
+            }
+        }
+    }
+
+    private static final class ChunkedOutputStream extends BodyOutputStream {
+        private final byte[] buf = new byte[8192];
+        private int count = 0;
+
+        ChunkedOutputStream (OutputStream out, WritableByteChannel channel) {
+            super(out, channel);
+        }
+
+        public void transferFrom (FileChannel src, long position, long count)
+                throws IOException {
+            if (count == 0) return;
+            writeChunk(buf, 0, this.count);
+            this.count = 0;
+            out.write(Long.toHexString(count).getBytes(ASCII));
+            out.write(CRLF);
+            transfer(src, position, count);
+            out.write(CRLF);
+        }
+
+        public void write (ByteBuffer src) throws IOException {
+            if (!src.hasRemaining()) return;
+            writeChunk(buf, 0, this.count);
+            this.count = 0;
+            out.write(Integer.toHexString(src.remaining()).getBytes(ASCII));
+            out.write(CRLF);
+            transfer(src);
+            out.write(CRLF);
+        }
+
+        private void writeChunk (byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            checkInterrupted();
+            out.write(Integer.toHexString(len).getBytes(ASCII));
+            out.write(CRLF);
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        @Override
+        public void write (byte[] b, int off, int len) throws IOException {
+            if (count + len <= buf.length) {
+                System.arraycopy(b, off, buf, count, len);
+                count += len;
+            } else {
+                writeChunk(buf, 0, count);
+                count = 0;
+                if (len >= buf.length) {
+                    writeChunk(b, off, len);
+                } else {
+                    System.arraycopy(b, off, buf, 0, len);
+                    count = len;
+                }
+            }
+        }
+
+        @Override
+        void complete () throws IOException {
+            writeChunk(buf, 0, count);
+            count = 0;
+            out.write('0');
+            out.write(CRLF);
+            out.write(CRLF);
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package io.pdfdata;
+
+import io.pdfdata.model.Document;
+import io.pdfdata.model.Operation;
+import io.pdfdata.model.Proc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a set of {@link Operation}s over any number of documents, from files to results, as a
+ * pipeline of three stages connected by bounded queues:
+ *
+ * <ol>
+ *     <li>the calling thread reads the files and groups them into procs of up to
+ *     {@link #withProcSize(int, long) a given number of documents and bytes};</li>
+ *     <li>{@link #withConcurrency(int, int) a number of threads} upload each group and start
+ *     its proc, leaving a {@link ProcWaiter} to wait for it to complete;</li>
+ *     <li>another number of threads take each completed proc, optionally
+ *     {@link #withResources(Path, int) download its resources}, and hand it to a
+ *     {@link Sink}.</li>
+ * </ol>
+ *
+ * Uploads therefore continue while earlier procs are being processed by PDFDATA.io and their
+ * results retrieved. Memory and disk use are bounded by limiting both the number of procs
+ * {@link #withMaxPendingProcs(int) started but not yet handed off} and the total size of the
+ * documents in them: once {@link #withMaxBytesInFlight(long) that many bytes} are in flight,
+ * reading more files waits until earlier procs are handed off.
+ *
+ * Example:
+ *
+ * <pre>ProcPipeline.Summary summary = pdfdata.procs().pipeline()
+ *     .withOperations(new Text(), new Metadata())
+ *     .run(Paths.get("incoming"), new ProcPipeline.Sink() {
+ *         public void completed (Proc proc, ResourceDownloads resources) { ... }
+ *         public void failed (Collection&lt;DocumentSource&gt; files, Exception error) { ... }
+ *     });</pre>
+ *
+ * Like all instances of this class, those returned by {@code with*} methods are immutable,
+ * and may be run any number of times.
+ *
+ * @publicapi
+ */
+public class ProcPipeline {
+    /**
+     * Receives the outcome of each proc run by a pipeline. Called from the pipeline's delivery
+     * threads, so implementations must be thread-safe if the pipeline delivers concurrently.
+     * If a method throws, the pipeline stops, and {@link #run(Iterable, Sink)} throws its
+     * exception once the procs already in flight have been accounted for.
+     */
+    public interface Sink {
+        /**
+         * Called with each completed proc (which may have been
+         * {@link Proc.Status#REFUSED refused}), and the result of downloading its resources if
+         * the pipeline does so (null otherwise).
+         */
+        void completed (Proc proc, ResourceDownloads resources) throws IOException;
+
+        /**
+         * Called with the files of each proc that could not be started or waited for (none for
+         * a proc {@link #withManifest(Path) resumed} from an earlier run).
+         */
+        void failed (Collection<DocumentSource> files, Exception error) throws IOException;
+    }
+
+    /**
+     * Counts of what a pipeline run handled.
+     */
+    public static class Summary {
+        private final int documents;
+        private final int skipped;
+        private final int procs;
+        private final int failedProcs;
+
+        private Summary (int documents, int skipped, int procs, int failedProcs) {
+            this.documents = documents;
+            this.skipped = skipped;
+            this.procs = procs;
+            this.failedProcs = failedProcs;
+        }
+
+        /**
+         * Returns the number of documents read.
+         */
+        public int getDocumentCount () {
+            return documents;
+        }
+
+        /**
+         * Returns the number of documents read but skipped, having been handled by an earlier
+         * run {@link #withManifest(Path) recorded in the manifest}.
+         */
+        public int getSkippedDocumentCount () {
+            return skipped;
+        }
+
+        /**
+         * Returns the number of procs completed and handed off.
+         */
+        public int getProcCount () {
+            return procs;
+        }
+
+        /**
+         * Returns the number of procs that could not be started or waited for.
+         */
+        public int getFailedProcCount () {
+            return failedProcs;
+        }
+    }
+
+    private final API pdfdata;
+    private final List<Operation> operations;
+    private final int maxProcDocuments;
+    private final long maxProcBytes;
+    private final int startConcurrency;
+    private final int deliveryConcurrency;
+    private final int maxPendingProcs;
+    private final long maxBytesInFlight;
+    private final Path resourcesDir;
+    private final int resourceParallelism;
+    private final Path manifest;
+
+    public ProcPipeline (API pdfdata) {
+        this(pdfdata, Collections.emptyList(), 50, 64L * 1024 * 1024, 4, 2, 16,
+                256L * 1024 * 1024, null, 4, null);
+    }
+
+    private ProcPipeline (API pdfdata, List<Operation> operations, int maxProcDocuments,
+                          long maxProcBytes, int startConcurrency, int deliveryConcurrency,
+                          int maxPendingProcs, long maxBytesInFlight, Path resourcesDir,
+                          int resourceParallelism, Path manifest) {
+        this.pdfdata = pdfdata;
+        this.operations = operations;
+        this.maxProcDocuments = maxProcDocuments;
+        this.maxProcBytes = maxProcBytes;
+        this.startConcurrency = startConcurrency;
+        this.deliveryConcurrency = deliveryConcurrency;
+        this.maxPendingProcs = maxPendingProcs;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.resourcesDir = resourcesDir;
+        this.resourceParallelism = resourceParallelism;
+        this.manifest = manifest;
+    }
+
+    public ProcPipeline withOperations (Operation... operations) {
+        return withOperations(Arrays.asList(operations));
+    }
+
+    public ProcPipeline withOperations (Collection<Operation> operations) {
+        List<Operation> ops = new ArrayList<>(this.operations);
+        ops.addAll(operations);
+        return new ProcPipeline(pdfdata, Collections.unmodifiableList(ops), maxProcDocuments,
+                maxProcBytes, startConcurrency, deliveryConcurrency, maxPendingProcs,
+                maxBytesInFlight, resourcesDir, resourceParallelism, manifest);
+    }
+
+    /**
+     * Sets the most documents, and the most bytes of them (unless a single document is
+     * larger), to include in each proc. Defaults to 50 documents and 64MB.
+     */
+    public ProcPipeline withProcSize (int maxDocuments, long maxBytes) {
+        if (maxDocuments < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Proc size limits must be positive");
+        }
+        return new ProcPipeline(pdfdata, operations, maxDocuments, maxBytes, startConcurrency,
+                deliveryConcurrency, maxPendingProcs, maxBytesInFlight, resourcesDir,
+                resourceParallelism, manifest);
+    }
+
+    /**
+     * Sets the number of procs that may be uploaded and started at once, and the number that
+     * may be handed off (including downloading their resources) at once. Defaults to 4 and 2.
+     */
+    public ProcPipeline withConcurrency (int starting, int delivering) {
+        if (starting < 1 || delivering < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        return new ProcPipeline(pdfdata, operations, maxProcDocuments, maxProcBytes, starting,
+                delivering, maxPendingProcs, maxBytesInFlight, resourcesDir, resourceParallelism,
+                manifest);
+    }
+
+    /**
+     * Sets the most procs that may have been started but not yet handed off. Defaults to 16.
+     */
+    public ProcPipeline withMaxPendingProcs (int maxPendingProcs) {
+        if (maxPendingProcs < 1) {
+            throw new IllegalArgumentException("maxPendingProcs must be positive");
+        }
+        return new ProcPipeline(pdfdata, operations, maxProcDocuments, maxProcBytes,
+                startConcurrency, deliveryConcurrency, maxPendingProcs, maxBytesInFlight,
+                resourcesDir, resourceParallelism, manifest);
+    }
+
+    /**
+     * Sets the most bytes of documents that may have been read but whose procs have not yet
+     * been handed off. Defaults to 256MB. A document larger than this is admitted once nothing
+     * else is in flight.
+     */
+    public ProcPipeline withMaxBytesInFlight (long maxBytesInFlight) {
+        if (maxBytesInFlight < 1) {
+            throw new IllegalArgumentException("maxBytesInFlight must be positive");
+        }
+        return new ProcPipeline(pdfdata, operations, maxProcDocuments, maxProcBytes,
+                startConcurrency, deliveryConcurrency, maxPendingProcs, maxBytesInFlight,
+                resourcesDir, resourceParallelism, manifest);
+    }
+
+    /**
+     * Has each completed proc's resources {@link ProcsRequest#downloadResources(Proc, Path,
+     * int) downloaded} to the given directory before it is handed off, up to
+     * {@code parallelism} at a time.
+     */
+    public ProcPipeline withResources (Path dir, int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+        return new ProcPipeline(pdfdata, operations, maxProcDocuments, maxProcBytes,
+                startConcurrency, deliveryConcurrency, maxPendingProcs, maxBytesInFlight, dir,
+                parallelism, manifest);
+    }
+
+    /**
+     * Records the pipeline's progress in the given manifest file, and resumes from the
+     * progress recorded there by earlier runs over the same files that were interrupted. The
+     * manifest records the pipeline's operations, and a run with different operations fails
+     * rather than resume from it. Documents are identified by the hash of their contents, so a
+     * resumed run:
+     *
+     * <ul>
+     *     <li>skips documents whose results have already been handed off;</li>
+     *     <li>re-attaches to procs that were started but not handed off (via
+     *     {@link ProcsRequest#byID(String)}), and skips their documents; the documents of any
+     *     such proc that can no longer be retrieved are run again;</li>
+     *     <li>starts procs on documents already uploaded by their IDs, only uploading those
+     *     that were never uploaded or whose {@link io.pdfdata.model.Document#getExpires()
+     *     storage has expired}.</li>
+     * </ul>
+     *
+     * To this end, documents are uploaded separately from starting procs, and each is read
+     * once more to hash it. Documents from streams can't be hashed, so are always run.
+     */
+    public ProcPipeline withManifest (Path manifest) {
+        return new ProcPipeline(pdfdata, operations, maxProcDocuments, maxProcBytes,
+                startConcurrency, deliveryConcurrency, maxPendingProcs, maxBytesInFlight,
+                resourcesDir, resourceParallelism, manifest);
+    }
+
+    /**
+     * Runs the pipeline over the PDF files (those named {@code *.pdf}, in any case) in the
+     * given directory and its subdirectories, in path order.
+     */
+    public Summary run (Path dir, Sink sink) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(p -> Files.isRegularFile(p) &&
+                    p.getFileName().toString().toLowerCase().endsWith(".pdf"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        return run(files, sink);
+    }
+
+    /**
+     * Runs the pipeline over the given files, blocking until every proc has been handed off
+     * to the sink.
+     *
+     * @param files {@link java.io.File}s, {@link Path}s, {@link String} paths, and/or
+     *              {@link DocumentSource}s; read lazily, as the pipeline admits them
+     */
+    public Summary run (Iterable<?> files, Sink sink) throws IOException {
+        if (operations.isEmpty()) throw new IllegalArgumentException("No operations specified");
+        return new Run(sink).run(files);
+    }
+
+    /**
+     * A group of documents to be run as a single proc.
+     */
+    private static final class Batch {
+        static final Batch END = new Batch();
+
+        final List<DocumentSource> files = new ArrayList<>();
+        /** the files' content hashes (null where unknown) if recording to a manifest */
+        final List<String> hashes = new ArrayList<>();
+        long bytes;
+        Proc proc;
+        Exception error;
+    }
+
+    /**
+     * A long-valued counter that blocks increments that would take it over a limit, except
+     * from zero.
+     */
+    private static final class Gauge {
+        private final long max;
+        private long value;
+
+        Gauge (long max) {
+            this.max = max;
+        }
+
+        synchronized void acquire (long n) throws InterruptedException {
+            while (value > 0 && value + n > max) wait();
+            value += n;
+        }
+
+        synchronized void release (long n) {
+            value -= n;
+            notifyAll();
+        }
+
+        synchronized void awaitZero () throws InterruptedException {
+            while (value > 0) wait();
+        }
+    }
+
+    private final class Run {
+        private final Sink sink;
+        private final BlockingQueue<Batch> started = new ArrayBlockingQueue<>(startConcurrency);
+        /** bounded in effect by maxPendingProcs, so that completing a proc never blocks */
+        private final BlockingQueue<Batch> completed = new LinkedBlockingQueue<>();
+        private final Gauge bytes = new Gauge(maxBytesInFlight);
+        private final Gauge procs = new Gauge(maxPendingProcs);
+        private final AtomicReference<Exception> fatal = new AtomicReference<>();
+        private final List<CompletableFuture<Proc>> waiting =
+                Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger completedProcs = new AtomicInteger();
+        private final AtomicInteger failedProcs = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private JobManifest manifest;
+        /** the hashes of the documents of procs resumed from the manifest */
+        private final Set<String> resumed = new HashSet<>();
+
+        Run (Sink sink) {
+            this.sink = sink;
+        }
+
+        Summary run (Iterable<?> files) throws IOException {
+            if (ProcPipeline.this.manifest != null) {
+                manifest = new JobManifest(ProcPipeline.this.manifest, pdfdata.json,
+                        operations);
+            }
+            AtomicInteger threads = new AtomicInteger();
+            // the stages' threads block on queues and limits for the whole run, so they're
+            // the pipeline's own rather than the API executor's, which requests still need
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    startConcurrency + deliveryConcurrency, r -> {
+                        Thread t = new Thread(r, "pdfdata-pipeline-" + threads.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            int documents = 0;
+            try (ProcWaiter waiter = new ProcWaiter(pdfdata)) {
+                List<CompletableFuture<Void>> starters = new ArrayList<>();
+                for (int i = 0; i < startConcurrency; i++) {
+                    starters.add(CompletableFuture.runAsync(() -> start(waiter), executor));
+                }
+                List<CompletableFuture<Void>> deliverers = new ArrayList<>();
+                for (int i = 0; i < deliveryConcurrency; i++) {
+                    deliverers.add(CompletableFuture.runAsync(this::deliver, executor));
+                }
+
+                try {
+                    if (manifest != null) resume(waiter);
+                    documents = read(files);
+                    for (int i = 0; i < startConcurrency; i++) started.put(Batch.END);
+                    join(starters);
+                    // every proc started has been handed off once none are pending
+                    procs.awaitZero();
+                    for (int i = 0; i < deliveryConcurrency; i++) completed.put(Batch.END);
+                    join(deliverers);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while running pipeline");
+                }
+            } finally {
+                executor.shutdownNow();
+                if (manifest != null) manifest.close();
+            }
+
+            Exception e = fatal.get();
+            if (e instanceof IOException) throw (IOException) e;
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            if (e != null) throw new IOException(e);
+            return new Summary(documents, skipped.get(), completedProcs.get(),
+                    failedProcs.get());
+        }
+
+        /**
+         * Re-attaches to the procs the manifest records as started but not handed off.
+         */
+        private void resume (ProcWaiter waiter) throws InterruptedException {
+            Map<String, List<String>> pending = manifest.getPendingProcs();
+            Map<String, CompletableFuture<Proc>> lookups = new LinkedHashMap<>();
+            for (String id : pending.keySet()) lookups.put(id, pdfdata.procs().byIDAsync(id));
+            for (Map.Entry<String, CompletableFuture<Proc>> lookup : lookups.entrySet()) {
+                Proc proc;
+                try {
+                    proc = lookup.getValue().join();
+                } catch (CompletionException e) {
+                    // most likely expired; in any case, its documents will be run again
+                    continue;
+                }
+                Batch batch = new Batch();
+                batch.hashes.addAll(pending.get(lookup.getKey()));
+                resumed.addAll(batch.hashes);
+                procs.acquire(1);
+                await(waiter, batch, proc);
+            }
+        }
+
+        /**
+         * Reads files into batches and queues them to be started, waiting when too many bytes
+         * are in flight or too many procs are pending.
+         */
+        private int read (Iterable<?> files) throws IOException, InterruptedException {
+            int documents = 0;
+            Batch batch = new Batch();
+            for (Object f : files) {
+                if (fatal.get() != null) break;
+                DocumentSource source = DocumentSource.from(f);
+                documents++;
+                String hash = manifest == null ? null : source.contentHash();
+                if (hash != null && (manifest.isCompleted(hash) || resumed.contains(hash))) {
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                long length = source.getLength() < 0 ? maxProcBytes : source.getLength();
+                // a batch is also cut short if its own bytes would keep it from being filled
+                if (batch.files.size() >= maxProcDocuments || (!batch.files.isEmpty() &&
+                        batch.bytes + length > Math.min(maxProcBytes, maxBytesInFlight))) {
+                    submit(batch);
+                    batch = new Batch();
+                }
+                bytes.acquire(length);
+                batch.files.add(source);
+                batch.hashes.add(hash);
+                batch.bytes += length;
+            }
+            if (!batch.files.isEmpty()) {
+                if (fatal.get() == null) {
+                    submit(batch);
+                } else {
+                    bytes.release(batch.bytes);
+                }
+            }
+            return documents;
+        }
+
+        private void submit (Batch batch) throws InterruptedException {
+            procs.acquire(1);
+            started.put(batch);
+        }
+
+        private void start (ProcWaiter waiter) {
+            try {
+                for (Batch batch; (batch = started.take()) != Batch.END; ) {
+                    if (fatal.get() != null) {
+                        finish(batch);
+                        continue;
+                    }
+                    try {
+                        Proc proc = manifest == null ? pdfdata.procs().configure()
+                                .withFiles(batch.files)
+                                .withOperations(operations)
+                                .withWait(0)
+                                .start() : startRecorded(batch);
+                        await(waiter, batch, proc);
+                    } catch (IOException | RuntimeException e) {
+                        batch.error = e;
+                        completed.add(batch);
+                    }
+                }
+            } catch (InterruptedException e) {
+                abort(e);
+            }
+        }
+
+        /**
+         * Uploads those of the batch's documents not already uploaded, and starts a proc on
+         * them all by ID, recording both in the manifest.
+         */
+        private Proc startRecorded (Batch batch) throws IOException {
+            List<String> docIDs = new ArrayList<>();
+            List<DocumentSource> uploads = new ArrayList<>();
+            List<String> uploadHashes = new ArrayList<>();
+            for (int i = 0; i < batch.files.size(); i++) {
+                String hash = batch.hashes.get(i);
+                String id = hash == null ? null : manifest.getDocumentID(hash);
+                if (id != null) {
+                    docIDs.add(id);
+                } else {
+                    uploads.add(batch.files.get(i));
+                    uploadHashes.add(hash);
+                }
+            }
+            if (!uploads.isEmpty()) {
+                List<Document> uploaded = pdfdata.documents().uploadSources(null, uploads);
+                if (uploaded.size() != uploads.size()) {
+                    throw new IOException(String.format("Uploaded %d files but got %d " +
+                            "documents back", uploads.size(), uploaded.size()));
+                }
+                for (int i = 0; i < uploaded.size(); i++) {
+                    if (uploadHashes.get(i) != null) {
+                        manifest.uploaded(uploadHashes.get(i), uploaded.get(i));
+                    }
+                    docIDs.add(uploaded.get(i).getID());
+                }
+            }
+
+            Proc proc = pdfdata.procs().configure()
+                    .withDocumentIDs(docIDs)
+                    .withOperations(operations)
+                    .withWait(0)
+                    .start();
+            // a proc without an ID was answered entirely from the result cache
+            if (proc.getID() != null) manifest.started(proc.getID(), known(batch.hashes));
+            return proc;
+        }
+
+        /**
+         * Queues the batch for delivery once its proc completes.
+         */
+        private void await (ProcWaiter waiter, Batch batch, Proc proc) {
+            CompletableFuture<Proc> future = waiter.await(proc);
+            waiting.add(future);
+            future.whenComplete((p, t) -> {
+                waiting.remove(future);
+                batch.proc = p;
+                if (t != null) {
+                    Throwable cause = t.getCause() != null ? t.getCause() : t;
+                    batch.error = cause instanceof Exception ? (Exception) cause :
+                            new IOException(cause);
+                }
+                completed.add(batch);
+            });
+        }
+
+        private void deliver () {
+            try {
+                for (Batch batch; (batch = completed.take()) != Batch.END; ) {
+                    try {
+                        if (fatal.get() != null) continue;
+                        if (batch.error != null) {
+                            failedProcs.incrementAndGet();
+                            sink.failed(Collections.unmodifiableList(batch.files), batch.error);
+                        } else {
+                            ResourceDownloads resources = resourcesDir == null ? null :
+                                    pdfdata.procs().downloadResources(batch.proc, resourcesDir,
+                                            resourceParallelism);
+                            completedProcs.incrementAndGet();
+                            sink.completed(batch.proc, resources);
+                            if (manifest != null) {
+                                manifest.completed(batch.proc.getID(), known(batch.hashes));
+                            }
+                        }
+                    } catch (Exception e) {
+                        abort(e);
+                    } finally {
+                        finish(batch);
+                    }
+                }
+            } catch (InterruptedException e) {
+                abort(e);
+            }
+        }
+
+        private List<String> known (List<String> hashes) {
+            return hashes.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        }
+
+        private void finish (Batch batch) {
+            bytes.release(batch.bytes);
+            procs.release(1);
+        }
+
+        /**
+         * Stops the pipeline: no more files are read or procs started, and those being waited
+         * for are abandoned.
+         */
+        private void abort (Exception e) {
+            if (!fatal.compareAndSet(null, e)) return;
+            synchronized (waiting) {
+                for (CompletableFuture<Proc> f : new ArrayList<>(waiting)) f.cancel(false);
+            }
+        }
+
+        private void join (List<CompletableFuture<Void>> workers) throws InterruptedException {
+            try {
+                Util.await(workers);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) throw (Error) cause;
+                abort(cause instanceof Exception ? (Exception) cause : new Exception(cause));
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.pdfdata;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pdfdata.model.Operation;
+import io.pdfdata.model.Page;
+import io.pdfdata.model.Proc;
+import io.pdfdata.model.ops.Images;
+import io.pdfdata.model.ops.Text;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Incrementally reads a {@link Proc} response, mapping and handing off the pages of its
+ * documents' results one at a time rather than building them all up in memory.
+ *
+ * Relies on PDFDATA.io conveying a proc's {@code operations} before its {@code documents}.
+ */
+final class ProcStreamer {
+    private static final TypeReference<List<Operation>> OPERATIONS =
+            new TypeReference<List<Operation>>() {};
+
+    private final JSON json;
+    private final JsonParser parser;
+    private final PageHandler handler;
+    private List<Operation> operations;
+
+    ProcStreamer (JSON json, JsonParser parser, PageHandler handler) {
+        this.json = json;
+        this.parser = parser;
+        this.handler = handler;
+    }
+
+    /**
+     * Reads the proc, returning it without its documents (which are only conveyed via the
+     * handler).
+     */
+    Proc stream () throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT);
+        ObjectNode proc = JsonNodeFactory.instance.objectNode();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("documents") && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) streamDocument();
+            } else {
+                JsonNode node = parser.readValueAsTree();
+                proc.set(field, node);
+                if (field.equals("operations")) operations = json.from(node, OPERATIONS);
+            }
+        }
+        return json.from(proc, Proc.class);
+    }
+
+    private void streamDocument () throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_OBJECT);
+        String docID = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("id")) {
+                docID = parser.getValueAsString();
+            } else if (field.equals("results") && value == JsonToken.START_ARRAY) {
+                for (int i = 0; parser.nextToken() != JsonToken.END_ARRAY; i++) {
+                    streamResult(docID, i);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void streamResult (String docID, int opNumber) throws IOException {
+        expect(parser.getCurrentToken(), JsonToken.START_OBJECT);
+        if (operations == null || opNumber >= operations.size()) {
+            throw new IOException("Cannot stream proc results without their operations");
+        }
+        Operation op = operations.get(opNumber);
+        Class<? extends Page> pageType = pageType(op);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (pageType != null && field.equals("data") && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    handler.page(docID, op, json.from(parser, pageType));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Class<? extends Page> pageType (Operation op) {
+        if (op instanceof Text) return Text.Page.class;
+        if (op instanceof Images) return Images.Page.class;
+        return null;
+    }
+
+    private void expect (JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException(String.format("Malformed proc response: expected %s, found %s " +
+                    "at %s", expected, actual, parser.getCurrentLocation()));
+        }
+    }
+}
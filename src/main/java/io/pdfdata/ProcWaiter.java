@@ -0,0 +1,210 @@
+package io.pdfdata;
+
+import io.pdfdata.model.Proc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for {@link Proc.Status#PENDING pending} {@link Proc}s to complete, tracking any number
+ * of them on a single scheduler thread and completing a future for each.
+ *
+ * Each pending proc is polled (via {@link ProcsRequest#byIDAsync(String)}, so subject to the
+ * {@link API}'s executor, retry policy, and rate and concurrency limits) with a delay that grows
+ * with how long the proc has been running: a proc that was started a second ago is likely to
+ * complete soon, while one that has been running for minutes is not. When only a few procs are
+ * pending, they are instead long-polled, using the API's {@code wait} parameter to have
+ * PDFDATA.io hold each request open until the proc completes (or the wait elapses), which
+ * delivers results sooner and with fewer requests. As each long poll holds a connection open,
+ * by default they're only used while no more procs are pending than half the number of
+ * connections the {@link API#getTransport() API's transport} will open to PDFDATA.io, leaving
+ * the rest for other requests (e.g. uploads and starting more procs).
+ *
+ * Example:
+ *
+ * <pre>try (ProcWaiter waiter = new ProcWaiter(pdfdata)) {
+ *     List&lt;CompletableFuture&lt;Proc&gt;&gt; results = new ArrayList&lt;&gt;();
+ *     for (File f : files) {
+ *         results.add(waiter.await(pdfdata.procs().configure()
+ *             .withFiles(f).withOperations(new Text()).withWait(0).start()));
+ *     }
+ *     ...
+ * }</pre>
+ *
+ * @publicapi
+ */
+public class ProcWaiter implements Closeable {
+    private static final Duration DEFAULT_MIN_INTERVAL = Duration.ofMillis(500);
+    private static final Duration DEFAULT_MAX_INTERVAL = Duration.ofSeconds(30);
+    /** derive the threshold from the API's transport, per {@link #longPollThreshold()} */
+    private static final int TRANSPORT_LONG_POLL_THRESHOLD = -1;
+    private static final int LONG_POLL_SECONDS = 20;
+
+    private final API pdfdata;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final int longPollThreshold;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Map<String, CompletableFuture<Proc>> pending = new ConcurrentHashMap<>();
+
+    public ProcWaiter (API pdfdata) {
+        this(pdfdata, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, TRANSPORT_LONG_POLL_THRESHOLD);
+    }
+
+    /**
+     * @param minInterval the shortest delay between polls of a pending proc
+     * @param maxInterval the longest delay between polls of a pending proc
+     * @param longPollThreshold procs are long-polled while no more than this many are pending;
+     *                          0 disables long-polling
+     */
+    public ProcWaiter (API pdfdata, Duration minInterval, Duration maxInterval,
+                       int longPollThreshold) {
+        if (minInterval.isNegative() || maxInterval.compareTo(minInterval) < 0) {
+            throw new IllegalArgumentException(String.format("Invalid polling interval range: " +
+                    "%s - %s", minInterval, maxInterval));
+        }
+        this.pdfdata = pdfdata;
+        this.minIntervalMillis = minInterval.toMillis();
+        this.maxIntervalMillis = maxInterval.toMillis();
+        this.longPollThreshold = longPollThreshold;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "pdfdata-procwaiter");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns a future that completes with the given proc once its status is no longer
+     * {@link Proc.Status#PENDING} (immediately, if it already isn't). Cancelling the future
+     * stops tracking the proc.
+     */
+    public CompletableFuture<Proc> await (Proc proc) {
+        if (proc.getStatus() != Proc.Status.PENDING) {
+            return CompletableFuture.completedFuture(proc);
+        }
+        return track(proc.getID(), proc.getCreated());
+    }
+
+    /**
+     * Returns a future that completes with the identified proc once its status is no longer
+     * {@link Proc.Status#PENDING}.
+     */
+    public CompletableFuture<Proc> await (String procID) {
+        return track(procID, null);
+    }
+
+    /**
+     * Returns the number of procs currently being waited for.
+     */
+    public int getPendingCount () {
+        return pending.size();
+    }
+
+    private CompletableFuture<Proc> track (String procID, Instant created) {
+        if (scheduler.isShutdown()) throw new IllegalStateException("ProcWaiter is closed");
+
+        CompletableFuture<Proc> future = new CompletableFuture<>();
+        CompletableFuture<Proc> existing = pending.putIfAbsent(procID, future);
+        if (existing != null) return existing;
+
+        future.whenComplete((p, t) -> pending.remove(procID, future));
+        long startedAt = created == null ? System.currentTimeMillis() :
+                Math.min(created.toEpochMilli(), System.currentTimeMillis());
+        scheduler.execute(() -> poll(procID, startedAt, future));
+        return future;
+    }
+
+    /**
+     * Returns the most procs that may be pending for them to be long-polled: as configured, or
+     * by default half of the connections per endpoint of the API's {@link PooledTransport} (or
+     * of a default one, for other transports).
+     */
+    private int longPollThreshold () {
+        if (longPollThreshold != TRANSPORT_LONG_POLL_THRESHOLD) return longPollThreshold;
+        Transport transport = pdfdata.getTransport();
+        int connections = transport instanceof PooledTransport ?
+                ((PooledTransport) transport).getMaxPerRoute() :
+                PooledTransport.DEFAULT_MAX_PER_ROUTE;
+        return connections / 2;
+    }
+
+    /**
+     * Returns the delay before the next poll of a proc that has been running since
+     * {@code startedAt}: a fifth of its running time, within the configured bounds, and jittered
+     * by up to 10% so that procs started together aren't polled in lockstep.
+     */
+    private long nextDelayMillis (long startedAt) {
+        long elapsed = Math.max(0, System.currentTimeMillis() - startedAt);
+        long delay = Math.max(minIntervalMillis, Math.min(maxIntervalMillis, elapsed / 5));
+        return delay + ThreadLocalRandom.current().nextLong(delay / 10 + 1);
+    }
+
+    private void schedule (String procID, long startedAt, CompletableFuture<Proc> future,
+                           long delayMillis) {
+        if (future.isDone()) return;
+        try {
+            scheduler.schedule(() -> poll(procID, startedAt, future), delayMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(new CancellationException("ProcWaiter is closed"));
+        }
+    }
+
+    private void poll (String procID, long startedAt, CompletableFuture<Proc> future) {
+        if (future.isDone()) return;
+
+        boolean longPoll = pending.size() <= longPollThreshold();
+        ProcsRequest procs = pdfdata.procs();
+        CompletableFuture<Proc> request = longPoll ?
+                procs.byIDAsync(procID, LONG_POLL_SECONDS) : procs.byIDAsync(procID);
+        long sentAt = System.nanoTime();
+
+        request.whenComplete((proc, t) -> {
+            if (future.isDone()) return;
+            if (t != null) {
+                Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+                if (cause instanceof IOException &&
+                        (cause instanceof RequestRejectedException ||
+                                pdfdata.getRetryPolicy().isRetryable((IOException) cause))) {
+                    // transient; the request has already been retried as far as the retry
+                    // policy allows, so just try again later
+                    schedule(procID, startedAt, future, nextDelayMillis(startedAt));
+                } else {
+                    pending.remove(procID, future);
+                    future.completeExceptionally(cause);
+                }
+            } else if (proc.getStatus() != Proc.Status.PENDING) {
+                // stop tracking the proc before anyone waiting on it can observe its completion
+                pending.remove(procID, future);
+                future.complete(proc);
+            } else {
+                // a long poll that ran its course has already waited on the server; one that
+                // returned early can't be relied upon to have done so
+                boolean waited = longPoll && System.nanoTime() - sentAt >=
+                        TimeUnit.SECONDS.toNanos(LONG_POLL_SECONDS) / 2;
+                schedule(procID, startedAt, future, waited ? 0 : nextDelayMillis(startedAt));
+            }
+        });
+    }
+
+    /**
+     * Stops waiting for all pending procs, cancelling their futures, and stops the scheduler
+     * thread.
+     */
+    public void close () {
+        scheduler.shutdownNow();
+        for (CompletableFuture<Proc> future : pending.values()) future.cancel(false);
+    }
+}
@@ -1,13 +1,25 @@
 package io.pdfdata;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pdfdata.model.Document;
 import io.pdfdata.model.Operation;
 import io.pdfdata.model.Proc;
 import io.pdfdata.model.ProcessedDocument;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -30,7 +42,7 @@ import static io.pdfdata.Util.*;
  * @publicapi
  */
 public class ProcsRequest extends Request {
-    private static final String base = "procs";
+    static final String base = "procs";
     private static final TypeReference<Proc> TYPEREF = new TypeReference<Proc>() {};
     private static final TypeReference<List<Proc>> TYPEREF_LIST =
             new TypeReference<List<Proc>> () {};
@@ -44,7 +56,8 @@ public class ProcsRequest extends Request {
             Util.setFrom("attachments", "images", "xmp-metadata");
 
     private Proc registerResources (Proc proc) throws IOException {
-        if (proc.getDocuments() != null) {
+        // lazy results register their resources as they are decoded
+        if (proc.getDocuments() != null && !pdfdata.isLazyResults()) {
             List<Integer> resourceOps = new ArrayList<>();
             for (int i = 0, len = proc.getOperations().size(); i < len; i++) {
                 Operation op = proc.getOperations().get(i);
@@ -70,7 +83,283 @@ public class ProcsRequest extends Request {
      * Retrieves a {@link Proc} given its ID.
      */
     public Proc byID (String procid) throws IOException {
-        return registerResources(doRequest(GET, base + "/" + procid, TYPEREF));
+        return requestProc(GET, base + "/" + procid, new HashMap<>(), null);
+    }
+
+    /**
+     * Retrieves a {@link Proc} given its ID, asking PDFDATA.io to hold the request open for up to
+     * {@code wait} seconds if the proc is still {@link Proc.Status#PENDING pending}.
+     */
+    Proc byID (String procid, int wait) throws IOException {
+        return requestProc(GET, base + "/" + procid, kvmap("wait", wait), null);
+    }
+
+    /**
+     * Requests a proc. If the API has a {@link ResultCache}, the results of the proc's documents
+     * are cached if it has completed, and the cached documents it was started with (those
+     * given, by content hash, if it's being started, or those recorded by the cache for its ID
+     * otherwise) are added to it.
+     */
+    private Proc requestProc (Network.Method verb, String path, Map<String, Object> params,
+                              Map<String, ProcessedDocument> cached) throws IOException {
+        ResultCache cache = pdfdata.getResultCache();
+        if (cache == null) return registerResources(doRequest(verb, path, params, TYPEREF));
+
+        // kept as received, so that the documents' results can be cached without re-encoding
+        byte[] response = doRequest(verb, path, params, new HashMap<>(),
+                resp -> Util.readBytes(resp.getBody()));
+        Proc proc = pdfdata.json.from(new ByteArrayInputStream(response), TYPEREF);
+        if (pdfdata.isCaptureResponseBodies()) {
+            proc.setResponseBody(pdfdata.json.from(new ByteArrayInputStream(response),
+                    JsonNode.class));
+        }
+
+        List<String> hashes;
+        if (cached == null) {
+            hashes = cache.getProcDocuments(proc.getID());
+        } else {
+            hashes = new ArrayList<>(cached.keySet());
+            // it may be retrieved again later, e.g. by a ProcWaiter while it's pending
+            if (proc.getID() != null && !hashes.isEmpty()) {
+                cache.putProcDocuments(proc.getID(), hashes);
+            }
+        }
+
+        if (proc.getStatus() == Proc.Status.COMPLETE && proc.getDocuments() != null) {
+            // read before caching the proc's own results, which may evict them
+            List<ProcessedDocument> documents = cached != null ?
+                    new ArrayList<>(cached.values()) :
+                    cachedDocuments(cache, hashes, proc.getOperations());
+            cacheResults(cache, proc.getOperations(), response);
+            proc.getDocuments().addAll(documents);
+        }
+        return registerResources(proc);
+    }
+
+    /**
+     * Returns the cached documents with the given content hashes, as processed by the given
+     * operations. Those no longer cached are processed by PDFDATA.io again.
+     */
+    private List<ProcessedDocument> cachedDocuments (ResultCache cache, List<String> hashes,
+                                                     List<Operation> operations)
+            throws IOException {
+        List<ProcessedDocument> documents = new ArrayList<>();
+        List<String> evicted = new ArrayList<>();
+        for (String hash : hashes) {
+            ProcessedDocument doc = cachedDocument(cache, ResultCache.key(hash, operations));
+            if (doc == null) {
+                evicted.add(DocumentCache.idOf(hash));
+            } else {
+                documents.add(doc);
+            }
+        }
+        if (evicted.isEmpty()) return documents;
+
+        Proc proc = configure().withDocumentIDs(evicted).withOperations(operations).start();
+        while (proc.getStatus() == Proc.Status.PENDING) {
+            proc = byID(proc.getID(), DEFAULT_WAIT);
+        }
+        if (proc.getStatus() != Proc.Status.COMPLETE) {
+            throw new IOException(String.format("The results of documents %s were evicted " +
+                    "from the result cache, and the proc reprocessing them was %s", evicted,
+                    proc.getStatus().toString().toLowerCase()));
+        }
+        documents.addAll(proc.getDocuments());
+        return documents;
+    }
+
+    /**
+     * Caches the results of each of the documents in the given proc response, which don't
+     * include failures, keyed by the given operations.
+     */
+    private void cacheResults (ResultCache cache, List<Operation> operations, byte[] response)
+            throws IOException {
+        try (JsonParser p = pdfdata.json.mapper.getFactory().createParser(response)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                if (p.nextToken() != JsonToken.START_ARRAY || !field.equals("documents")) {
+                    p.skipChildren();
+                    continue;
+                }
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    int start = (int) p.getTokenLocation().getByteOffset();
+                    String hash = DocumentCache.hashOf(scanDocument(p));
+                    int end = (int) p.getCurrentLocation().getByteOffset();
+                    if (hash == null) continue;
+                    try {
+                        cache.put(ResultCache.key(hash, operations),
+                                Arrays.copyOfRange(response, start, end));
+                    } catch (IOException e) {
+                        // the cache is only an optimization; failing to write to it mustn't
+                        // fail the request
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the document object at the parser's current token, leaving the parser on its
+     * end, and returns its ID, or null if any of its results is a failure (which isn't
+     * cached).
+     */
+    private static String scanDocument (JsonParser p) throws IOException {
+        String id = null;
+        boolean failed = false;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken value = p.nextToken();
+            if (field.equals("id")) {
+                id = p.getValueAsString();
+            } else if (field.equals("results") && value == JsonToken.START_ARRAY) {
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = p.getCurrentName();
+                        failed |= p.nextToken() == JsonToken.VALUE_TRUE && name.equals("failure");
+                        p.skipChildren();
+                    }
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        return failed ? null : id;
+    }
+
+    /**
+     * Returns the cached document with the given {@link ResultCache#key(String, List) key}, or
+     * null.
+     */
+    private ProcessedDocument cachedDocument (ResultCache cache, String key) throws IOException {
+        byte[] json = cache.get(key);
+        return json == null ? null :
+                pdfdata.json.from(new ByteArrayInputStream(json), ProcessedDocument.class);
+    }
+
+    /**
+     * Returns a completed proc conveying the given cached documents, as if PDFDATA.io had
+     * processed them.
+     */
+    private Proc cachedProc (List<Operation> operations,
+                             Collection<ProcessedDocument> documents) throws IOException {
+        ObjectNode tree = JsonNodeFactory.instance.objectNode();
+        tree.put("type", "proc");
+        tree.put("created", API.INSTANT_FORMATTER.format(Instant.now().atOffset(ZoneOffset.UTC)));
+        tree.putArray("source_tags");
+        tree.set("operations", pdfdata.json.mapper.valueToTree(operations));
+        tree.put("status", "complete");
+        tree.putArray("documents");
+        Proc proc = pdfdata.json.from(tree, Proc.class);
+        proc.getDocuments().addAll(documents);
+        return registerResources(proc);
+    }
+
+    /**
+     * Retrieves a {@link Proc} given its ID, handing the pages of its documents'
+     * {@link io.pdfdata.model.ops.Text} and {@link io.pdfdata.model.ops.Images} results to the
+     * given handler as they are read, rather than holding them all in memory. This keeps memory
+     * use constant no matter how many pages the proc's documents have.
+     *
+     * Unlike {@link #byID(String)}, a failure while reading the response is not retried, as
+     * the handler may already have received some pages.
+     *
+     * @return the proc, without its {@link Proc#getDocuments() documents}; if it is still
+     * {@link Proc.Status#PENDING pending}, the handler will not have been called
+     */
+    public Proc stream (String procid, PageHandler handler) throws IOException {
+        try (JsonParser parser = pdfdata.json.parser(doStreamGet(base + "/" + procid))) {
+            return new ProcStreamer(pdfdata.json, parser, handler).stream();
+        }
+    }
+
+    /**
+     * Saves the data of all of a completed proc's {@link io.pdfdata.model.Resource}s (e.g. its
+     * documents' images and attachments) to files in the given directory, named by resource ID
+     * with an extension suited to each resource's MIME type. Up to {@code parallelism}
+     * resources are downloaded at once, on the {@link API#getExecutor() API's executor}. A
+     * resource that fails to download doesn't stop the others; its error is reported in the
+     * returned {@link ResourceDownloads}.
+     *
+     * @throws IllegalArgumentException if the proc has no documents (i.e. is not complete)
+     * @throws IOException if the directory can't be created
+     */
+    public ResourceDownloads downloadResources (Proc proc, Path dir, int parallelism)
+            throws IOException {
+        return downloadResources(proc, dir, parallelism, null);
+    }
+
+    /**
+     * Variant of {@link #downloadResources(Proc, Path, int)} that reports progress to the
+     * given listener as each resource is saved or fails.
+     */
+    public ResourceDownloads downloadResources (Proc proc, Path dir, int parallelism,
+                                                ResourceDownloads.Listener listener)
+            throws IOException {
+        return ResourceDownloads.download(pdfdata, proc, dir, parallelism, listener);
+    }
+
+    /**
+     * Asynchronous variant of {@link #byID(String)}, run on the
+     * {@link API#getExecutor() API's executor}.
+     */
+    public CompletableFuture<Proc> byIDAsync (String procid) {
+        return async(RateLimiter.Bucket.GET, 1, () -> byID(procid));
+    }
+
+    CompletableFuture<Proc> byIDAsync (String procid, int wait) {
+        return async(RateLimiter.Bucket.GET, 1, () -> byID(procid, wait));
+    }
+
+    /**
+     * Returns the IDs of the documents with the given contents, uploading only those that
+     * PDFDATA.io doesn't already have.
+     */
+    private Set<String> deduplicate (Set<DocumentSource> files) throws IOException {
+        DocumentCache cache = pdfdata.getDocumentCache();
+        Set<String> docIDs = new HashSet<>();
+        List<DocumentSource> uploads = new ArrayList<>();
+        Map<String, DocumentSource> uncached = new LinkedHashMap<>();
+        for (DocumentSource f : files) {
+            String hash = f.contentHash();
+            Document cached = hash == null ? null : cache.get(hash);
+            if (hash == null) {
+                uploads.add(f);
+            } else if (cached != null) {
+                docIDs.add(cached.getID());
+            } else if (uncached.putIfAbsent(hash, f) != null) {
+                docIDs.add(DocumentCache.idOf(hash));
+            }
+        }
+
+        DocumentsRequest documents = pdfdata.documents();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Util.drain(uncached.keySet(), uncached.size(), pdfdata.getExecutor(),
+                "looking up documents", hash -> {
+            if (failure.get() != null) return;
+            try {
+                cache.put(hash, documents.byID(DocumentCache.idOf(hash)));
+            } catch (APIException e) {
+                // if PDFDATA.io doesn't have it, it needs to be uploaded
+                if (e.getResponseStatus() != 404) failure.compareAndSet(null, e);
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        if (failure.get() != null) throw failure.get();
+        for (String hash : uncached.keySet()) {
+            Document known = cache.get(hash);
+            if (known != null) {
+                docIDs.add(known.getID());
+            } else {
+                uploads.add(uncached.get(hash));
+            }
+        }
+
+        if (!uploads.isEmpty()) {
+            for (Document d : documents.uploadSources(uploads)) docIDs.add(d.getID());
+        }
+        return docIDs;
     }
 
     /**
@@ -80,8 +369,16 @@ public class ProcsRequest extends Request {
         return new ProcCreationBuilder();
     }
 
+    /**
+     * Returns a {@link ProcPipeline} with default settings, for running operations over many
+     * documents.
+     */
+    public ProcPipeline pipeline () {
+        return new ProcPipeline(pdfdata);
+    }
+
     public class ProcCreationBuilder {
-        private final Set<File> files;
+        private final Set<DocumentSource> files;
         private final Set<String> documentIDs;
         private final Set<String> documentTags;
         private final ArrayList<Operation> operations;
@@ -91,7 +388,7 @@ public class ProcsRequest extends Request {
             this(new HashSet<>(), new HashSet<>(), new HashSet<>(), new ArrayList<>(), DEFAULT_WAIT);
         }
 
-        ProcCreationBuilder(Set<File> files, Set<String> docIDs,
+        ProcCreationBuilder(Set<DocumentSource> files, Set<String> docIDs,
                             Set<String> documentTags,
                             ArrayList<Operation> operations, int wait) {
             this.files = files == null ? new HashSet<>() : files;
@@ -105,6 +402,14 @@ public class ProcsRequest extends Request {
          * Starts a new proc, returning a {@link Proc} entity representing it. This method will
          * block depending upon the configured {@link #wait() wait value}.
          *
+         * If the API has a {@link ResultCache}, only the files and document IDs whose results
+         * for the configured operations aren't cached are sent to PDFDATA.io. Cached results are
+         * added to the proc once it has completed, whether that's the proc returned or one
+         * retrieved later by its ID (e.g. by a {@link ProcWaiter}); if they cover all of the
+         * documents, no proc is started at all, and a completed proc is returned whose
+         * {@link Proc#getID() ID} is null, as PDFDATA.io never saw it (so it can't be retrieved
+         * again by ID).
+         *
          * @throws IllegalArgumentException if certain configuration invariants found not to
          * hold, e.g. that both files and document IDs have been provided
          * @throws IOException
@@ -135,9 +440,57 @@ public class ProcsRequest extends Request {
                                     "when configuring a new proc.", documentIdentifiersUsed));
             }
 
+            Set<DocumentSource> files = this.files;
+            Set<String> documentIDs = this.documentIDs;
+            Map<String, ProcessedDocument> cached = new LinkedHashMap<>();
+            ResultCache cache = pdfdata.getResultCache();
+            if (cache != null && documentTags.isEmpty()) {
+                files = new LinkedHashSet<>();
+                documentIDs = new LinkedHashSet<>();
+                for (DocumentSource f : this.files) {
+                    if (!addCached(cache, f.contentHash(), cached)) files.add(f);
+                }
+                for (String id : this.documentIDs) {
+                    if (!addCached(cache, DocumentCache.hashOf(id), cached)) documentIDs.add(id);
+                }
+                if (files.isEmpty() && documentIDs.isEmpty()) {
+                    return cachedProc(operations, cached.values());
+                }
+                params.put("file", files);
+                params.put("docid", documentIDs);
+            }
+
+            if (!files.isEmpty() && pdfdata.isDeduplicateUploads()) {
+                params.remove("file");
+                params.put("docid", deduplicate(files));
+            }
+
             if (wait != DEFAULT_WAIT) params.put("wait", wait);
             params.put("operations", operations);
-            return registerResources(doRequest(POST, base, params, TYPEREF));
+            return requestProc(POST, base, params, cached);
+        }
+
+        /**
+         * Adds the cached document with the given content hash (as processed by the configured
+         * operations) to the given map, by that hash, returning false if there is none.
+         */
+        private boolean addCached (ResultCache cache, String hash,
+                                   Map<String, ProcessedDocument> cached) throws IOException {
+            if (hash == null) return false;
+            ProcessedDocument doc = cachedDocument(cache, ResultCache.key(hash, operations));
+            if (doc == null) return false;
+            cached.put(hash, doc);
+            return true;
+        }
+
+        /**
+         * Asynchronous variant of {@link #start()}, run on the
+         * {@link API#getExecutor() API's executor}. The returned future completes
+         * exceptionally with an {@link IllegalArgumentException} or {@link IOException} where
+         * {@link #start()} would throw one.
+         */
+        public CompletableFuture<Proc> startAsync () {
+            return async(RateLimiter.Bucket.PROC_CREATION, 1, this::start);
         }
 
         public ProcCreationBuilder withDocumentIDs (String... docIDs) {
@@ -157,13 +510,26 @@ public class ProcsRequest extends Request {
             return withFiles(Arrays.asList(paths));
         }
 
+        public ProcCreationBuilder withFiles (Path... paths) {
+            return withFiles(Arrays.asList(paths));
+        }
+
+        /**
+         * Adds documents to be uploaded from sources other than files, e.g. in-memory byte
+         * arrays or streams.
+         */
+        public ProcCreationBuilder withFiles (DocumentSource... sources) {
+            return withFiles(Arrays.asList(sources));
+        }
+
         /**
-         * @param paths a collection of {@link File}s and/or {@link String} paths denoting files
+         * @param paths a collection of {@link File}s, {@link Path}s, {@link String} paths
+         *              denoting files, and/or {@link DocumentSource}s
          */
         public ProcCreationBuilder withFiles (Collection paths) {
             return new ProcCreationBuilder(
-                    union(this.files, (Set<File>)paths.stream()
-                            .map(s -> s instanceof File ? s : new File((String)s))
+                    union(this.files, (Set<DocumentSource>)paths.stream()
+                            .map(DocumentSource::from)
                             .collect(Collectors.toSet())),
                     documentIDs, documentTags, operations, wait);
         }
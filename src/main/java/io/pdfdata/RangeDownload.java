@@ -0,0 +1,276 @@
+package io.pdfdata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a resource to a file using HTTP {@code Range} requests, several ranges at a time,
+ * each written into place in a preallocated {@code <file>.part} file. The ranges completed so
+ * far are recorded in a {@code <file>.part.ranges} file alongside it, so that a download that
+ * fails part way through resumes from where it left off when retried. Once all ranges are
+ * written, the part file is moved into place.
+ *
+ * The resource's (strong) {@code ETag}, if it has one, is recorded too, and sent as
+ * {@code If-Range} with every later range request, so that the ranges of a resource that has
+ * changed since the download started are never spliced together: the server then responds
+ * with the whole (new) resource instead, and the download starts over.
+ *
+ * If the server doesn't honour range requests (responding to the first with the whole
+ * resource), or the resource is empty (so that no range of it can be satisfied), it's simply
+ * downloaded in full.
+ */
+final class RangeDownload {
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    private final Request request;
+    private final URL url;
+    private final Path file;
+    private final Path part;
+    private final Path ranges;
+    private final long chunkSize;
+    private final int parallelism;
+    /** the strong ETag of the resource being downloaded, or null if it has none */
+    private volatile String etag;
+
+    RangeDownload (Request request, URL url, Path file, long chunkSize, int parallelism) {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be positive");
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+        this.request = request;
+        this.url = url;
+        this.file = file.toAbsolutePath();
+        this.part = this.file.resolveSibling(this.file.getFileName() + ".part");
+        this.ranges = this.file.resolveSibling(this.file.getFileName() + ".part.ranges");
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    Path run () throws IOException {
+        try {
+            return download();
+        } catch (ResourceChangedException e) {
+            // the ranges on disk are of an earlier version of the resource
+            Files.deleteIfExists(ranges);
+            etag = null;
+            return download();
+        }
+    }
+
+    private Path download () throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        BitSet completed = new BitSet();
+        long total = resumableLength(completed);
+
+        if (total < 0) {
+            // nothing to resume; the first range tells us the resource's length, or that the
+            // server doesn't do ranges, in which case it's just sent the whole thing
+            try {
+                total = request.doGet(url, rangeHeader(0, chunkSize), resp -> {
+                    if (resp.getStatus() == 200) {
+                        copy(resp);
+                        return -1L;
+                    }
+                    Matcher range = contentRange(resp);
+                    if (resp.getStatus() != 206 || range == null || !range.group(1).equals("0")) {
+                        throw new ProtocolException(String.format("Expected bytes 0-%d of %s, " +
+                                "got %s %s", chunkSize - 1, url, resp.getStatus(),
+                                resp.getHeader("Content-Range")));
+                    }
+                    long length = Long.parseLong(range.group(3));
+                    String tag = resp.getHeader("ETag");
+                    // weak validators can't be used with If-Range
+                    etag = tag == null || tag.startsWith("W/") ? null : tag.trim();
+                    startRanges(length);
+                    try (FileChannel out = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                        write(resp, out, 0, Math.min(chunkSize, length));
+                    }
+                    return length;
+                });
+            } catch (APIException e) {
+                if (e.getResponseStatus() != 416) throw e;
+                // Range Not Satisfiable: the resource is empty
+                total = request.doGet(url, Collections.emptyMap(), resp -> {
+                    copy(resp);
+                    return -1L;
+                });
+            }
+            if (total < 0) return finish();
+            recordCompleted(0);
+            completed.set(0);
+        }
+
+        int chunks = (int) ((total + chunkSize - 1) / chunkSize);
+        List<Integer> pending = new ArrayList<>();
+        for (int c = completed.nextClearBit(0); c < chunks; c = completed.nextClearBit(c + 1)) {
+            pending.add(c);
+        }
+
+        final long length = total;
+        List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+        try (FileChannel out = FileChannel.open(part, StandardOpenOption.WRITE)) {
+            Util.drain(pending, parallelism, request.pdfdata.getExecutor(),
+                    "downloading " + url, c -> {
+                if (!failures.isEmpty()) return;
+                long start = c * chunkSize;
+                long end = Math.min(start + chunkSize, length);
+                try {
+                    request.doGet(url, rangeHeader(start, end), resp -> {
+                        if (resp.getStatus() == 200 && etag != null) {
+                            throw new ResourceChangedException(url);
+                        }
+                        Matcher range = contentRange(resp);
+                        if (resp.getStatus() != 206 || range == null ||
+                                Long.parseLong(range.group(1)) != start ||
+                                Long.parseLong(range.group(3)) != length) {
+                            throw new ProtocolException(String.format("Expected bytes %d-%d/%d " +
+                                    "of %s, got %s %s", start, end - 1, length, url,
+                                    resp.getStatus(), resp.getHeader("Content-Range")));
+                        }
+                        return write(resp, out, start, end);
+                    });
+                    // only once its bytes are on disk is a range recorded as done
+                    out.force(false);
+                    recordCompleted(c);
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            });
+        }
+
+        if (!failures.isEmpty()) {
+            for (IOException e : failures) {
+                if (e instanceof ResourceChangedException) throw e;
+            }
+            IOException e = new IOException("Failed to download " + url + "; saving it again " +
+                    "will resume from the ranges completed so far", failures.get(0));
+            for (IOException other : failures.subList(1, failures.size())) e.addSuppressed(other);
+            throw e;
+        }
+        return finish();
+    }
+
+    /**
+     * Returns the length of the resource as recorded by an earlier, incomplete download with
+     * the same chunk size, having set the indexes of the ranges it completed; or -1 if there is
+     * no such download to resume.
+     */
+    private long resumableLength (BitSet completed) throws IOException {
+        if (!Files.exists(ranges) || !Files.exists(part)) return -1;
+        String record = new String(Files.readAllBytes(ranges), StandardCharsets.UTF_8);
+        // a trailing unterminated line is from a record interrupted mid-write
+        List<String> lines = Arrays.asList(record.substring(0, record.lastIndexOf('\n') + 1)
+                .split("\n"));
+        try {
+            String[] header = lines.isEmpty() ? new String[0] : lines.get(0).split(" ", 3);
+            if (header.length < 2 || Long.parseLong(header[1]) != chunkSize) return -1;
+            long length = Long.parseLong(header[0]);
+            if (Files.size(part) != length) return -1;
+            etag = header.length > 2 ? header[2] : null;
+            for (String line : lines.subList(1, lines.size())) {
+                completed.set(Integer.parseInt(line));
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            completed.clear();
+            return -1;
+        }
+    }
+
+    /**
+     * Preallocates the part file and starts a new record of its completed ranges.
+     */
+    private void startRanges (long length) throws IOException {
+        Files.deleteIfExists(ranges);
+        try (FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (length > 0) out.write(ByteBuffer.allocate(1), length - 1);
+        }
+        String header = length + " " + chunkSize + (etag == null ? "" : " " + etag);
+        Files.write(ranges, (header + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private synchronized void recordCompleted (int chunk) throws IOException {
+        Files.write(ranges, (chunk + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes the response's body to {@code out} at {@code start}, failing if it doesn't
+     * contain exactly the bytes up to {@code end}.
+     */
+    private static long write (Transport.Response resp, FileChannel out, long start, long end)
+            throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long pos = start;
+        try (InputStream in = resp.getBody()) {
+            for (int n; pos < end && (n = in.read(buf, 0, (int) Math.min(buf.length,
+                    end - pos))) >= 0; ) {
+                ByteBuffer bytes = ByteBuffer.wrap(buf, 0, n);
+                while (bytes.hasRemaining()) pos += out.write(bytes, pos);
+            }
+        }
+        if (pos != end) {
+            throw new IOException(String.format("Range ended after %d of %d bytes",
+                    pos - start, end - start));
+        }
+        return pos;
+    }
+
+    /**
+     * Writes the response's body, the whole resource, to the part file.
+     */
+    private void copy (Transport.Response resp) throws IOException {
+        Files.deleteIfExists(ranges);
+        try (InputStream in = resp.getBody()) {
+            Files.copy(in, part, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path finish () throws IOException {
+        Files.move(part, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(ranges);
+        return file;
+    }
+
+    private Map<String, String> rangeHeader (long start, long end) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Range", "bytes=" + start + "-" + (end - 1));
+        if (etag != null) headers.put("If-Range", etag);
+        return headers;
+    }
+
+    private static Matcher contentRange (Transport.Response resp) {
+        String header = resp.getHeader("Content-Range");
+        if (header == null) return null;
+        Matcher m = CONTENT_RANGE.matcher(header.trim());
+        return m.matches() ? m : null;
+    }
+
+    /**
+     * Thrown when a range request conditional on the resource's ETag is answered with the
+     * whole resource, i.e. the resource has changed since its download started.
+     */
+    private static final class ResourceChangedException extends ProtocolException {
+        ResourceChangedException (URL url) {
+            super(url + " has changed since its download started");
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package io.pdfdata;
+
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side rate limits on the requests made using a single PDFDATA.io API key. Waiting
+ * locally for capacity is far cheaper than being throttled by the service, especially when the
+ * same key is used by many threads or {@link API} instances.
+ *
+ * Each API key has one {@code RateLimiter}, shared by all {@code API} instances in the JVM
+ * using that key, and returned by {@link API#getRateLimiter()} or {@link #forAPIKey(String)}.
+ * Requests are limited using a separate token bucket for each of the {@link Bucket}s; no limits
+ * apply until a rate is {@link #setRate(Bucket, double, double) configured} for a bucket:
+ *
+ * <pre>RateLimiter limits = pdfdata.getRateLimiter();
+ * limits.setRate(RateLimiter.Bucket.PROC_CREATION, 5, 10);
+ * limits.setRate(RateLimiter.Bucket.UPLOAD_BYTES, 20e6, 100e6);</pre>
+ *
+ * A bucket holds up to {@code burst} tokens, refilled at {@code perSecond} tokens per second.
+ * Requests take their tokens before being sent, waiting until enough are available. A single
+ * request needing more tokens than a bucket can hold (e.g. an upload larger than
+ * {@code burst} bytes) is sent once the bucket is full, leaving it in debt; subsequent requests
+ * wait for the debt to be repaid.
+ *
+ * Blocking requests sleep in the calling thread until their tokens are available. Asynchronous
+ * requests (e.g. {@link ProcsRequest#byIDAsync(String)}) are instead held back without
+ * occupying one of the {@link API#getExecutor() API's executor} threads, and dispatched once
+ * their bucket can accommodate them.
+ *
+ * @publicapi
+ */
+public class RateLimiter {
+    public enum Bucket {
+        /**
+         * Bytes of request bodies uploaded, including documents uploaded when starting procs
+         */
+        UPLOAD_BYTES,
+        /**
+         * Procs started
+         */
+        PROC_CREATION,
+        /**
+         * GET requests of all kinds, including for resources
+         */
+        GET
+    }
+
+    private static final Map<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    static final ScheduledExecutorService SCHEDULER = scheduler();
+
+    private final Map<Bucket, TokenBucket> buckets = new EnumMap<>(Bucket.class);
+
+    private RateLimiter () {}
+
+    /**
+     * Returns the {@code RateLimiter} shared by all {@link API} instances using the given key.
+     */
+    public static RateLimiter forAPIKey (String apiKey) {
+        return LIMITERS.computeIfAbsent(String.valueOf(apiKey), k -> new RateLimiter());
+    }
+
+    /**
+     * Limits the given bucket to an average of {@code perSecond} tokens per second, with bursts
+     * of up to {@code burst} tokens. The bucket starts out full.
+     */
+    public void setRate (Bucket bucket, double perSecond, double burst) {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("perSecond must be positive, and burst at least 1");
+        }
+        TokenBucket tb = new TokenBucket(perSecond, burst);
+        synchronized (buckets) {
+            buckets.put(bucket, tb);
+        }
+    }
+
+    /**
+     * Removes any limit on the given bucket.
+     */
+    public void removeRate (Bucket bucket) {
+        synchronized (buckets) {
+            buckets.remove(bucket);
+        }
+    }
+
+    private TokenBucket get (Bucket bucket) {
+        if (bucket == null) return null;
+        synchronized (buckets) {
+            return buckets.get(bucket);
+        }
+    }
+
+    /**
+     * Takes {@code permits} tokens from the given bucket, blocking until they are available.
+     *
+     * @throws InterruptedIOException if the calling thread is interrupted while waiting (in which
+     * case no tokens are taken)
+     */
+    public void acquire (Bucket bucket, long permits) throws InterruptedIOException {
+        TokenBucket tb = get(bucket);
+        if (tb == null || permits <= 0) return;
+
+        long waitNanos = tb.reserve(permits);
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                tb.refund(permits);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for rate limit of " +
+                        bucket + " bucket");
+            }
+        }
+    }
+
+    /**
+     * Takes {@code permits} tokens from the given bucket if they are available immediately,
+     * returning true if they were.
+     */
+    public boolean tryAcquire (Bucket bucket, long permits) {
+        TokenBucket tb = get(bucket);
+        return tb == null || permits <= 0 || tb.tryAcquire(permits);
+    }
+
+    /**
+     * Returns {@code permits} tokens previously taken from the given bucket, e.g. by
+     * {@link #tryAcquire(Bucket, long)}, to it.
+     */
+    void release (Bucket bucket, long permits) {
+        TokenBucket tb = get(bucket);
+        if (tb != null && permits > 0) tb.refund(permits);
+    }
+
+    /**
+     * Returns how long it would take, in nanoseconds, before {@code permits} tokens would be
+     * available from the given bucket, without taking them.
+     */
+    long delayNanos (Bucket bucket, long permits) {
+        TokenBucket tb = get(bucket);
+        return tb == null || permits <= 0 ? 0 : tb.delayNanos(permits);
+    }
+
+    private static ScheduledExecutorService scheduler () {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "pdfdata-ratelimit");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private static final class TokenBucket {
+        private final double perNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket (double perSecond, double capacity) {
+            this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        private void refill () {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * perNano);
+            refilledAt = now;
+        }
+
+        // requests larger than the bucket only need it to be full
+        private long waitFor (long permits) {
+            double needed = Math.min(permits, capacity) - tokens;
+            return needed <= 0 ? 0 : (long) Math.ceil(needed / perNano);
+        }
+
+        synchronized long reserve (long permits) {
+            refill();
+            long wait = waitFor(permits);
+            tokens -= permits;
+            return wait;
+        }
+
+        synchronized boolean tryAcquire (long permits) {
+            refill();
+            if (waitFor(permits) > 0) return false;
+            tokens -= permits;
+            return true;
+        }
+
+        synchronized long delayNanos (long permits) {
+            refill();
+            return waitFor(permits);
+        }
+
+        synchronized void refund (long permits) {
+            tokens = Math.min(capacity, tokens + permits);
+        }
+    }
+}
@@ -8,10 +8,17 @@ import io.pdfdata.model.ResponseEntity;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static io.pdfdata.Network.Method.*;
 
@@ -40,6 +47,98 @@ public class Request {
         return (T) doRequest(verb, path, params, new HashMap(), resultType);
     }
 
+    /**
+     * A blocking request, to be run asynchronously via {@link #async(Call)}.
+     */
+    interface Call<T> {
+        T call () throws IOException;
+    }
+
+    /**
+     * Runs the given call on the {@link API#getExecutor() API's executor}. Cancelling the
+     * returned future before the call starts prevents it from running; cancelling it while the
+     * call is in flight interrupts the thread running it, which aborts the request at its next
+     * interruptible point (e.g. while waiting for a pooled connection or sending a request body).
+     */
+    <T> CompletableFuture<T> async (Call<T> call) {
+        return async(null, 0, call);
+    }
+
+    /**
+     * Runs the given call as {@link #async(Call)} does, but first takes {@code permits} tokens
+     * from {@code bucket} of the {@link API#getRateLimiter() API's rate limiter}, without
+     * blocking: if they aren't available yet, the call is only dispatched to the executor once
+     * they are, so it doesn't occupy one of the executor's threads while it waits.
+     *
+     * The tokens only hold the call's place while it's queued: they're returned to the bucket
+     * just before the call runs, and the requests it makes take their own as usual (see
+     * {@link #withRetries(RateLimiter.Bucket, Transport.Body, boolean, Call)}), so that a call
+     * making several requests (e.g. uploading documents before starting a proc) is charged for
+     * each of them exactly once.
+     */
+    <T> CompletableFuture<T> async (RateLimiter.Bucket bucket, long permits, Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        AtomicReference<Thread> runner = new AtomicReference<>();
+
+        Runnable task = () -> {
+            pdfdata.getRateLimiter().release(bucket, permits);
+            if (future.isDone()) return;
+            runner.set(Thread.currentThread());
+            try {
+                if (!future.isDone()) future.complete(call.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                synchronized (runner) {
+                    runner.set(null);
+                    // don't leak a cancellation interrupt into the executor's next task
+                    Thread.interrupted();
+                }
+            }
+        };
+
+        future.whenComplete((result, t) -> {
+            if (future.isCancelled()) {
+                synchronized (runner) {
+                    Thread thread = runner.get();
+                    if (thread != null) thread.interrupt();
+                }
+            }
+        });
+
+        AtomicReference<Future<?>> scheduled = new AtomicReference<>();
+        future.whenComplete((result, t) -> {
+            Future<?> f = scheduled.get();
+            if (f != null) f.cancel(false);
+        });
+
+        dispatch(future, task, bucket, permits, scheduled);
+        return future;
+    }
+
+    private void dispatch (CompletableFuture<?> future, Runnable task, RateLimiter.Bucket bucket,
+                           long permits, AtomicReference<Future<?>> scheduled) {
+        if (future.isDone()) return;
+
+        RateLimiter rateLimiter = pdfdata.getRateLimiter();
+        if (!rateLimiter.tryAcquire(bucket, permits)) {
+            // another caller may take the tokens first, in which case we'll wait again
+            long delay = Math.max(1, rateLimiter.delayNanos(bucket, permits));
+            scheduled.set(RateLimiter.SCHEDULER.schedule(
+                    () -> dispatch(future, task, bucket, permits, scheduled),
+                    delay, TimeUnit.NANOSECONDS));
+            if (future.isDone()) scheduled.get().cancel(false);
+            return;
+        }
+
+        try {
+            pdfdata.getExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            rateLimiter.release(bucket, permits);
+            future.completeExceptionally(e);
+        }
+    }
+
     // this is pretty nasty
     // TODO why aren't we just accepting json request objects for each POST in the API?
     private static boolean isOperationsList (Object x) {
@@ -54,105 +153,274 @@ public class Request {
         return false;
     }
 
+    /**
+     * Runs the given call, retrying it as directed by the {@link API#getRetryPolicy() API's
+     * retry policy} if it fails.
+     *
+     * Each attempt first takes a token from {@code bucket} (if not null) and, if the call sends a
+     * body, as many {@link RateLimiter.Bucket#UPLOAD_BYTES} tokens as the body has bytes, from the
+     * {@link API#getRateLimiter() API's rate limiter}.
+     *
+     * @param body the body the call will send, which must be repeatable for it to be retried
+     * @param waits true if the call asks PDFDATA.io to wait before responding (see
+     *              {@link ConcurrencyLimiter#release(long, Boolean, boolean)})
+     */
+    <T> T withRetries (RateLimiter.Bucket bucket, Transport.Body body, boolean waits,
+                       Call<T> call) throws IOException {
+        RateLimiter rateLimiter = pdfdata.getRateLimiter();
+        RetryPolicy policy = pdfdata.getRetryPolicy();
+        RetryPolicy.Budget budget = pdfdata.getRetryBudget();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                rateLimiter.acquire(bucket, 1);
+                if (body != null) {
+                    rateLimiter.acquire(RateLimiter.Bucket.UPLOAD_BYTES, body.getContentLength());
+                }
+                T result = guarded(waits, call);
+                budget.onSuccess();
+                return result;
+            } catch (IOException e) {
+                if (!policy.isRetryable(e)) throw e;
+                if (!budget.onFailure() || attempt >= policy.getMaxAttempts() ||
+                        (body != null && !body.isRepeatable())) {
+                    throw e;
+                }
+
+                try {
+                    Thread.sleep(policy.backoffMillis(attempt));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException iioe = new InterruptedIOException(
+                            "Interrupted while waiting to retry a failed request");
+                    iioe.addSuppressed(e);
+                    throw iioe;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a single attempt of a call, subject to the API's {@link CircuitBreaker} and
+     * {@link ConcurrencyLimiter} (if any), and reports its outcome to them.
+     */
+    private <T> T guarded (boolean waits, Call<T> call) throws IOException {
+        CircuitBreaker breaker = pdfdata.getCircuitBreaker();
+        ConcurrencyLimiter limiter = pdfdata.getConcurrencyLimiter();
+        int probe = breaker == null ? 0 : breaker.acquire();
+
+        long start = 0;
+        Boolean overloaded = null;
+        boolean failed = false;
+        try {
+            if (limiter != null) start = limiter.acquire();
+        } catch (RequestRejectedException e) {
+            if (breaker != null) breaker.onIgnored(probe);
+            throw e;
+        }
+
+        try {
+            T result = call.call();
+            overloaded = false;
+            return result;
+        } catch (APIException e) {
+            int status = e.getResponseStatus();
+            overloaded = status == 429 || status == 503 || status == 504;
+            failed = status == 429 || status >= 500;
+            throw e;
+        } catch (RequestRejectedException e) {
+            // never sent (no connection was free), so says nothing about the service
+            throw e;
+        } catch (InterruptedIOException e) {
+            if (e instanceof SocketTimeoutException) {
+                overloaded = failed = true;
+            }
+            throw e;
+        } catch (IOException e) {
+            overloaded = false;
+            failed = true;
+            throw e;
+        } finally {
+            if (limiter != null) limiter.release(start, overloaded, waits);
+            if (breaker != null) {
+                if (overloaded == null) {
+                    breaker.onIgnored(probe);
+                } else if (failed) {
+                    breaker.onFailure(probe);
+                } else {
+                    breaker.onSuccess(probe);
+                }
+            }
+        }
+    }
+
     InputStream doStreamGet (String path) throws IOException {
         URL url = new URL(pdfdata.getEndpoint(), path);
-        HttpURLConnection conn = Network.openConnection(GET, url, null, pdfdata);
-        int status = conn.getResponseCode();
-        String contentType = String.valueOf(conn.getHeaderField("Content-Type"));
+        return withRetries(RateLimiter.Bucket.GET, null, false,
+                () -> doGet(url, null).getBody());
+    }
+
+    /**
+     * Handles a successful response, e.g. by reading its body.
+     */
+    interface ResponseHandler<T> {
+        T handle (Transport.Response resp) throws IOException;
+    }
+
+    /**
+     * Sends a GET request with the given headers and passes its successful response to the
+     * given handler. Both are subject to the API's retry policy, so a request is sent again if
+     * e.g. the connection drops while its response is being handled.
+     */
+    <T> T doGet (URL url, Map<String, String> headers, ResponseHandler<T> handler)
+            throws IOException {
+        return withRetries(RateLimiter.Bucket.GET, null, false, () -> {
+            try (Transport.Response resp = doGet(url, headers)) {
+                return handler.handle(resp);
+            }
+        });
+    }
+
+    private Transport.Response doGet (URL url, Map<String, String> headers) throws IOException {
+        Transport.Response resp = Network.send(GET, url, headers, null, pdfdata);
+        int status = resp.getStatus();
+        String contentType = String.valueOf(resp.getHeader("Content-Type"));
         if (status >= 200 && status < 300) {
-            return conn.getInputStream();
-        } else if (contentType.equals("application/json")) {
-            InputStream is = conn.getErrorStream();
-            throw new APIException(pdfdata.json.from(is, JsonNode.class),
-                    status,
-                    GET,
-                    url,
-                    null,
-                    Network.mergeHeaders(null));
-        } else {
-            throw new APIException(String.format("%s request to %s produced a failure response " +
-                    "with an unparseable Content-Type: %s.", GET, url.toExternalForm(), contentType),
-                    status,
-                    GET,
-                    url,
-                    null,
-                    Network.mergeHeaders(null));
+            return resp;
+        }
+
+        try (Transport.Response r = resp) {
+            if (contentType.equals("application/json")) {
+                throw new APIException(pdfdata.json.from(r.getBody(), JsonNode.class),
+                        status,
+                        GET,
+                        url,
+                        null,
+                        Network.mergeHeaders(headers));
+            } else {
+                throw new APIException(String.format("%s request to %s produced a failure response " +
+                        "with an unparseable Content-Type: %s.", GET, url.toExternalForm(), contentType),
+                        status,
+                        GET,
+                        url,
+                        null,
+                        Network.mergeHeaders(headers));
+            }
         }
     }
 
+    private static MultipartProcessor multipartBody (Map<String, Object> params)
+            throws IOException {
+        MultipartProcessor mpp = new MultipartProcessor(MultipartProcessor.getBoundary(),
+                Network.CHARSET_NAME);
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            if (isOperationsList(param.getValue())) {
+                mpp.addFormField(param.getKey(), JSON.to0(param.getValue()));
+            } else {
+                for (Object v : (Collection) (param.getValue() instanceof Collection ?
+                        param.getValue() :
+                        Collections.singleton(param.getValue()))) {
+                    if (v == null) {
+                        // no op
+                    } else if (v instanceof String) {
+                        mpp.addFormField(param.getKey(), (String) v);
+                    } else if (v instanceof File || v instanceof Path ||
+                            v instanceof DocumentSource) {
+                        mpp.addFileField(param.getKey(), DocumentSource.from(v));
+                    } else if (v instanceof Number) {
+                        mpp.addFormField(param.getKey(), v.toString());
+                    } else {
+                        throw new IllegalArgumentException(String.format(
+                                "Illegal param value type %s provided for %s",
+                                v.getClass().getName(), param.getKey()));
+                    }
+                }
+            }
+        }
+        return mpp;
+    }
+
     <T> T doRequest (Network.Method verb, String path, Map<String, Object> params, Map<String, String> headers,
                      TypeReference<T> resultType) throws IOException {
+        return doRequest(verb, path, params, headers, resp -> mapResponse(resp, resultType));
+    }
+
+    /**
+     * Sends a request as {@link #doRequest(Network.Method, String, Map, Map, TypeReference)}
+     * does, but passes its successful JSON response to the given handler rather than mapping
+     * it.
+     */
+    <T> T doRequest (Network.Method verb, String path, Map<String, Object> params,
+                     Map<String, String> headers, ResponseHandler<T> handler) throws IOException {
         String queryString = verb == GET ? Network.queryString(params) : "";
 
         URL url = new URL(pdfdata.getEndpoint().toExternalForm() + path + queryString);
 
-        String boundary = null;
+        Transport.Body body = null;
 
         if (verb == POST) {
-            boundary = MultipartProcessor.getBoundary();
-            headers.put("Content-Type", "multipart/form-data; boundary=" + boundary);
+            MultipartProcessor mpp = multipartBody(params);
+            headers.put("Content-Type", mpp.getContentType());
+            // shared by all attempts, so that retries can't create duplicate procs or documents
+            headers.putIfAbsent("Idempotency-Key", UUID.randomUUID().toString());
+            body = mpp;
         }
 
-        HttpURLConnection conn = Network.openConnection(verb, url, headers, pdfdata);
+        Transport.Body requestBody = body;
+        RateLimiter.Bucket bucket = verb == GET ? RateLimiter.Bucket.GET :
+                path.equals(ProcsRequest.base) ? RateLimiter.Bucket.PROC_CREATION : null;
+        return withRetries(bucket, body, waitsOnServer(verb, path, params), () -> {
+            try (Transport.Response resp = Network.send(verb, url, headers, requestBody, pdfdata)) {
+                return readResponse(resp, verb, url, params, headers, handler);
+            }
+        });
+    }
 
-        // send request body
-        if (verb == POST) {
-            MultipartProcessor mpp = new MultipartProcessor(conn, boundary, Network.CHARSET_NAME);
-            for (Map.Entry<String, Object> param : params.entrySet()) {
-                if (isOperationsList(param.getValue())) {
-                    mpp.addFormField(param.getKey(), JSON.to0(param.getValue()));
-                } else {
-                    for (Object v : (Collection) (param.getValue() instanceof Collection ?
-                            param.getValue() :
-                            Collections.singleton(param.getValue()))) {
-                        if (v == null) {
-                            // no op
-                        } else if (v instanceof String) {
-                            mpp.addFormField(param.getKey(), (String) v);
-                        } else if (v instanceof File) {
-                            mpp.addFileField(param.getKey(), (File) v);
-                        } else if (v instanceof Number) {
-                            mpp.addFormField(param.getKey(), v.toString());
-                        } else {
-                            throw new IllegalArgumentException(String.format(
-                                    "Illegal param value type %s provided for %s",
-                                    v.getClass().getName(), param.getKey()));
-                        }
-                    }
-                }
+    /**
+     * Returns true if the given request has PDFDATA.io hold it open until a proc completes (or
+     * a wait elapses): any with a nonzero {@code wait}, and proc creation, which waits by
+     * default.
+     */
+    private static boolean waitsOnServer (Network.Method verb, String path,
+                                          Map<String, Object> params) {
+        Object wait = params.get("wait");
+        if (wait != null) return !wait.toString().equals("0");
+        return verb == POST && path.equals(ProcsRequest.base);
+    }
+
+    private <T> T mapResponse (Transport.Response resp, TypeReference<T> resultType)
+            throws IOException {
+        if (!pdfdata.isCaptureResponseBodies()) {
+            // the common case: parse the response in one pass, straight off the wire
+            return pdfdata.json.from(resp.getBody(), resultType);
+        }
+
+        JsonNode body = pdfdata.json.from(resp.getBody(), JsonNode.class);
+        T response = pdfdata.json.from(body, resultType);
+        if (response instanceof List) {
+            List listResponse = (List)response;
+            for (int i = 0, len = listResponse.size(); i < len; i++) {
+                Object entity = listResponse.get(i);
+                ((ResponseEntity)entity).setResponseBody(body.get(i));
             }
-            mpp.finish();
+        } else if (response instanceof Collection) {
+            throw new IOException("Unexpected response type " + response.getClass());
+        } else if (response instanceof ResponseEntity) {
+            ((ResponseEntity)response).setResponseBody(body);
         }
 
-        // receive response
-        int status = conn.getResponseCode();
-        String contentType = String.valueOf(conn.getHeaderField("Content-Type"));
+        return response;
+    }
+
+    private <T> T readResponse (Transport.Response resp, Network.Method verb, URL url,
+                                Map<String, Object> params, Map<String, String> headers,
+                                ResponseHandler<T> handler) throws IOException {
+        int status = resp.getStatus();
+        String contentType = String.valueOf(resp.getHeader("Content-Type"));
         if (contentType.equals("application/json")) {
             if (status >= 200 && status < 300) {
-
-                InputStream is = conn.getInputStream();
-                JsonNode body = pdfdata.json.from(is, JsonNode.class);
-                T response = pdfdata.json.from(body, resultType);
-                if (response instanceof List) {
-                    List listResponse = (List)response;
-                    for (int i = 0, len = listResponse.size(); i < len; i++) {
-                        Object resp = listResponse.get(i);
-                        if (pdfdata.isCaptureResponseBodies()) {
-                            ((ResponseEntity)resp).setResponseBody(body.get(i));
-                        }
-                    }
-                } else if (response instanceof Collection) {
-                    throw new IOException("Unexpected response type " + response.getClass());
-                } else {
-                    if (pdfdata.isCaptureResponseBodies()) {
-                        ((ResponseEntity)response).setResponseBody(body);
-                    }
-                }
-
-                return response;
+                return handler.handle(resp);
             } else {
-                InputStream is = conn.getErrorStream();
-                throw new APIException(pdfdata.json.from(is, JsonNode.class),
+                throw new APIException(pdfdata.json.from(resp.getBody(), JsonNode.class),
                         status,
                         verb,
                         url,
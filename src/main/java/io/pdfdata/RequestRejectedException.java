@@ -0,0 +1,17 @@
+package io.pdfdata;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request is rejected before being sent, because an {@link API} instance's
+ * {@link ConcurrencyLimiter} is at its limit, its {@link CircuitBreaker} is open, or no
+ * {@link PooledTransport} connection became available in time. Such requests are never
+ * retried; callers should shed or defer the work instead.
+ *
+ * @publicapi
+ */
+public class RequestRejectedException extends IOException {
+    RequestRejectedException (String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,162 @@
+package io.pdfdata;
+
+import io.pdfdata.model.AResource;
+import io.pdfdata.model.Operation;
+import io.pdfdata.model.Proc;
+import io.pdfdata.model.ProcessedDocument;
+import io.pdfdata.model.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The outcome of {@link ProcsRequest#downloadResources(Proc, Path, int) downloading all of a
+ * proc's resources}: the file each resource was saved to, and the error that prevented each
+ * of the others from being saved.
+ *
+ * @publicapi
+ */
+public class ResourceDownloads {
+    /**
+     * Notified as each resource is saved or fails, on the thread that downloaded it.
+     */
+    public interface Listener {
+        void downloaded (String resourceID, Path file, int completed, int total);
+
+        void failed (String resourceID, IOException error, int completed, int total);
+    }
+
+    private static final Map<String, String> EXTENSIONS = new HashMap<>();
+    static {
+        EXTENSIONS.put("image/png", ".png");
+        EXTENSIONS.put("image/jpeg", ".jpg");
+        EXTENSIONS.put("image/gif", ".gif");
+        EXTENSIONS.put("image/tiff", ".tif");
+        EXTENSIONS.put("image/bmp", ".bmp");
+        EXTENSIONS.put("image/jp2", ".jp2");
+        EXTENSIONS.put("application/pdf", ".pdf");
+        EXTENSIONS.put("application/xml", ".xml");
+        EXTENSIONS.put("text/xml", ".xml");
+        EXTENSIONS.put("application/rdf+xml", ".xml");
+        EXTENSIONS.put("text/plain", ".txt");
+        EXTENSIONS.put("text/html", ".html");
+        EXTENSIONS.put("application/zip", ".zip");
+    }
+
+    private final Map<String, Path> files = new ConcurrentHashMap<>();
+    private final Map<String, IOException> failures = new ConcurrentHashMap<>();
+
+    private ResourceDownloads () {}
+
+    /**
+     * Returns the files that resources were saved to, by resource ID.
+     */
+    public Map<String, Path> getFiles () {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * Returns the errors that prevented resources from being saved, by resource ID.
+     */
+    public Map<String, IOException> getFailures () {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns true if every resource was saved.
+     */
+    public boolean isComplete () {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Returns the file extension (including the dot) conventionally used for the given MIME
+     * type, or {@code .bin}.
+     */
+    static String extension (String mimetype) {
+        if (mimetype == null) return ".bin";
+        int params = mimetype.indexOf(';');
+        String type = (params < 0 ? mimetype : mimetype.substring(0, params)).trim().toLowerCase();
+        return EXTENSIONS.getOrDefault(type, ".bin");
+    }
+
+    /**
+     * Returns the distinct resources of all of the given proc's results, by ID.
+     */
+    private static Map<String, Resource> resources (Proc proc) {
+        if (proc.getDocuments() == null) {
+            throw new IllegalArgumentException(String.format("Proc %s has no documents; only " +
+                    "completed procs' resources can be downloaded", proc.getID()));
+        }
+        Map<String, Resource> resources = new LinkedHashMap<>();
+        for (ProcessedDocument d : proc.getDocuments()) {
+            for (Operation.Result result : d.getResults()) {
+                if (result.getResources() == null) continue;
+                for (Map.Entry<String, AResource> r : result.getResources().entrySet()) {
+                    if (r.getValue() instanceof Resource) {
+                        resources.putIfAbsent(r.getKey(), (Resource) r.getValue());
+                    }
+                }
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Saves all of the given proc's resources to {@code dir}, with up to {@code parallelism}
+     * downloads running at once on the API's executor, blocking until all have been attempted.
+     */
+    static ResourceDownloads download (API pdfdata, Proc proc, Path dir, int parallelism,
+                                       Listener listener) throws IOException {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be positive");
+        Map<String, Resource> resources = resources(proc);
+        Files.createDirectories(dir);
+
+        ResourceDownloads downloads = new ResourceDownloads();
+        int total = resources.size();
+        AtomicInteger completed = new AtomicInteger();
+        // only a listener can throw
+        Util.drain(resources.entrySet(), parallelism, pdfdata.getExecutor(),
+                "downloading resources", r -> {
+            String id = r.getKey();
+            try {
+                Path file = save(r.getValue(), dir.resolve(id +
+                        extension(r.getValue().getMimetype())));
+                downloads.files.put(id, file);
+                if (listener != null) {
+                    listener.downloaded(id, file, completed.incrementAndGet(), total);
+                }
+            } catch (IOException e) {
+                downloads.failures.put(id, e);
+                if (listener != null) listener.failed(id, e, completed.incrementAndGet(), total);
+            }
+        });
+        return downloads;
+    }
+
+    /**
+     * Downloads the given resource to a temporary file alongside {@code file}, and moves it into
+     * place once complete.
+     */
+    private static Path save (Resource resource, Path file) throws IOException {
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".part");
+        try {
+            try (InputStream in = resource.get()) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.pdfdata;
+
+import io.pdfdata.model.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+/**
+ * A local, persistent store of {@link Resource} data. When
+ * {@link API#setResourceStore(ResourceStore) set on an API}, each resource retrieved via
+ * {@link Resource#get()} or {@link ResourcesRequest} is downloaded to a file in the store's
+ * directory (in full, before being returned), and read from there when retrieved again.
+ *
+ * Resources are stored by their IDs (which PDFDATA.io derives from their contents, so that the
+ * same image or attachment extracted by different procs is only stored once) and URL query.
+ * Once the files exceed the store's size bound, those least recently used are deleted. The
+ * store may be reopened by later processes, but must not be used by more than one at a time.
+ *
+ * @publicapi
+ */
+public class ResourceStore {
+    private static final Pattern RESOURCE_ID = Pattern.compile("rsrc_[A-Za-z0-9]+");
+
+    private final DiskStore store;
+
+    /**
+     * Opens (or creates) a store in the given directory, holding up to {@code maxBytes} of
+     * resource data.
+     */
+    public ResourceStore (Path directory, long maxBytes) throws IOException {
+        store = new DiskStore(directory, ".bin", maxBytes);
+    }
+
+    /**
+     * Returns the key under which the resource at the given URL is stored: its ID where the URL
+     * has one, qualified by the hash of any query.
+     */
+    static String key (URL url) {
+        String path = url.getPath();
+        String id = path.substring(path.lastIndexOf('/') + 1);
+        if (!RESOURCE_ID.matcher(id).matches()) return Util.sha1(url.toExternalForm());
+        return url.getQuery() == null ? id : id + "_" + Util.sha1(url.getQuery());
+    }
+
+    /**
+     * Returns the stored data of the resource at the given URL, first downloading it (via
+     * {@code download}) if it is not yet stored.
+     */
+    InputStream get (URL url, Request.Call<InputStream> download) throws IOException {
+        String key = key(url);
+        InputStream stored = store.open(key);
+        if (stored != null) return stored;
+
+        Path tmp = store.newTempFile();
+        try {
+            try (InputStream in = download.call()) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            store.commit(key, tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        stored = store.open(key);
+        // only if evicted by a concurrent store of a larger resource
+        return stored != null ? stored : download.call();
+    }
+
+    /**
+     * Returns the number of resources stored.
+     */
+    public int size () {
+        return store.size();
+    }
+
+    /**
+     * Returns the total size of the stored resources.
+     */
+    public long getSizeBytes () {
+        return store.sizeBytes();
+    }
+
+    /**
+     * Deletes all stored resources.
+     */
+    public void clear () {
+        store.clear();
+    }
+}
@@ -6,6 +6,10 @@ import io.pdfdata.model.ResourcefulEntity;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * API request facility providing access to the binary data contents of PDFDATA.io
@@ -16,17 +20,65 @@ import java.net.URL;
  * @publicapi
  */
 public class ResourcesRequest extends Request {
+    /**
+     * The size of the ranges that {@link #saveTo(URL, Path)} downloads resources in.
+     */
+    public static final long DEFAULT_RANGE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The number of ranges that {@link #saveTo(URL, Path)} downloads at once.
+     */
+    public static final int DEFAULT_RANGE_PARALLELISM = 4;
+
     ResourcesRequest (API pdfdata) {
         super(pdfdata);
     }
 
     /**
      * Retrieves a {@link Resource}'s binary data from the PDFDATA.io API, given its
-     * {@link Resource#getUrl() URL}.
+     * {@link Resource#getUrl() URL}, or from the API's {@link ResourceStore} if it has one.
      */
     public InputStream byURL(URL url) throws IOException {
-        return doStreamGet(url.getPath() +
+        ResourceStore store = pdfdata.getResourceStore();
+        Call<InputStream> download = () -> doStreamGet(url.getPath() +
                 (url.getQuery() == null ? "" : "?" + url.getQuery()));
+        return store == null ? download.call() : store.get(url, download);
+    }
+
+    /**
+     * Saves a {@link Resource}'s binary data to the given file, with the same defaults as
+     * {@link #saveTo(URL, Path, long, int)}.
+     */
+    public Path saveTo (URL url, Path file) throws IOException {
+        return saveTo(url, file, DEFAULT_RANGE_SIZE, DEFAULT_RANGE_PARALLELISM);
+    }
+
+    /**
+     * Saves a {@link Resource}'s binary data to the given file, downloading it in ranges of
+     * {@code rangeSize} bytes, up to {@code parallelism} at a time on the
+     * {@link API#getExecutor() API's executor}. The data is written to {@code <file>.part}
+     * and moved into place once complete. If the download fails, the ranges completed so far
+     * are kept, and saving the same resource to the same file again (with the same range
+     * size) resumes from them.
+     *
+     * If the API has a {@link ResourceStore}, the data is copied from it instead (having
+     * been downloaded into it in one piece, as by {@link #byURL(URL)}, if necessary), so
+     * {@code rangeSize} and {@code parallelism} don't apply, and a failed download isn't
+     * resumed. It's still written to {@code <file>.part} and moved into place once complete.
+     */
+    public Path saveTo (URL url, Path file, long rangeSize, int parallelism) throws IOException {
+        if (pdfdata.getResourceStore() == null) {
+            return new RangeDownload(this, url, file, rangeSize, parallelism).run();
+        }
+        Path target = file.toAbsolutePath();
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        if (target.getParent() != null) Files.createDirectories(target.getParent());
+        try (InputStream in = byURL(url)) {
+            Files.copy(in, part, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return target;
     }
 
     /**
@@ -36,4 +88,21 @@ public class ResourcesRequest extends Request {
     public InputStream byID (String resourceID) throws IOException {
         return byURL(new URL(pdfdata.getEndpoint(), "resources/" + resourceID));
     }
+
+    /**
+     * Asynchronous variant of {@link #byURL(URL)}, run on the
+     * {@link API#getExecutor() API's executor}. The future completes once the response
+     * headers have been received; reading the returned stream may still block.
+     */
+    public CompletableFuture<InputStream> byURLAsync (URL url) {
+        return async(RateLimiter.Bucket.GET, 1, () -> byURL(url));
+    }
+
+    /**
+     * Asynchronous variant of {@link #byID(String)}, with the same caveat as
+     * {@link #byURLAsync(URL)}.
+     */
+    public CompletableFuture<InputStream> byIDAsync (String resourceID) {
+        return async(RateLimiter.Bucket.GET, 1, () -> byID(resourceID));
+    }
 }
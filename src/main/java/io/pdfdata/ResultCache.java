@@ -0,0 +1,136 @@
+package io.pdfdata;
+
+import io.pdfdata.model.Operation;
+import io.pdfdata.model.ProcessedDocument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local, persistent cache of {@link ProcessedDocument}s, i.e. of the results of applying a
+ * list of {@link Operation}s to a document, keyed by the SHA-1 hash of the document's contents
+ * and the operations' canonical JSON form. When {@link API#setResultCache(ResultCache) set on
+ * an API}, {@link ProcsRequest.ProcCreationBuilder#start() starting a proc} on documents
+ * whose results are cached only sends the others to PDFDATA.io, and the results of all
+ * completed procs retrieved are cached. The cache remembers which cached results each of the
+ * (most recent 10,000) procs started this way was started with, so that they're added to the
+ * proc whenever it's retrieved once complete, even if it was still pending when started. (If
+ * they've been evicted from the cache by then, those documents are processed again.)
+ *
+ * Results are stored gzipped, one file per document, in the given directory. Once the files
+ * exceed the cache's size bound, those least recently used are deleted. The cache may be
+ * reopened by later processes, but must not be used by more than one at a time.
+ *
+ * Note that the cached results' {@link io.pdfdata.model.Resource}s are not cached (see
+ * {@link ResourceStore} for that); they remain retrievable from PDFDATA.io only as long as it
+ * retains them.
+ *
+ * @publicapi
+ */
+public class ResultCache {
+    private static final int MAX_PROCS = 10000;
+
+    private final DiskStore store;
+    /** the content hashes of the cached documents each proc was started with, by proc ID */
+    private final Map<String, List<String>> procDocuments = Collections.synchronizedMap(
+            new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry (Map.Entry<String, List<String>> eldest) {
+                    return size() > MAX_PROCS;
+                }
+            });
+
+    /**
+     * Opens (or creates) a cache in the given directory, holding up to {@code maxBytes} of
+     * compressed results.
+     */
+    public ResultCache (Path directory, long maxBytes) throws IOException {
+        store = new DiskStore(directory, ".json.gz", maxBytes);
+    }
+
+    /**
+     * Returns the key under which the results of applying the given operations to the
+     * document with the given content hash are cached.
+     */
+    static String key (String contentHash, List<Operation> operations) throws IOException {
+        return Util.sha1(contentHash + "\n" + JSON.to0(operations));
+    }
+
+    /**
+     * Returns the (uncompressed) JSON of the cached document, or null.
+     */
+    byte[] get (String key) {
+        InputStream file = store.open(key);
+        if (file == null) return null;
+        try (InputStream in = new GZIPInputStream(file)) {
+            return Util.readBytes(in);
+        } catch (IOException e) {
+            // corrupt; treat it as a miss
+            store.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Caches the given document JSON, evicting the least recently used entries as necessary.
+     */
+    void put (String key, byte[] json) throws IOException {
+        Path tmp = store.newTempFile();
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                out.write(json);
+            }
+            store.commit(key, tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Records that the proc with the given ID was started with the cached results of the
+     * documents with the given content hashes.
+     */
+    void putProcDocuments (String procID, List<String> hashes) {
+        procDocuments.put(procID, Collections.unmodifiableList(new ArrayList<>(hashes)));
+    }
+
+    /**
+     * Returns the content hashes of the documents whose cached results the proc with the given
+     * ID was started with.
+     */
+    List<String> getProcDocuments (String procID) {
+        List<String> hashes = procID == null ? null : procDocuments.get(procID);
+        return hashes == null ? Collections.emptyList() : hashes;
+    }
+
+    /**
+     * Returns the number of documents' results cached.
+     */
+    public int size () {
+        return store.size();
+    }
+
+    /**
+     * Returns the total size of the cached results, as stored.
+     */
+    public long getSizeBytes () {
+        return store.sizeBytes();
+    }
+
+    /**
+     * Deletes all cached results.
+     */
+    public void clear () {
+        store.clear();
+    }
+}
@@ -0,0 +1,207 @@
+package io.pdfdata;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.FileSystemException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Determines whether and when failed requests are retried. {@link API} instances don't retry
+ * failed requests unless configured with a policy other than {@link #NONE}; with one, they retry
+ * requests that fail in transit (e.g. with a refused or reset connection, a timeout, or a
+ * truncated response), or with an {@link APIException} whose
+ * {@link APIException#getResponseStatus() response status} is one of the policy's retryable
+ * statuses (by default: 408, 429, 502, 503, and 504). Failures that would only recur, such as a
+ * response that can't be mapped or a file to upload that can't be read, are never retried.
+ *
+ * Retries are delayed using exponential backoff with "full jitter": the delay before retry
+ * {@code n} is chosen uniformly at random between zero and
+ * {@code min(maxBackoff, initialBackoff * 2^(n-1))}, so that clients recovering from the same
+ * outage don't retry in lockstep.
+ *
+ * Each {@code API} instance also maintains a retry budget, which stops retries altogether when
+ * most recent requests are failing, so that retries can't multiply the load on an already
+ * overloaded service. Every failed attempt costs one token, every successful request earns
+ * {@link #withRetryBudget(int, double) tokenRatio} tokens (up to {@code maxTokens}), and
+ * retries are only attempted while more than half of {@code maxTokens} remain.
+ *
+ * POST requests (creating procs and uploading documents) are sent with an automatically
+ * generated {@code Idempotency-Key} header, reused by all attempts of the same request, so they
+ * can be retried without creating duplicate procs or documents. Requests whose bodies can only
+ * be sent once (see {@link DocumentSource#isRepeatable()}) are never retried.
+ *
+ * {@code RetryPolicy} instances are immutable; use the {@code with*} methods to derive
+ * variations of {@link #DEFAULT}, and configure them via {@link API#setRetryPolicy(RetryPolicy)}:
+ *
+ * <pre>pdfdata.setRetryPolicy(RetryPolicy.DEFAULT
+ *     .withMaxAttempts(5)
+ *     .withBackoff(Duration.ofMillis(200), Duration.ofSeconds(10)));</pre>
+ *
+ * @publicapi
+ */
+public class RetryPolicy {
+    /**
+     * The default settings for retrying requests, once enabled: up to 3 attempts, with backoff
+     * starting at 500ms and capped at 8s, and a retry budget of 10 tokens earning 0.1 tokens per
+     * successful request.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, Duration.ofMillis(500),
+            Duration.ofSeconds(8), 10, 0.1, setOf(408, 429, 502, 503, 504));
+
+    /**
+     * A policy that never retries failed requests; the policy of {@link API} instances unless
+     * otherwise configured.
+     */
+    public static final RetryPolicy NONE = DEFAULT.withMaxAttempts(1);
+
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final int maxTokens;
+    private final double tokenRatio;
+    private final Set<Integer> retryableStatuses;
+
+    private RetryPolicy (int maxAttempts, Duration initialBackoff, Duration maxBackoff,
+                         int maxTokens, double tokenRatio, Set<Integer> retryableStatuses) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.maxTokens = maxTokens;
+        this.tokenRatio = tokenRatio;
+        this.retryableStatuses = retryableStatuses;
+    }
+
+    private static Set<Integer> setOf (Integer... statuses) {
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(statuses)));
+    }
+
+    public int getMaxAttempts () {
+        return maxAttempts;
+    }
+
+    public Duration getInitialBackoff () {
+        return initialBackoff;
+    }
+
+    public Duration getMaxBackoff () {
+        return maxBackoff;
+    }
+
+    public Set<Integer> getRetryableStatuses () {
+        return retryableStatuses;
+    }
+
+    /**
+     * @param maxAttempts the maximum number of times a request will be attempted, including the
+     *                    first; 1 disables retries
+     */
+    public RetryPolicy withMaxAttempts (int maxAttempts) {
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be at least 1");
+        return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, maxTokens, tokenRatio,
+                retryableStatuses);
+    }
+
+    public RetryPolicy withBackoff (Duration initialBackoff, Duration maxBackoff) {
+        if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException(String.format("Invalid backoff range: %s - %s",
+                    initialBackoff, maxBackoff));
+        }
+        return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, maxTokens, tokenRatio,
+                retryableStatuses);
+    }
+
+    /**
+     * @param maxTokens the size of the retry budget
+     * @param tokenRatio the number of tokens each successful request returns to the budget
+     */
+    public RetryPolicy withRetryBudget (int maxTokens, double tokenRatio) {
+        if (maxTokens < 1 || tokenRatio <= 0) {
+            throw new IllegalArgumentException("maxTokens and tokenRatio must be positive");
+        }
+        return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, maxTokens, tokenRatio,
+                retryableStatuses);
+    }
+
+    public RetryPolicy withRetryableStatuses (Integer... statuses) {
+        return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, maxTokens, tokenRatio,
+                setOf(statuses));
+    }
+
+    /**
+     * Returns true if a request that failed with the given exception may be retried.
+     */
+    public boolean isRetryable (IOException e) {
+        if (e instanceof RequestRejectedException) {
+            return false;
+        } else if (e instanceof APIException) {
+            return retryableStatuses.contains(((APIException) e).getResponseStatus());
+        } else if (isDeterministic(e)) {
+            return false;
+        }
+        // a thread interrupt (e.g. a cancelled async request), as opposed to a timeout
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Returns true if the given exception is from a failure that another attempt would meet
+     * again: an unmappable response, a local file that can't be read, or a response that isn't
+     * what the request asked for.
+     */
+    private static boolean isDeterministic (IOException e) {
+        return e instanceof JsonProcessingException || e instanceof CharacterCodingException ||
+                e instanceof FileNotFoundException || e instanceof FileSystemException ||
+                e instanceof ProtocolException;
+    }
+
+    /**
+     * Returns a randomized delay in milliseconds to wait before the given retry (1 being the
+     * first retry).
+     */
+    long backoffMillis (int retry) {
+        long ceiling = initialBackoff.toMillis() << Math.min(retry - 1, 30);
+        if (ceiling <= 0 || ceiling > maxBackoff.toMillis()) ceiling = maxBackoff.toMillis();
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    Budget newBudget () {
+        return new Budget(maxTokens, tokenRatio);
+    }
+
+    /**
+     * The mutable retry budget state of a single {@link API} instance.
+     */
+    static final class Budget {
+        private final int maxTokens;
+        private final double tokenRatio;
+        private double tokens;
+
+        Budget (int maxTokens, double tokenRatio) {
+            this.maxTokens = maxTokens;
+            this.tokenRatio = tokenRatio;
+            this.tokens = maxTokens;
+        }
+
+        synchronized void onSuccess () {
+            tokens = Math.min(maxTokens, tokens + tokenRatio);
+        }
+
+        /**
+         * Records a failed attempt, returning true if a retry is permitted.
+         */
+        synchronized boolean onFailure () {
+            tokens = Math.max(0, tokens - 1);
+            return tokens > maxTokens / 2.0;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.pdfdata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The HTTP transport through which an {@link API} instance sends all of its requests to
+ * PDFDATA.io.
+ *
+ * By default, all {@code API} instances share a single {@link PooledTransport}, which keeps
+ * persistent connections to the API endpoint alive between requests. You can plug in your own
+ * implementation (e.g. one backed by an HTTP client library your application already uses) via
+ * {@link API#setTransport(Transport)}; {@link HttpURLConnectionTransport} is provided as an
+ * alternative that delegates to the JDK's {@link java.net.HttpURLConnection}.
+ *
+ * Implementations must be safe for concurrent use by multiple threads.
+ *
+ * @publicapi
+ */
+public interface Transport {
+    /**
+     * Sends a single HTTP request, returning the response once its status line and headers
+     * have been received. The caller is responsible for {@link Response#close() closing} the
+     * response.
+     *
+     * @param method the HTTP method, e.g. {@code GET} or {@code POST}
+     * @param headers all headers to send with the request, including authorization
+     * @param body the request body, or null if the request has none
+     * @param connectTimeout the connect timeout, in milliseconds
+     * @param readTimeout the read timeout, in milliseconds
+     */
+    Response send (String method, URL url, Map<String, String> headers, Body body,
+                   int connectTimeout, int readTimeout) throws IOException;
+
+    /**
+     * A request body, written to the transport on demand.
+     */
+    interface Body {
+        /**
+         * Returns the exact number of bytes {@link #writeTo(OutputStream)} will write, or -1
+         * if that is not known ahead of time.
+         */
+        long getContentLength ();
+
+        void writeTo (OutputStream out) throws IOException;
+
+        /**
+         * Returns true if {@link #writeTo(OutputStream)} may be called more than once, e.g. to
+         * resend the body over a new connection after a failure.
+         */
+        default boolean isRepeatable () {
+            return true;
+        }
+    }
+
+    /**
+     * A response to a request sent via {@link Transport#send}. Closing a response releases
+     * any underlying connection (possibly for reuse by subsequent requests).
+     */
+    interface Response extends Closeable {
+        int getStatus ();
+
+        /**
+         * Returns the value of the named response header (matched case-insensitively), or null.
+         */
+        String getHeader (String name);
+
+        /**
+         * Returns the response body. Reading it to its end or closing it releases the response.
+         */
+        InputStream getBody () throws IOException;
+    }
+}
@@ -1,10 +1,21 @@
 package io.pdfdata;
 
-import sun.misc.IOUtils;
-
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * @nodoc
@@ -41,13 +52,99 @@ public class Util {
         return m;
     }
 
+    /**
+     * Returns the {@link IOException} that caused the given exception (thrown by e.g.
+     * {@link java.util.concurrent.CompletableFuture#join()}), rethrowing unchecked causes as-is.
+     */
+    static IOException unwrap (CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) return (IOException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return new IOException(cause);
+    }
+
+    /**
+     * Blocks until all of the given futures have completed, throwing the first failure.
+     */
+    static void await (List<? extends CompletableFuture<?>> futures)
+            throws InterruptedException, ExecutionException {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+    }
+
+    /**
+     * Applies {@code task} to each of the given items, up to {@code parallelism} at a time,
+     * blocking until all have been. A fixed number of workers draining a shared queue bounds the
+     * parallelism without tying up more executor threads than that. The calling thread is one
+     * of the workers, so the items are all handled even if none of the executor's threads are
+     * free (as when they're all running calls like this one). Once the task throws, the
+     * remaining items are skipped, and what it threw is rethrown once the other workers have
+     * finished. If interrupted, the items not yet started are abandoned and an
+     * {@link InterruptedIOException} is thrown, "Interrupted while {@code doing}".
+     */
+    static <T> void drain (Collection<T> items, int parallelism, Executor executor,
+                           String doing, Consumer<? super T> task) throws IOException {
+        ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>(items);
+        CountDownLatch done = new CountDownLatch(items.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            for (T item; (item = queue.poll()) != null; done.countDown()) {
+                if (failure.get() != null || Thread.currentThread().isInterrupted()) continue;
+                try {
+                    task.accept(item);
+                } catch (RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+        for (int i = 1; i < Math.min(parallelism, items.size()); i++) executor.execute(worker);
+        worker.run();
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            queue.clear();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while " + doing);
+        }
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException) throw (RuntimeException) e;
+        if (e instanceof Error) throw (Error) e;
+    }
+
+    /**
+     * Returns the hex-encoded SHA-1 hash of the given string's UTF-8 encoding.
+     */
+    static String sha1 (String s) {
+        try {
+            StringBuilder sb = new StringBuilder(40);
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(
+                    s.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the given stream to its end, without closing it.
+     */
     public static byte[] readBytes(InputStream in) throws IOException {
-        return IOUtils.readFully(in, -1, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) != -1; ) out.write(buffer, 0, n);
+        return out.toByteArray();
     }
 
+    /**
+     * Reads the given stream to its end as UTF-8, and closes it.
+     */
     public static String readString(InputStream input) throws IOException {
         try (InputStream is = input) {
-            return new Scanner(is, Network.CHARSET_NAME).useDelimiter("\\A").next();
+            return new String(readBytes(is), Network.CHARSET);
         }
     }
 }
@@ -1,10 +1,11 @@
 package io.pdfdata.model;
 
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.ObjectCodec;
-import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.IOException;
 
@@ -20,20 +21,28 @@ public abstract class AResource extends Entity {
 
         public AResource deserialize(JsonParser jp, DeserializationContext deserializationContext)
                 throws IOException {
-            ObjectReader reader;
-            ObjectCodec codec = jp.getCodec();
-            if (codec instanceof ObjectReader) {
-                reader = (ObjectReader) codec;
-            } else {
-                reader = ((ObjectMapper)codec).reader().with(deserializationContext.getConfig());
+            if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+                throw deserializationContext.mappingException(AResource.class);
             }
-
-            JsonNode k = reader.readTree(jp);
-            if (k.has("dimensions")) {
-                return reader.treeToValue(k, BitmapResource.class);
-            } else {
-                return reader.treeToValue(k, Resource.class);
+            // the type of resource is only known once we've seen whether it has dimensions, so
+            // buffer its tokens (much cheaper than building a tree) while looking for them
+            TokenBuffer buffer = new TokenBuffer(jp, deserializationContext);
+            boolean bitmap = false;
+            buffer.writeStartObject();
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.getCurrentName();
+                bitmap |= field.equals("dimensions");
+                buffer.writeFieldName(field);
+                jp.nextToken();
+                buffer.copyCurrentStructure(jp);
             }
+            buffer.writeEndObject();
+
+            // mapped within the same context, so that the resource is bound to the same API
+            JsonParser tokens = buffer.asParser(jp);
+            tokens.nextToken();
+            Class<? extends AResource> type = bitmap ? BitmapResource.class : Resource.class;
+            return deserializationContext.readValue(tokens, type);
         }
     }
 }
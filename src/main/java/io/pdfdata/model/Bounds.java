@@ -2,8 +2,8 @@ package io.pdfdata.model;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -80,12 +80,17 @@ public class Bounds extends Entity {
 
         public Bounds deserialize(JsonParser jp, DeserializationContext deserializationContext)
                 throws IOException {
-            JsonNode array = jp.getCodec().readTree(jp);
-            if (array.isArray() && array.size() == 4) {
-                return new Bounds(array.get(0).doubleValue(),
-                        array.get(1).doubleValue(),
-                        array.get(2).doubleValue(),
-                        array.get(3).doubleValue());
+            // read straight off the token stream, as there are many of these in a typical result
+            if (jp.isExpectedStartArrayToken()) {
+                double[] coords = new double[4];
+                int n = 0;
+                JsonToken t;
+                while ((t = jp.nextToken()) != null && t.isNumeric() && n < 4) {
+                    coords[n++] = jp.getDoubleValue();
+                }
+                if (n == 4 && t == JsonToken.END_ARRAY) {
+                    return new Bounds(coords[0], coords[1], coords[2], coords[3]);
+                }
             }
             throw new IOException("Invalid bounds data, must be array of 4 numbers");
         }
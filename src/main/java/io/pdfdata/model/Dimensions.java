@@ -1,8 +1,8 @@
 package io.pdfdata.model;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 
@@ -56,9 +56,14 @@ public class Dimensions extends Entity {
         }
 
         public Dimensions deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
-            JsonNode array = jp.getCodec().readTree(jp);
-            if (array.isArray() && array.size() == 2) {
-                return new Dimensions(array.get(0).asInt(), array.get(1).asInt());
+            if (jp.isExpectedStartArrayToken()) {
+                int[] dims = new int[2];
+                int n = 0;
+                JsonToken t;
+                while ((t = jp.nextToken()) != null && t.isNumeric() && n < 2) {
+                    dims[n++] = jp.getValueAsInt();
+                }
+                if (n == 2 && t == JsonToken.END_ARRAY) return new Dimensions(dims[0], dims[1]);
             }
             throw new IOException("Invalid dimensions data, must be array of 2 integers");
         }
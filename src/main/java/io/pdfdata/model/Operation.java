@@ -66,7 +66,7 @@ public class Operation extends Entity {
                 Collections.unmodifiableMap(new HashMap<>());
 
         private String op;
-        @JsonBackReference
+        @JsonIgnore
         private ProcessedDocument document;
         private boolean failure;
         private Map<String, AResource> resources = EMPTY_RESOURCES;
@@ -108,6 +108,10 @@ public class Operation extends Entity {
             return document;
         }
 
+        void setDocument (ProcessedDocument document) {
+            this.document = document;
+        }
+
         /**
          * @nodoc
          */
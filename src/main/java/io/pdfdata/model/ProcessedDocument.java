@@ -1,6 +1,7 @@
 package io.pdfdata.model;
 
-import com.fasterxml.jackson.annotation.JsonManagedReference;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 import java.util.List;
 
@@ -24,9 +25,23 @@ public class ProcessedDocument extends Document {
      * operations configured at proc-creation time to this document.
      * Note that these results are guaranteed to be in the same order as their corresponding
      * {@link Operation}s {@link Proc#getOperations() as indicated by the proc}.
+     *
+     * If {@link io.pdfdata.API#setLazyResults(boolean) lazy results} were enabled when this
+     * document was retrieved, each result is only decoded when first obtained from the returned
+     * list; an error decoding it is then thrown as an {@link java.io.UncheckedIOException}.
      */
-    @JsonManagedReference
     public List<Operation.Result> getResults() {
         return results;
     }
+
+    @JsonProperty("results")
+    @JsonDeserialize(using = ResultsDeserializer.class)
+    private void setResults (List<Operation.Result> results) {
+        this.results = results;
+        if (results instanceof ResultsDeserializer.LazyList) {
+            ((ResultsDeserializer.LazyList) results).setDocument(this);
+        } else if (results != null) {
+            for (Operation.Result r : results) r.setDocument(this);
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package io.pdfdata.model;
 
+import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.DeserializationContext;
@@ -11,6 +12,7 @@ import io.pdfdata.JSON;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Path;
 
 /**
  * Base class for binary data resources produced by some {@link Operation}s.
@@ -25,11 +27,8 @@ public class Resource extends AResource {
     private String mimetype;
 
     @JsonIgnore
-    private final API pdfdata;
-
-    {
-        pdfdata = JSON.currentAPI();
-    }
+    @JacksonInject
+    private API pdfdata;
 
     /**
      * Returns the API URL by which this resource's data may be retrieved. Generally, you'll want
@@ -53,6 +52,16 @@ public class Resource extends AResource {
         return pdfdata.resources().byURL(url);
     }
 
+    /**
+     * Saves this resource's data to the given file, downloading it in parallel ranges and
+     * resuming an earlier, interrupted save to the same file.
+     *
+     * @see io.pdfdata.ResourcesRequest#saveTo(URL, Path, long, int)
+     */
+    public Path saveTo (Path file) throws IOException {
+        return pdfdata.resources().saveTo(url, file);
+    }
+
     private static class ServiceRelativeURLDeserializer extends StdDeserializer<URL> {
         public ServiceRelativeURLDeserializer () {
             super(URL.class);
@@ -60,7 +69,7 @@ public class Resource extends AResource {
 
         @Override
         public URL deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            return new URL(JSON.currentAPI().getEndpoint(), p.getText());
+            return new URL(JSON.api(ctxt).getEndpoint(), p.getText());
         }
     }
 }
@@ -0,0 +1,114 @@
+package io.pdfdata.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import io.pdfdata.JSON;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Deserializes {@link ProcessedDocument#getResults()}, either eagerly (the default), or, when
+ * {@link io.pdfdata.API#setLazyResults(boolean) lazy results} are enabled, into a
+ * {@link LazyList} that holds each result as JSON until it is first accessed.
+ *
+ * The JSON held isn't a slice of the response: the response may be parsed straight off the
+ * connection, whose bytes are gone once read, so each result's tokens are copied (via
+ * {@link JsonGenerator#copyCurrentStructure(JsonParser)}) into a compact UTF-8 buffer of its
+ * own. Every token of the response is still read; lazy results only defer mapping them to
+ * objects.
+ */
+class ResultsDeserializer extends StdDeserializer<List<Operation.Result>> {
+    private static final TypeReference<List<Operation.Result>> TYPEREF =
+            new TypeReference<List<Operation.Result>>() {};
+
+    ResultsDeserializer () {
+        super(List.class);
+    }
+
+    @Override
+    public List<Operation.Result> deserialize (JsonParser p, DeserializationContext ctxt)
+            throws IOException {
+        if (!JSON.api(ctxt).isLazyResults()) {
+            JavaType type = ctxt.getTypeFactory().constructType(TYPEREF);
+            return ctxt.readValue(p, type);
+        }
+
+        if (p.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw ctxt.mappingException(List.class);
+        }
+        List<byte[]> raw = new ArrayList<>();
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            buf.reset();
+            try (JsonGenerator gen = p.getCodec().getFactory().createGenerator(buf)) {
+                gen.copyCurrentStructure(p);
+            }
+            raw.add(buf.toByteArray());
+        }
+        return new LazyList(JSON.of(ctxt), raw);
+    }
+
+    /**
+     * An immutable list of results, each kept as compact UTF-8 JSON and decoded (and its
+     * resources registered) on first access. Concurrent first accesses of the same
+     * result may each decode it, but all callers see the same instance.
+     */
+    static final class LazyList extends AbstractList<Operation.Result> implements RandomAccess {
+        private final JSON json;
+        private final AtomicReferenceArray<byte[]> raw;
+        private final AtomicReferenceArray<Operation.Result> decoded;
+        private volatile ProcessedDocument document;
+
+        LazyList (JSON json, List<byte[]> raw) {
+            this.json = json;
+            this.raw = new AtomicReferenceArray<>(raw.toArray(new byte[raw.size()][]));
+            this.decoded = new AtomicReferenceArray<>(raw.size());
+        }
+
+        void setDocument (ProcessedDocument document) {
+            this.document = document;
+        }
+
+        @Override
+        public Operation.Result get (int index) {
+            Operation.Result result = decoded.get(index);
+            if (result != null) return result;
+
+            byte[] data = raw.get(index);
+            // another thread has just decoded this result and released its JSON
+            if (data == null) return decoded.get(index);
+
+            try {
+                result = json.from(new ByteArrayInputStream(data), Operation.Result.class);
+                result.setDocument(document);
+                result.registerResources();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if (decoded.compareAndSet(index, null, result)) {
+                raw.set(index, null);
+                return result;
+            }
+            return decoded.get(index);
+        }
+
+        @Override
+        public int size () {
+            return raw.length();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Base for tests against a local stand-in for PDFDATA.io, an {@link HttpServer} that's started
+ * before each test and stopped after it.
+ */
+public abstract class LocalServerTestCase extends BaseAPITestCase {
+    /**
+     * Matches each field of a multipart request body (as decoded by {@link #requestBody}),
+     * capturing its name, its filename (if any), and its value.
+     */
+    protected static final Pattern FIELD = Pattern.compile(
+            "Content-Disposition: form-data; name=\"([^\"]+)\"(?:; filename=\"([^\"]+)\")?\r\n" +
+                    "(?:[^\r\n]+\r\n)*\r\n(.*?)\r\n--", Pattern.DOTALL);
+
+    protected HttpServer server;
+
+    public void setUp () throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        configureServer(server);
+        server.start();
+    }
+
+    public void tearDown () throws IOException {
+        server.stop(0);
+    }
+
+    /**
+     * Adds the server's contexts (and sets its executor, if need be) before it's started.
+     */
+    protected abstract void configureServer (HttpServer server);
+
+    /**
+     * Returns the local server's API endpoint.
+     */
+    protected URL endpoint () throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/v1/");
+    }
+
+    /**
+     * Returns a client of the local server that doesn't retry failed requests, so that each
+     * request the server sees is one the test made.
+     */
+    protected API localAPI () throws IOException {
+        return localAPI(RetryPolicy.NONE);
+    }
+
+    /**
+     * Returns a client of the local server that retries failed requests per the given policy.
+     */
+    protected API localAPI (RetryPolicy retryPolicy) throws IOException {
+        API api = new API("test_key", endpoint());
+        api.setRetryPolicy(retryPolicy);
+        return api;
+    }
+
+    /**
+     * Reads the whole body of a request, decoded as ISO-8859-1 so as to preserve its bytes.
+     */
+    protected static String requestBody (HttpExchange ex) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        try (InputStream in = ex.getRequestBody()) {
+            for (int n; (n = in.read(buf)) != -1; ) body.write(buf, 0, n);
+        }
+        return new String(body.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    protected static void respond (HttpExchange ex, int status, String json) throws IOException {
+        respond(ex, status, json.getBytes(Network.CHARSET));
+    }
+
+    protected static void respond (HttpExchange ex, int status, byte[] json) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, json.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(json);
+        }
+    }
+}
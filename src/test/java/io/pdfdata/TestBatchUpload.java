@@ -0,0 +1,143 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.pdfdata.model.Document;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+
+public class TestBatchUpload extends LocalServerTestCase {
+    /** the filenames of each batch uploaded */
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    protected void configureServer (HttpServer server) {
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/documents", this::documents);
+    }
+
+    private void documents (HttpExchange ex) throws IOException {
+        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+        try {
+            Matcher m = FIELD.matcher(requestBody(ex));
+            List<String> names = new ArrayList<>();
+            List<String> docs = new ArrayList<>();
+            boolean fail = false;
+            while (m.find()) {
+                if (!m.group(1).equals("file")) continue;
+                names.add(m.group(2));
+                fail |= m.group(3).startsWith("FAIL");
+                docs.add(String.format("{\"id\":\"doc_%s\",\"filename\":\"%s\",\"tags\":[]," +
+                        "\"created\":\"2016-06-15T19:19:19Z\",\"expires\":" +
+                        "\"2016-06-16T19:19:19Z\",\"pagecount\":1}", m.group(2), m.group(2)));
+            }
+            batches.add(names);
+            // give other batches the chance to overlap
+            Thread.sleep(50);
+
+            byte[] response = (fail ? "{\"error\":\"unreadable PDF\"}" :
+                    "[" + String.join(",", docs) + "]").getBytes(Network.CHARSET);
+            respond(ex, fail ? 400 : 200, response);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            concurrent.decrementAndGet();
+        }
+    }
+
+    private static DocumentSource source (String name, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) 'x');
+        return DocumentSource.of(name, data);
+    }
+
+    private static long bytes (int[] batch, long[] lengths) {
+        long total = 0;
+        for (int i : batch) total += lengths[i];
+        return total;
+    }
+
+    public void testPlanRespectsLimits () {
+        long[] lengths = {900, 100, 400, 600, 300, 700, 200, 800, 500, 1000};
+        List<int[]> plan = BatchUpload.plan(lengths, 2000, 3);
+        // 5500 bytes need at least 3 batches, 10 files at least 4
+        eq(4, plan.size());
+        List<Integer> all = new ArrayList<>();
+        for (int[] batch : plan) {
+            assertTrue(batch.length <= 3);
+            assertTrue(bytes(batch, lengths) <= 2000);
+            for (int i = 1; i < batch.length; i++) assertTrue(batch[i - 1] < batch[i]);
+            for (int i : batch) all.add(i);
+        }
+        Collections.sort(all);
+        eq(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), all);
+        for (int b = 1; b < plan.size(); b++) assertTrue(plan.get(b - 1)[0] < plan.get(b)[0]);
+    }
+
+    public void testPlanBalancesBytes () {
+        long[] lengths = {1000, 1000, 10, 10, 10, 10, 10, 10, 10, 10};
+        List<int[]> plan = BatchUpload.plan(lengths, 1500, 10);
+        eq(2, plan.size());
+        // each large file anchors its own batch, the small ones are shared out between them
+        eq(1040L, bytes(plan.get(0), lengths));
+        eq(1040L, bytes(plan.get(1), lengths));
+    }
+
+    public void testPlanOversizedAndUnknownLengths () {
+        List<int[]> plan = BatchUpload.plan(new long[] {5000, -1, 10, -1}, 1000, 10);
+        // files over the limit, or of unknown length, are sent on their own
+        eq(4, plan.size());
+        eq(1, BatchUpload.plan(new long[] {1, 2, 3}, 1000, 10).size());
+    }
+
+    public void testUploadInBatches () throws IOException {
+        List<Object> files = new ArrayList<>();
+        for (int i = 0; i < 12; i++) files.add(source("f" + i + ".pdf", 100 + i * 10));
+
+        BatchUpload upload = localAPI().documents().uploadInBatches(null, files, 1000, 4, 3);
+        assertTrue(upload.isComplete());
+        eq(0, upload.getFailures().size());
+        List<Document> docs = upload.getDocuments();
+        eq(12, docs.size());
+        for (int i = 0; i < 12; i++) eq("doc_f" + i + ".pdf", docs.get(i).getID());
+
+        eq(3, batches.size());
+        for (List<String> batch : batches) eq(4, batch.size());
+        assertTrue(maxConcurrent.get() > 1);
+        assertTrue(maxConcurrent.get() <= 3);
+    }
+
+    public void testFailuresAreConfinedToTheirBatch () throws IOException {
+        DocumentSource bad = DocumentSource.of("bad.pdf", "FAIL".getBytes(Network.CHARSET));
+        List<Object> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) files.add(source("f" + i + ".pdf", 100));
+        files.add(2, bad);
+
+        BatchUpload upload = localAPI().documents().uploadInBatches(null, files, 1 << 20, 2, 4);
+        assertFalse(upload.isComplete());
+        Map<Object, IOException> failures = upload.getFailures();
+        // bad.pdf shares its batch with one other file
+        eq(2, failures.size());
+        assertTrue(failures.containsKey(bad));
+        eq(400, ((APIException) failures.get(bad)).getResponseStatus());
+
+        List<Document> docs = upload.getDocuments();
+        eq(5, docs.size());
+        List<String> ids = new ArrayList<>();
+        for (Document d : docs) ids.add(d.getID());
+        List<String> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        // still in input order
+        eq(sorted, ids);
+    }
+}
@@ -0,0 +1,136 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.pdfdata.model.Document;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestDocumentStream extends LocalServerTestCase {
+    private static final int PAGE_SIZE = 3;
+    private static final Instant NEWEST = Instant.parse("2016-06-15T19:19:19Z");
+
+    /** the cursors of the list requests received */
+    private final List<Instant> requests = new CopyOnWriteArrayList<>();
+    private volatile int documents = 8;
+    private volatile Instant failBefore;
+    /** documents from tiedFrom up to tiedTo were all created at the same time */
+    private volatile int tiedFrom = -1, tiedTo = -1;
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/documents", this::list);
+    }
+
+    /** document n was created n minutes before the newest, unless it's tied with others */
+    private Instant created (int n) {
+        return NEWEST.minusSeconds(60 * (n > tiedFrom && n <= tiedTo ? tiedFrom : n));
+    }
+
+    private void list (HttpExchange ex) throws IOException {
+        String query = URLDecoder.decode(ex.getRequestURI().getRawQuery(), "UTF-8");
+        Instant before = API.parseDate(query.substring("before=".length()));
+        requests.add(before);
+        if (before.equals(failBefore)) {
+            respond(ex, 500, "{\"error\":\"unavailable\"}");
+            return;
+        }
+        // a page of the newest documents created before the cursor, newest first
+        List<String> page = new ArrayList<>();
+        for (int n = 0; n < documents && page.size() < PAGE_SIZE; n++) {
+            if (!created(n).isBefore(before)) continue;
+            page.add(String.format("{\"id\":\"doc_%d\",\"filename\":\"%d.pdf\",\"tags\":[]," +
+                    "\"created\":\"%s\",\"expires\":\"2030-01-01T00:00:00Z\",\"pagecount\":1}", n,
+                    n, API.INSTANT_FORMATTER.format(created(n).atOffset(ZoneOffset.UTC))));
+        }
+        respond(ex, 200, "[" + String.join(",", page) + "]");
+    }
+
+    private static List<String> ids (Stream<Document> docs) {
+        return docs.map(Document::getID).collect(Collectors.toList());
+    }
+
+    public void testPagesThroughAllDocuments () throws IOException {
+        List<String> expected = new ArrayList<>();
+        for (int n = 0; n < 8; n++) expected.add("doc_" + n);
+        try (Stream<Document> docs = localAPI().documents().stream()) {
+            eq(expected, ids(docs));
+        }
+        // each page after the first includes the last of the page before, and the last page
+        // only that, finding that there are no more
+        eq(5, requests.size());
+        eq(created(2).plusSeconds(1), requests.get(1));
+        eq(created(4).plusSeconds(1), requests.get(2));
+        eq(created(6).plusSeconds(1), requests.get(3));
+        eq(created(7).plusSeconds(1), requests.get(4));
+    }
+
+    public void testTieAcrossPages () throws IOException {
+        tiedFrom = 2;
+        tiedTo = 3;
+        List<String> expected = new ArrayList<>();
+        for (int n = 0; n < 8; n++) expected.add("doc_" + n);
+        try (Stream<Document> docs = localAPI().documents().stream()) {
+            eq(expected, ids(docs));
+        }
+        eq(created(2).plusSeconds(1), requests.get(1));
+    }
+
+    public void testTiedPage () throws IOException {
+        // more documents created at the same time than fit on a page
+        tiedFrom = 2;
+        tiedTo = 5;
+        Iterator<Document> it = localAPI().documents().stream().iterator();
+        for (int i = 0; i < 5; i++) eq("doc_" + i, it.next().getID());
+        try {
+            it.hasNext();
+            fail("the documents beyond the first page of those tied can't be listed");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+    }
+
+    public void testIsLazyAndPrefetches () throws Exception {
+        try (Stream<Document> docs = localAPI().documents().stream(created(1))) {
+            Iterator<Document> it = docs.iterator();
+            Thread.sleep(100);
+            eq(0, requests.size());
+
+            eq("doc_2", it.next().getID());
+            // the second page is requested as soon as the first arrives
+            for (int i = 0; i < 50 && requests.size() < 2; i++) Thread.sleep(10);
+            eq(2, requests.size());
+            eq(created(4).plusSeconds(1), requests.get(1));
+            it.next();
+            it.next();
+            eq("doc_5", it.next().getID());
+        }
+    }
+
+    public void testEmpty () throws IOException {
+        documents = 0;
+        eq(0L, localAPI().documents().stream().count());
+        eq(1, requests.size());
+    }
+
+    public void testFailedPage () throws IOException {
+        failBefore = created(2).plusSeconds(1);
+        Iterator<Document> it = localAPI().documents().stream().iterator();
+        for (int i = 0; i < 3; i++) it.next();
+        try {
+            it.hasNext();
+            fail();
+        } catch (UncheckedIOException e) {
+            eq(500, ((APIException) e.getCause()).getResponseStatus());
+        }
+    }
+}
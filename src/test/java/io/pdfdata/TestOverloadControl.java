@@ -0,0 +1,237 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestOverloadControl extends LocalServerTestCase {
+    private static final byte[] INFO = ("{\"message\":\"Welcome to PDFDATA.io!\"," +
+            "\"api_version\":\"2016-09-01\",\"build\":\"x\"}").getBytes(Network.CHARSET);
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    protected void configureServer (HttpServer server) {
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/", ex -> {
+            requests.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            respond(ex, status, INFO);
+        });
+    }
+
+    public void testLimiterAIMD () throws IOException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10);
+        for (int i = 0; i < 4; i++) limiter.acquire();
+        eq(4, limiter.getInFlight());
+        try {
+            limiter.acquire();
+            fail("limiter should reject requests beyond its limit");
+        } catch (RequestRejectedException e) {
+            // expected
+        }
+
+        // prompt successes at full utilization grow the limit additively; a fixed 1ms "latency"
+        // keeps these samples from looking slow relative to each other
+        for (int round = 0; round < 8; round++) {
+            while (limiter.getInFlight() < limiter.getLimit()) limiter.acquire();
+            while (limiter.getInFlight() > 0) {
+                limiter.release(System.nanoTime() - 1000000, false, false);
+            }
+        }
+        assertTrue(limiter.getLimit() > 4);
+
+        // slow requests and overload decrease it multiplicatively, down to the minimum
+        int before = limiter.getLimit();
+        limiter.acquire();
+        limiter.release(System.nanoTime() - 100000000, false, false);
+        assertTrue(limiter.getLimit() < before);
+        for (int i = 0; i < 100; i++) limiter.release(limiter.acquire(), true, false);
+        eq(1, limiter.getLimit());
+
+        // outcomes that say nothing about load leave it alone
+        limiter.release(limiter.acquire(), null, false);
+        eq(1, limiter.getLimit());
+        eq(0, limiter.getInFlight());
+    }
+
+    public void testLimiterIgnoresWaitLatency () throws IOException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10);
+        for (int i = 0; i < 10; i++) limiter.release(limiter.acquire() - 1000000, false, false);
+        // a long poll that held its request open for 20s is not a sign of overload...
+        limiter.release(limiter.acquire() - 20000000000L, false, true);
+        eq(4, limiter.getLimit());
+        // ...but one that found the service overloaded is
+        limiter.release(limiter.acquire(), true, true);
+        assertTrue(limiter.getLimit() < 4);
+    }
+
+    public void testCircuitBreakerStates () throws IOException, InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 4, Duration.ofMillis(50), 2);
+        for (int i = 0; i < 3; i++) breaker.onSuccess(breaker.acquire());
+        breaker.onFailure(breaker.acquire());
+        eq(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure(breaker.acquire());
+        eq(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            breaker.acquire();
+            fail("open breaker should reject requests");
+        } catch (RequestRejectedException e) {
+            // expected
+        }
+
+        Thread.sleep(60);
+        eq(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        int a = breaker.acquire();
+        int b = breaker.acquire();
+        try {
+            breaker.acquire();
+            fail("half-open breaker should only admit its probes");
+        } catch (RequestRejectedException e) {
+            // expected
+        }
+        breaker.onSuccess(a);
+        breaker.onFailure(b);
+        eq(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(60);
+        breaker.onSuccess(breaker.acquire());
+        breaker.onSuccess(breaker.acquire());
+        eq(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testCircuitBreakerOnlyCountsProbes () throws IOException, InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, Duration.ofMillis(50), 1);
+        // requests admitted before the breaker opens, finishing once it's half-open
+        int[] earlier = new int[4];
+        for (int i = 0; i < earlier.length; i++) earlier[i] = breaker.acquire();
+        breaker.onFailure(breaker.acquire());
+        eq(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(60);
+        eq(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        int probe = breaker.acquire();
+        breaker.onSuccess(earlier[0]);
+        breaker.onIgnored(earlier[1]);
+        breaker.onFailure(earlier[2]);
+        eq(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        try {
+            breaker.acquire();
+            fail("only the one probe should be admitted");
+        } catch (RequestRejectedException e) {
+            // expected
+        }
+
+        // a probe of an earlier round doesn't count towards a later one
+        breaker.onFailure(probe);
+        Thread.sleep(60);
+        int next = breaker.acquire();
+        breaker.onSuccess(probe);
+        breaker.onSuccess(earlier[3]);
+        eq(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(next);
+        eq(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testCircuitBreakerRejectsFast () throws IOException {
+        API api = localAPI();
+        CircuitBreaker breaker = new CircuitBreaker(1, 2, Duration.ofMinutes(1), 1);
+        api.setCircuitBreaker(breaker);
+
+        // client errors don't count against the service
+        status = 404;
+        for (int i = 0; i < 3; i++) {
+            try {
+                api.info().get();
+                fail();
+            } catch (APIException e) {
+                eq(404, e.getResponseStatus());
+            }
+        }
+        eq(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        status = 502;
+        for (int i = 0; i < 2; i++) {
+            try {
+                api.info().get();
+                fail();
+            } catch (APIException e) {
+                eq(502, e.getResponseStatus());
+            }
+        }
+        eq(CircuitBreaker.State.OPEN, breaker.getState());
+
+        int sent = requests.get();
+        try {
+            api.info().get();
+            fail("request should have been rejected by the open circuit breaker");
+        } catch (RequestRejectedException e) {
+            // expected
+        }
+        eq(sent, requests.get());
+    }
+
+    public void testLimiterRejectsFast () throws Exception {
+        API api = localAPI();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 2);
+        api.setConcurrencyLimiter(limiter);
+        release = new CountDownLatch(1);
+
+        CompletableFuture<?> a = api.info().getAsync();
+        CompletableFuture<?> b = api.info().getAsync();
+        while (requests.get() < 2) Thread.sleep(5);
+        eq(2, limiter.getInFlight());
+
+        try {
+            api.info().get();
+            fail("request should have been rejected by the concurrency limiter");
+        } catch (RequestRejectedException e) {
+            // expected
+        }
+        eq(2, requests.get());
+
+        release.countDown();
+        a.get();
+        b.get();
+        eq(0, limiter.getInFlight());
+        api.info().get();
+    }
+
+    public void testRejectionsAreNotRetried () throws IOException {
+        API api = localAPI(RetryPolicy.DEFAULT);
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, Duration.ofMinutes(1), 1);
+        breaker.onFailure(breaker.acquire());
+        api.setCircuitBreaker(breaker);
+        try {
+            api.info().get();
+            fail();
+        } catch (RequestRejectedException e) {
+            // expected
+        }
+        eq(0, requests.get());
+    }
+
+    public void testAsyncRejection () throws Exception {
+        API api = localAPI();
+        api.setConcurrencyLimiter(new ConcurrencyLimiter(1, 1, 1));
+        api.getConcurrencyLimiter().acquire();
+        try {
+            api.info().getAsync().get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestRejectedException);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.pdfdata.model.Operation;
+import io.pdfdata.model.Proc;
+import io.pdfdata.model.ProcessedDocument;
+import io.pdfdata.model.ops.Metadata;
+import io.pdfdata.model.ops.Text;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestProcPipeline extends LocalServerTestCase {
+    private final AtomicInteger procCount = new AtomicInteger();
+    /** the filenames of each proc started, by proc ID */
+    private final Map<String, List<String>> procs = new ConcurrentHashMap<>();
+    /** the filenames of the documents uploaded separately from procs */
+    private final List<String> uploads = new CopyOnWriteArrayList<>();
+    private volatile Instant expires = Instant.now().plus(1, ChronoUnit.DAYS);
+
+    protected void configureServer (HttpServer server) {
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/procs", this::procs);
+        server.createContext("/v1/documents", this::documents);
+    }
+
+    /**
+     * Returns the filenames of the files uploaded, and of the documents identified by ID (as
+     * IDs are assigned by {@link #documentJSON(String)}).
+     */
+    private static List<String> filenames (HttpExchange ex) throws IOException {
+        Matcher m = FIELD.matcher(requestBody(ex));
+        List<String> files = new ArrayList<>();
+        while (m.find()) {
+            if (m.group(1).equals("file")) files.add(m.group(2));
+            if (m.group(1).equals("docid")) files.add(m.group(3).substring("doc_".length()));
+        }
+        return files;
+    }
+
+    private String documentJSON (String filename) {
+        return String.format("{\"type\":\"doc\",\"id\":\"doc_%s\",\"filename\":\"%s\"," +
+                "\"tags\":[],\"created\":\"2016-06-15T19:19:19Z\",\"expires\":\"%s\"," +
+                "\"pagecount\":1", filename, filename,
+                API.INSTANT_FORMATTER.format(expires.atOffset(ZoneOffset.UTC)));
+    }
+
+    private void documents (HttpExchange ex) throws IOException {
+        List<String> docs = new ArrayList<>();
+        for (String f : filenames(ex)) {
+            uploads.add(f);
+            docs.add(documentJSON(f) + "}");
+        }
+        respond(ex, 200, "[" + String.join(",", docs) + "]");
+    }
+
+    private void procs (HttpExchange ex) throws IOException {
+        if (ex.getRequestMethod().equals("POST")) {
+            List<String> files = filenames(ex);
+            if (files.stream().anyMatch(f -> f.startsWith("refuse"))) {
+                respond(ex, 400, "{\"error\":\"not a PDF\"}");
+                return;
+            }
+            String id = "proc_" + procCount.incrementAndGet();
+            procs.put(id, files);
+            respond(ex, 200, procJSON(id, "pending", ""));
+        } else {
+            String id = ex.getRequestURI().getPath().substring("/v1/procs/".length());
+            if (!procs.containsKey(id)) {
+                respond(ex, 404, "{\"error\":\"no such proc\"}");
+                return;
+            }
+            List<String> docs = new ArrayList<>();
+            for (String f : procs.get(id)) docs.add(documentJSON(f) + ",\"results\":[]}");
+            respond(ex, 200, procJSON(id, "complete",
+                    ",\"documents\":[" + String.join(",", docs) + "]"));
+        }
+    }
+
+    private static String procJSON (String id, String status, String documents) {
+        return String.format("{\"type\":\"proc\",\"id\":\"%s\",\"created\":" +
+                "\"2016-06-15T19:19:19Z\",\"source_tags\":[],\"operations\":[{\"op\":" +
+                "\"metadata\"}],\"status\":\"%s\"%s}", id, status, documents);
+    }
+
+    private static List<DocumentSource> sources (int count, int length) {
+        List<DocumentSource> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // distinct contents, so distinct hashes
+            byte[] data = new byte[length];
+            data[0] = (byte) i;
+            sources.add(DocumentSource.of(String.format("f%02d.pdf", i), data));
+        }
+        return sources;
+    }
+
+    /** Records the procs and failures it receives. */
+    private static class RecordingSink implements ProcPipeline.Sink {
+        final List<Proc> completed = new CopyOnWriteArrayList<>();
+        final List<String> documents = new CopyOnWriteArrayList<>();
+        final List<String> failed = new CopyOnWriteArrayList<>();
+
+        public void completed (Proc proc, ResourceDownloads resources) throws IOException {
+            completed.add(proc);
+            for (ProcessedDocument d : proc.getDocuments()) documents.add(d.getFilename());
+        }
+
+        public void failed (Collection<DocumentSource> files, Exception error) {
+            eq(400, ((APIException) error).getResponseStatus());
+            for (DocumentSource f : files) failed.add(f.getFilename());
+        }
+
+        List<String> sortedDocuments () {
+            return documents.stream().sorted().collect(Collectors.toList());
+        }
+    }
+
+    public void testGroupsDocumentsIntoProcs () throws IOException {
+        RecordingSink sink = new RecordingSink();
+        ProcPipeline.Summary summary = localAPI().procs().pipeline()
+                .withOperations(new Metadata())
+                .withProcSize(3, 1 << 20)
+                .withConcurrency(2, 2)
+                .run(sources(10, 100), sink);
+
+        eq(10, summary.getDocumentCount());
+        eq(4, summary.getProcCount());
+        eq(0, summary.getFailedProcCount());
+        eq(4, sink.completed.size());
+        eq(sources(10, 100).stream().map(DocumentSource::getFilename)
+                .collect(Collectors.toList()), sink.sortedDocuments());
+        for (List<String> files : procs.values()) assertTrue(files.size() <= 3);
+    }
+
+    public void testProcsAreBoundedByBytes () throws IOException {
+        RecordingSink sink = new RecordingSink();
+        localAPI().procs().pipeline()
+                .withOperations(new Metadata())
+                .withProcSize(10, 250)
+                .run(sources(6, 100), sink);
+        eq(3, procs.size());
+        for (List<String> files : procs.values()) eq(2, files.size());
+    }
+
+    public void testBytesInFlightAreBounded () throws IOException {
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger maxAhead = new AtomicInteger();
+        RecordingSink sink = new RecordingSink() {
+            public void completed (Proc proc, ResourceDownloads resources) throws IOException {
+                super.completed(proc, resources);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        List<DocumentSource> sources = sources(12, 100);
+        Iterable<DocumentSource> files = () -> new Iterator<DocumentSource>() {
+            public boolean hasNext () {
+                return read.get() < sources.size();
+            }
+
+            public DocumentSource next () {
+                maxAhead.accumulateAndGet(read.get() - sink.documents.size(), Math::max);
+                return sources.get(read.getAndIncrement());
+            }
+        };
+
+        localAPI().procs().pipeline()
+                .withOperations(new Metadata())
+                .withProcSize(3, 1 << 20)
+                .withMaxBytesInFlight(250)
+                .run(files, sink);
+        eq(12, sink.documents.size());
+        // no more than two documents' bytes are ever in flight, plus the one being read
+        assertTrue(maxAhead.get() <= 2);
+        // and so procs are cut short rather than waiting on themselves
+        for (List<String> f : procs.values()) assertTrue(f.size() <= 2);
+    }
+
+    public void testFailedProcsAreReported () throws IOException {
+        List<DocumentSource> sources = sources(4, 100);
+        sources.add(DocumentSource.of("refuse.pdf", new byte[100]));
+        RecordingSink sink = new RecordingSink();
+        ProcPipeline.Summary summary = localAPI().procs().pipeline()
+                .withOperations(new Metadata())
+                .withProcSize(1, 1 << 20)
+                .run(sources, sink);
+        eq(4, summary.getProcCount());
+        eq(1, summary.getFailedProcCount());
+        eq(4, sink.documents.size());
+        eq(1, sink.failed.size());
+        eq("refuse.pdf", sink.failed.get(0));
+    }
+
+    public void testSinkFailureStopsThePipeline () throws IOException {
+        AtomicInteger read = new AtomicInteger();
+        List<DocumentSource> sources = sources(100, 100);
+        Iterable<DocumentSource> files = () -> sources.stream()
+                .peek(s -> read.incrementAndGet()).iterator();
+        try {
+            localAPI().procs().pipeline()
+                    .withOperations(new Metadata())
+                    .withProcSize(1, 1 << 20)
+                    .withMaxPendingProcs(2)
+                    .run(files, new RecordingSink() {
+                        public void completed (Proc proc, ResourceDownloads resources)
+                                throws IOException {
+                            throw new IOException("disk full");
+                        }
+                    });
+            fail();
+        } catch (IOException e) {
+            eq("disk full", e.getMessage());
+        }
+        assertTrue(read.get() < 100);
+    }
+
+    public void testRunOverDirectory () throws IOException {
+        Path dir = Files.createTempDirectory("pdfdata-pipeline");
+        try {
+            Files.write(dir.resolve("a.pdf"), new byte[10]);
+            Files.createDirectories(dir.resolve("sub"));
+            Files.write(dir.resolve("sub").resolve("b.PDF"), new byte[10]);
+            Files.write(dir.resolve("notes.txt"), new byte[10]);
+
+            RecordingSink sink = new RecordingSink();
+            ProcPipeline.Summary summary = localAPI().procs().pipeline()
+                    .withOperations(new Metadata())
+                    .run(dir, sink);
+            eq(2, summary.getDocumentCount());
+            eq(1, summary.getProcCount());
+            List<String> expected = new ArrayList<>();
+            expected.add("a.pdf");
+            expected.add("b.PDF");
+            eq(expected, sink.sortedDocuments());
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path f : files.sorted(Comparator.reverseOrder())
+                        .collect(Collectors.toList())) {
+                    Files.delete(f);
+                }
+            }
+        }
+    }
+
+    public void testRequiresOperations () throws IOException {
+        try {
+            localAPI().procs().pipeline().run(sources(1, 10), new RecordingSink());
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** A sink that fails once it's given a proc including the given file. */
+    private static RecordingSink failingOn (String filename) {
+        return new RecordingSink() {
+            public void completed (Proc proc, ResourceDownloads resources) throws IOException {
+                for (ProcessedDocument d : proc.getDocuments()) {
+                    if (d.getFilename().equals(filename)) throw new IOException("disk full");
+                }
+                super.completed(proc, resources);
+            }
+        };
+    }
+
+    private ProcPipeline recorded (Path manifest) throws IOException {
+        return localAPI().procs().pipeline()
+                .withOperations(new Metadata())
+                .withProcSize(2, 1 << 20)
+                .withConcurrency(1, 1)
+                .withMaxPendingProcs(1)
+                .withManifest(manifest);
+    }
+
+    private void interruptedRun (Path manifest, String failingFile) throws IOException {
+        try {
+            recorded(manifest).run(sources(6, 100), failingOn(failingFile));
+            fail();
+        } catch (IOException e) {
+            eq("disk full", e.getMessage());
+        }
+    }
+
+    public void testManifestSkipsCompletedWork () throws IOException {
+        Path manifest = Files.createTempFile("pdfdata-manifest", ".jsonl");
+        try {
+            RecordingSink sink = new RecordingSink();
+            ProcPipeline.Summary summary = recorded(manifest).run(sources(6, 100), sink);
+            eq(3, summary.getProcCount());
+            eq(6, uploads.size());
+            eq(6, sink.documents.size());
+
+            sink = new RecordingSink();
+            summary = recorded(manifest).run(sources(6, 100), sink);
+            eq(6, summary.getDocumentCount());
+            eq(6, summary.getSkippedDocumentCount());
+            eq(0, summary.getProcCount());
+            eq(0, sink.documents.size());
+            eq(6, uploads.size());
+            eq(3, procs.size());
+        } finally {
+            Files.delete(manifest);
+        }
+    }
+
+    public void testManifestResumesPendingProcs () throws IOException {
+        Path manifest = Files.createTempFile("pdfdata-manifest", ".jsonl");
+        try {
+            // the second proc is started, but its results never handed off
+            interruptedRun(manifest, "f02.pdf");
+            eq(2, procs.size());
+            eq(4, uploads.size());
+
+            RecordingSink sink = new RecordingSink();
+            ProcPipeline.Summary summary = recorded(manifest).run(sources(6, 100), sink);
+            eq(4, summary.getSkippedDocumentCount());
+            eq(2, summary.getProcCount());
+            // the second proc was re-attached to rather than started again
+            eq(3, procs.size());
+            eq(Arrays.asList("f02.pdf", "f03.pdf", "f04.pdf", "f05.pdf"),
+                    sink.sortedDocuments());
+            eq(6, uploads.size());
+        } finally {
+            Files.delete(manifest);
+        }
+    }
+
+    public void testManifestReusesUnexpiredDocuments () throws IOException {
+        Path manifest = Files.createTempFile("pdfdata-manifest", ".jsonl");
+        try {
+            interruptedRun(manifest, "f00.pdf");
+            // the proc itself can no longer be retrieved, so its documents are run again...
+            procs.clear();
+
+            RecordingSink sink = new RecordingSink();
+            recorded(manifest).run(sources(6, 100), sink);
+            eq(6, sink.documents.size());
+            // ...without uploading them again
+            eq(Arrays.asList("f00.pdf", "f01.pdf", "f02.pdf", "f03.pdf", "f04.pdf", "f05.pdf"),
+                    uploads);
+        } finally {
+            Files.delete(manifest);
+        }
+    }
+
+    public void testManifestReuploadsExpiredDocuments () throws IOException {
+        Path manifest = Files.createTempFile("pdfdata-manifest", ".jsonl");
+        try {
+            expires = Instant.now().plus(1, ChronoUnit.MINUTES);
+            interruptedRun(manifest, "f00.pdf");
+            procs.clear();
+
+            recorded(manifest).run(sources(6, 100), new RecordingSink());
+            eq(Arrays.asList("f00.pdf", "f01.pdf", "f00.pdf", "f01.pdf", "f02.pdf",
+                    "f03.pdf", "f04.pdf", "f05.pdf"), uploads);
+        } finally {
+            Files.delete(manifest);
+        }
+    }
+
+    public void testManifestRejectsOtherOperations () throws IOException {
+        Path manifest = Files.createTempFile("pdfdata-manifest", ".jsonl");
+        try {
+            interruptedRun(manifest, "f02.pdf");
+            try {
+                recorded(manifest).withOperations(new Text()).run(sources(6, 100),
+                        new RecordingSink());
+                fail("a run with other operations must not skip the work recorded");
+            } catch (IOException e) {
+                // expected
+            }
+            eq(2, procs.size());
+        } finally {
+            Files.delete(manifest);
+        }
+    }
+
+    public void testManifestIgnoresPartialRecord () throws IOException {
+        Path manifest = Files.createTempFile("pdfdata-manifest", ".jsonl");
+        try {
+            List<Operation> ops = Collections.singletonList(new Metadata());
+            new JobManifest(manifest, localAPI().json, ops).close();
+            Files.write(manifest, ("{\"type\":\"proc\",\"id\":\"proc_a\",\"hashes\":[\"h1\"]}\n" +
+                    "{\"type\":\"complete\",\"id\":\"proc_a\",\"hashes\":[\"h1\"]}\n" +
+                    "{\"type\":\"proc\",\"id\":\"proc_b\",\"ha").getBytes(Network.CHARSET),
+                    StandardOpenOption.APPEND);
+            try (JobManifest m = new JobManifest(manifest, localAPI().json, ops)) {
+                assertTrue(m.isCompleted("h1"));
+                eq(0, m.getPendingProcs().size());
+                m.started("proc_c", Arrays.asList("h2", "h3"));
+            }
+            try (JobManifest m = new JobManifest(manifest, localAPI().json, ops)) {
+                eq(Arrays.asList("h2", "h3"), m.getPendingProcs().get("proc_c"));
+                eq(1, m.getPendingProcs().size());
+            }
+        } finally {
+            Files.delete(manifest);
+        }
+    }
+}
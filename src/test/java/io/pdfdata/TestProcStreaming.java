@@ -0,0 +1,85 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpServer;
+import io.pdfdata.model.Operation;
+import io.pdfdata.model.Page;
+import io.pdfdata.model.Proc;
+import io.pdfdata.model.ProcessedDocument;
+import io.pdfdata.model.ops.Images;
+import io.pdfdata.model.ops.Text;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestProcStreaming extends LocalServerTestCase {
+    private volatile String response = "completed-proc.js";
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/procs", ex -> {
+            byte[] body = Files.readAllBytes(Paths.get("src/test/resources/responses", response));
+            respond(ex, 200, body);
+        });
+    }
+
+    public void testStreamPages () throws IOException {
+        API api = localAPI();
+        List<String> docIDs = new ArrayList<>();
+        List<Operation> ops = new ArrayList<>();
+        List<Page> pages = new ArrayList<>();
+        Proc streamed = api.procs().stream("proc_1555580e8ff", (docID, op, page) -> {
+            docIDs.add(docID);
+            ops.add(op);
+            pages.add(page);
+        });
+        eq(Proc.Status.COMPLETE, streamed.getStatus());
+        eq("proc_1555580e8ff", streamed.getID());
+        assertNull(streamed.getDocuments());
+
+        // the same pages as when the whole proc is mapped, in the same order
+        Proc proc = api.procs().byID("proc_1555580e8ff");
+        eq(proc.getOperations(), streamed.getOperations());
+        int i = 0;
+        for (ProcessedDocument d : proc.getDocuments()) {
+            for (int op = 0; op < d.getResults().size(); op++) {
+                Operation.Result res = d.getResults().get(op);
+                List<? extends Page> data = res instanceof Text.Result ?
+                        ((Text.Result) res).getData() : ((Images.Result) res).getData();
+                for (Page page : data) {
+                    eq(d.getID(), docIDs.get(i));
+                    eq(proc.getOperations().get(op), ops.get(i));
+                    eq(page.getPageNumber(), pages.get(i).getPageNumber());
+                    eq(page.getClass(), pages.get(i).getClass());
+                    if (page instanceof Text.Page) {
+                        eq(((Text.Page) page).getText(), ((Text.Page) pages.get(i)).getText());
+                    } else {
+                        eq(((Images.Page) page).getImages().get(0).getResourceID(),
+                                ((Images.Page) pages.get(i)).getImages().get(0).getResourceID());
+                    }
+                    i++;
+                }
+            }
+        }
+        eq(pages.size(), i);
+        assertTrue(i > 0);
+    }
+
+    public void testStreamPendingProc () throws IOException {
+        response = "pending-proc.js";
+        Proc proc = localAPI().procs().stream("proc_1555580e8ff", (docID, op, page) -> fail());
+        eq(Proc.Status.PENDING, proc.getStatus());
+    }
+
+    public void testHandlerAbortsStream () throws IOException {
+        try {
+            localAPI().procs().stream("proc_1555580e8ff", (docID, op, page) -> {
+                throw new IOException("stop");
+            });
+            fail();
+        } catch (IOException e) {
+            eq("stop", e.getMessage());
+        }
+    }
+}
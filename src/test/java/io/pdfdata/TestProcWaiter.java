@@ -0,0 +1,170 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.pdfdata.model.Proc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestProcWaiter extends LocalServerTestCase {
+    private byte[] pendingProc;
+    private byte[] completedProc;
+    private final Map<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+    private final AtomicInteger longPolls = new AtomicInteger();
+    /** while not released, long polls are held open for up to 10 seconds */
+    private final CountDownLatch releaseLongPolls = new CountDownLatch(1);
+    private volatile boolean holdLongPolls;
+
+    public void setUp () throws IOException {
+        pendingProc = Files.readAllBytes(Paths.get("src/test/resources/responses/pending-proc.js"));
+        completedProc = Files.readAllBytes(Paths.get("src/test/resources/responses/completed-proc.js"));
+        super.setUp();
+    }
+
+    protected void configureServer (HttpServer server) {
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/procs/", this::proc);
+        server.createContext("/v1/documents", ex -> {
+            try (InputStream in = ex.getRequestBody()) {
+                while (in.read() != -1) ;
+            }
+            respond(ex, 200, "[]".getBytes(Network.CHARSET));
+        });
+    }
+
+    public void tearDown () throws IOException {
+        releaseLongPolls.countDown();
+        super.tearDown();
+    }
+
+    /**
+     * Procs named proc_N remain pending for their first N polls; proc_missing doesn't exist.
+     */
+    private void proc (HttpExchange ex) throws IOException {
+        String id = ex.getRequestURI().getPath().substring("/v1/procs/".length());
+        String query = ex.getRequestURI().getQuery();
+        boolean longPoll = query != null && query.contains("wait=");
+        if (longPoll) longPolls.incrementAndGet();
+
+        byte[] response;
+        int status = 200;
+        if (id.equals("proc_missing")) {
+            response = "{\"error\":\"not found\"}".getBytes(Network.CHARSET);
+            status = 404;
+        } else {
+            int n = polls.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+            response = n > Integer.parseInt(id.substring(5)) ? completedProc : pendingProc;
+        }
+        if (longPoll && holdLongPolls) {
+            try {
+                releaseLongPolls.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        respond(ex, status, response);
+    }
+
+    public void testPolling () throws Exception {
+        try (ProcWaiter waiter = new ProcWaiter(localAPI(), Duration.ofMillis(5),
+                Duration.ofMillis(20), 0)) {
+            List<CompletableFuture<Proc>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) futures.add(waiter.await("proc_" + (i % 5)));
+            eq(5, waiter.getPendingCount());
+            // the same proc is only tracked once
+            assertSame(futures.get(0), futures.get(5));
+
+            for (CompletableFuture<Proc> f : futures) {
+                eq(Proc.Status.COMPLETE, f.get(10, TimeUnit.SECONDS).getStatus());
+            }
+            for (int i = 0; i < 5; i++) eq(i + 1, polls.get("proc_" + i).get());
+            eq(0, waiter.getPendingCount());
+            eq(0, longPolls.get());
+        }
+    }
+
+    public void testLongPolling () throws Exception {
+        try (ProcWaiter waiter = new ProcWaiter(localAPI(), Duration.ofMillis(5),
+                Duration.ofMillis(20), 8)) {
+            eq(Proc.Status.COMPLETE, waiter.await("proc_2").get(10, TimeUnit.SECONDS).getStatus());
+            eq(3, longPolls.get());
+        }
+    }
+
+    public void testLongPollsLeaveConnectionsFree () throws Exception {
+        API api = localAPI();
+        api.setTransport(new PooledTransport(4, PooledTransport.DEFAULT_IDLE_TIMEOUT));
+        holdLongPolls = true;
+        try (ProcWaiter waiter = new ProcWaiter(api)) {
+            for (int i = 0; i < 4; i++) waiter.await("proc_" + (1000 + i));
+            for (int i = 0; i < 500 && polls.size() < 4; i++) Thread.sleep(10);
+            // at most half of the pool's connections are held by long polls (those of procs
+            // polled before the rest were awaited), leaving the rest for uploads
+            assertTrue(longPolls.get() <= 2);
+            uploadConcurrently(api, 4);
+        }
+    }
+
+    private static void uploadConcurrently (API api, int count) throws Exception {
+        List<CompletableFuture<?>> uploads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            uploads.add(api.documents().uploadSourcesAsync(
+                    DocumentSource.of("a.pdf", new byte[100])));
+        }
+        for (CompletableFuture<?> f : uploads) f.get(5, TimeUnit.SECONDS);
+    }
+
+    public void testCompletedProc () throws Exception {
+        API api = localAPI();
+        Proc completed = api.json.from(new String(completedProc, Network.CHARSET), Proc.class);
+        try (ProcWaiter waiter = new ProcWaiter(api)) {
+            assertSame(completed, waiter.await(completed).get());
+            eq(0, polls.size());
+        }
+    }
+
+    public void testFailure () throws Exception {
+        try (ProcWaiter waiter = new ProcWaiter(localAPI())) {
+            try {
+                waiter.await("proc_missing").get(10, TimeUnit.SECONDS);
+                fail("waiting for a nonexistent proc should fail");
+            } catch (ExecutionException e) {
+                eq(404, ((APIException) e.getCause()).getResponseStatus());
+            }
+        }
+    }
+
+    public void testCancellation () throws Exception {
+        ProcWaiter waiter = new ProcWaiter(localAPI(), Duration.ofMillis(50),
+                Duration.ofMillis(50), 0);
+        CompletableFuture<Proc> a = waiter.await("proc_1000");
+        CompletableFuture<Proc> b = waiter.await("proc_2000");
+        eq(2, waiter.getPendingCount());
+        a.cancel(false);
+        eq(1, waiter.getPendingCount());
+
+        waiter.close();
+        assertTrue(b.isCancelled());
+        eq(0, waiter.getPendingCount());
+        try {
+            waiter.await("proc_1");
+            fail("closed waiter should not accept new procs");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestRangeDownload extends LocalServerTestCase {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final byte[] DATA = new byte[10000];
+    static {
+        for (int i = 0; i < DATA.length; i++) DATA[i] = (byte) (i * 31 + i / 256);
+    }
+
+    private Path dir;
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private volatile byte[] data = DATA;
+    private volatile boolean honourRanges = true;
+    /** whether to send the Content-Range header of a range */
+    private volatile boolean describeRanges = true;
+    /** ranges starting at or beyond this offset fail */
+    private volatile long failFrom = Long.MAX_VALUE;
+    /** the resource's ETag, if any */
+    private volatile String etag;
+
+    public void setUp () throws IOException {
+        dir = Files.createTempDirectory("pdfdata-ranges");
+        super.setUp();
+    }
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/resources/", ex -> {
+            String range = ex.getRequestHeaders().getFirst("Range");
+            ranges.add(String.valueOf(range));
+            Matcher m = range == null ? null : RANGE.matcher(range);
+            byte[] data = this.data;
+            int start = 0, end = data.length - 1;
+            String ifRange = ex.getRequestHeaders().getFirst("If-Range");
+            if (etag != null) ex.getResponseHeaders().set("ETag", etag);
+            if (honourRanges && m != null && m.matches() &&
+                    (ifRange == null || ifRange.equals(etag))) {
+                start = Integer.parseInt(m.group(1));
+                end = Math.min(Integer.parseInt(m.group(2)), data.length - 1);
+                if (start >= failFrom || start >= data.length) {
+                    if (start >= data.length) {
+                        ex.getResponseHeaders().set("Content-Range", "bytes */" + data.length);
+                    }
+                    ex.sendResponseHeaders(start >= failFrom ? 500 : 416, -1);
+                    ex.close();
+                    return;
+                }
+                if (describeRanges) {
+                    ex.getResponseHeaders().set("Content-Range",
+                            "bytes " + start + "-" + end + "/" + data.length);
+                }
+                ex.sendResponseHeaders(206, end - start + 1);
+            } else {
+                ex.sendResponseHeaders(200, data.length == 0 ? -1 : data.length);
+            }
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(data, start, end - start + 1);
+            }
+        });
+    }
+
+    public void tearDown () throws IOException {
+        super.tearDown();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    private URL url (API api) throws IOException {
+        return new URL(api.getEndpoint(), "resources/rsrc_large");
+    }
+
+    private void assertOnlyFile (Path file) throws IOException {
+        assertTrue(Arrays.equals(DATA, Files.readAllBytes(file)));
+        try (Stream<Path> files = Files.list(dir)) {
+            eq(1L, files.count());
+        }
+    }
+
+    public void testParallelRanges () throws IOException {
+        API api = localAPI();
+        Path file = dir.resolve("large.bin");
+        eq(file, api.resources().saveTo(url(api), file, 1000, 4));
+        assertOnlyFile(file);
+        eq(10, ranges.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ranges.contains("bytes=" + i * 1000 + "-" + (i * 1000 + 999)));
+        }
+    }
+
+    public void testUnevenFinalRange () throws IOException {
+        API api = localAPI();
+        Path file = dir.resolve("large.bin");
+        api.resources().saveTo(url(api), file, 3000, 2);
+        assertOnlyFile(file);
+        eq(4, ranges.size());
+        assertTrue(ranges.contains("bytes=9000-9999"));
+    }
+
+    public void testResumesAfterFailure () throws IOException {
+        API api = localAPI();
+        Path file = dir.resolve("large.bin");
+        failFrom = 6000;
+        try {
+            api.resources().saveTo(url(api), file, 1000, 1);
+            fail();
+        } catch (IOException e) {
+            eq(500, ((APIException) e.getCause()).getResponseStatus());
+        }
+        assertFalse(Files.exists(file));
+        assertTrue(Files.exists(dir.resolve("large.bin.part")));
+        eq((long) DATA.length, Files.size(dir.resolve("large.bin.part")));
+
+        // only the ranges not yet completed are fetched again
+        failFrom = Long.MAX_VALUE;
+        ranges.clear();
+        api.resources().saveTo(url(api), file, 1000, 2);
+        assertOnlyFile(file);
+        eq(4, ranges.size());
+        assertFalse(ranges.contains("bytes=5000-5999"));
+        assertTrue(ranges.contains("bytes=6000-6999"));
+    }
+
+    public void testInterruptedRecordIsIgnored () throws IOException {
+        API api = localAPI();
+        Path file = dir.resolve("large.bin");
+        failFrom = 2000;
+        try {
+            api.resources().saveTo(url(api), file, 1000, 1);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        // as if the process died while recording range 1 as one of the completed
+        Path record = dir.resolve("large.bin.part.ranges");
+        eq("10000 1000\n0\n1\n", new String(Files.readAllBytes(record), Network.CHARSET));
+        Files.write(record, "10000 1000\n0\n1".getBytes(Network.CHARSET));
+
+        failFrom = Long.MAX_VALUE;
+        ranges.clear();
+        api.resources().saveTo(url(api), file, 1000, 4);
+        assertOnlyFile(file);
+        eq(9, ranges.size());
+        assertTrue(ranges.contains("bytes=1000-1999"));
+    }
+
+    public void testDifferentRangeSizeRestarts () throws IOException {
+        API api = localAPI();
+        Path file = dir.resolve("large.bin");
+        failFrom = 5000;
+        try {
+            api.resources().saveTo(url(api), file, 1000, 1);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        failFrom = Long.MAX_VALUE;
+        ranges.clear();
+        api.resources().saveTo(url(api), file, 2500, 4);
+        assertOnlyFile(file);
+        eq(4, ranges.size());
+    }
+
+    public void testChangedResourceRestarts () throws IOException {
+        etag = "\"v1\"";
+        API api = localAPI();
+        Path file = dir.resolve("large.bin");
+        failFrom = 6000;
+        try {
+            api.resources().saveTo(url(api), file, 1000, 1);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        eq("10000 1000 \"v1\"\n", new String(Files.readAllBytes(
+                dir.resolve("large.bin.part.ranges")), Network.CHARSET).split("(?<=\n)")[0]);
+
+        byte[] changed = new byte[DATA.length];
+        for (int i = 0; i < changed.length; i++) changed[i] = (byte) ~DATA[i];
+        data = changed;
+        etag = "\"v2\"";
+        failFrom = Long.MAX_VALUE;
+        ranges.clear();
+        api.resources().saveTo(url(api), file, 1000, 1);
+        // the resumed range was answered with the whole new resource, so it started over
+        assertTrue(Arrays.equals(changed, Files.readAllBytes(file)));
+        eq(11, ranges.size());
+        try (Stream<Path> files = Files.list(dir)) {
+            eq(1L, files.count());
+        }
+    }
+
+    public void testUndescribedRange () throws IOException {
+        describeRanges = false;
+        API api = localAPI();
+        Path file = dir.resolve("large.bin");
+        try {
+            api.resources().saveTo(url(api), file, 1000, 4);
+            fail("a partial response that doesn't say which range it is can't be used");
+        } catch (ProtocolException e) {
+            // expected
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    public void testEmptyResource () throws IOException {
+        data = new byte[0];
+        API api = localAPI();
+        Path file = dir.resolve("empty.bin");
+        eq(file, api.resources().saveTo(url(api), file, 1000, 4));
+        eq(0L, Files.size(file));
+        try (Stream<Path> files = Files.list(dir)) {
+            eq(1L, files.count());
+        }
+        eq(Arrays.asList("bytes=0-999", "null"), ranges);
+    }
+
+    public void testServerWithoutRanges () throws IOException {
+        honourRanges = false;
+        API api = localAPI();
+        Path file = dir.resolve("large.bin");
+        api.resources().saveTo(url(api), file, 1000, 4);
+        assertOnlyFile(file);
+        eq(1, ranges.size());
+    }
+}
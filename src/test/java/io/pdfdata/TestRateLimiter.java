@@ -0,0 +1,114 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestRateLimiter extends LocalServerTestCase {
+    private static final byte[] INFO = ("{\"message\":\"Welcome to PDFDATA.io!\"," +
+            "\"api_version\":\"2016-09-01\",\"build\":\"x\"}").getBytes(Network.CHARSET);
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/", ex -> {
+            requests.incrementAndGet();
+            respond(ex, 200, INFO);
+        });
+    }
+
+    // rate limiters are shared per API key across the JVM, so each test uses its own key
+    private API api () throws IOException {
+        return new API("test_key_" + getName(),
+                endpoint());
+    }
+
+    public void testSharedPerKey () throws IOException {
+        API api = api();
+        assertSame(api.getRateLimiter(), api().getRateLimiter());
+        assertSame(api.getRateLimiter(), RateLimiter.forAPIKey(api.getAPIKey()));
+        assertNotSame(api.getRateLimiter(), RateLimiter.forAPIKey("some_other_key"));
+    }
+
+    public void testTryAcquire () throws IOException {
+        RateLimiter limiter = api().getRateLimiter();
+        assertTrue(limiter.tryAcquire(RateLimiter.Bucket.GET, 1000));
+
+        limiter.setRate(RateLimiter.Bucket.GET, 1, 3);
+        assertTrue(limiter.tryAcquire(RateLimiter.Bucket.GET, 2));
+        assertTrue(limiter.tryAcquire(RateLimiter.Bucket.GET, 1));
+        assertFalse(limiter.tryAcquire(RateLimiter.Bucket.GET, 1));
+        assertTrue(limiter.delayNanos(RateLimiter.Bucket.GET, 1) > 0);
+        // other buckets are unaffected
+        assertTrue(limiter.tryAcquire(RateLimiter.Bucket.PROC_CREATION, 1));
+
+        // requests larger than the bucket are admitted once it's full, leaving it in debt
+        limiter.setRate(RateLimiter.Bucket.UPLOAD_BYTES, 1, 10);
+        assertTrue(limiter.tryAcquire(RateLimiter.Bucket.UPLOAD_BYTES, 50));
+        assertFalse(limiter.tryAcquire(RateLimiter.Bucket.UPLOAD_BYTES, 1));
+        assertTrue(limiter.delayNanos(RateLimiter.Bucket.UPLOAD_BYTES, 1) >
+                TimeUnit.SECONDS.toNanos(40));
+
+        limiter.removeRate(RateLimiter.Bucket.UPLOAD_BYTES);
+        assertTrue(limiter.tryAcquire(RateLimiter.Bucket.UPLOAD_BYTES, 1));
+    }
+
+    public void testBlockingRequests () throws IOException {
+        API api = api();
+        api.getRateLimiter().setRate(RateLimiter.Bucket.GET, 20, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) api.info().get();
+        // the first request uses the initial token; the rest wait 50ms each
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(190));
+        eq(5, requests.get());
+    }
+
+    public void testInterruptedAcquire () throws IOException {
+        RateLimiter limiter = api().getRateLimiter();
+        limiter.setRate(RateLimiter.Bucket.GET, 0.001, 1);
+        limiter.acquire(RateLimiter.Bucket.GET, 1);
+        Thread.currentThread().interrupt();
+        try {
+            limiter.acquire(RateLimiter.Bucket.GET, 1);
+            fail("acquire should have been interrupted");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    public void testAsyncRequestsDontOccupyExecutor () throws Exception {
+        API api = api();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            api.setExecutor(executor);
+            api.getRateLimiter().setRate(RateLimiter.Bucket.GET, 10, 1);
+            api.getRateLimiter().acquire(RateLimiter.Bucket.GET, 1);
+
+            long start = System.nanoTime();
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) futures.add(api.info().getAsync());
+            // while the rate-limited requests are pending, the executor remains free for other work
+            eq("free", CompletableFuture.supplyAsync(() -> "free", executor)
+                    .get(50, TimeUnit.MILLISECONDS));
+            for (CompletableFuture<?> f : futures) f.get(5, TimeUnit.SECONDS);
+            eq(3, requests.get());
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(290));
+
+            // cancelling a held-back request prevents it from ever being sent
+            api.getRateLimiter().setRate(RateLimiter.Bucket.GET, 0.001, 1);
+            api.getRateLimiter().acquire(RateLimiter.Bucket.GET, 1);
+            assertTrue(api.info().getAsync().cancel(true));
+            eq(3, requests.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpServer;
+import io.pdfdata.model.Proc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestResourceDownloads extends LocalServerTestCase {
+    private Path dir;
+
+    public void setUp () throws IOException {
+        dir = Files.createTempDirectory("pdfdata-downloads");
+        super.setUp();
+    }
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/resources/", ex -> {
+            String uri = ex.getRequestURI().toString();
+            if (uri.contains("missing")) {
+                byte[] error = "{\"error\":\"no such resource\"}".getBytes(Network.CHARSET);
+                respond(ex, 404, error);
+                return;
+            }
+            byte[] body = data(uri);
+            ex.getResponseHeaders().set("Content-Type", "image/png");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    public void tearDown () throws IOException {
+        super.tearDown();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    /** 1000 bytes of data specific to each resource URI */
+    private static byte[] data (String uri) {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (uri.hashCode() + i);
+        return data;
+    }
+
+    public void testDownloadResources () throws IOException {
+        API api = localAPI();
+        String json = new String(Files.readAllBytes(Paths.get(
+                "src/test/resources/responses/completed-proc.js")), Network.CHARSET)
+                .replace("rsrc_9d7b", "rsrc_missing9d7b");
+        Proc proc = api.json.from(json, Proc.class);
+
+        List<Integer> progress = new CopyOnWriteArrayList<>();
+        ResourceDownloads downloads = api.procs().downloadResources(proc, dir.resolve("out"), 4,
+                new ResourceDownloads.Listener() {
+                    public void downloaded (String id, Path file, int completed, int total) {
+                        progress.add(completed);
+                        eq(2, total);
+                    }
+
+                    public void failed (String id, IOException e, int completed, int total) {
+                        progress.add(completed);
+                        assertTrue(id.startsWith("rsrc_missing"));
+                    }
+                });
+
+        eq(2, progress.size());
+        assertTrue(progress.containsAll(Arrays.asList(1, 2)));
+        assertFalse(downloads.isComplete());
+        eq(1, downloads.getFailures().size());
+        eq(404, ((APIException) downloads.getFailures().values().iterator().next())
+                .getResponseStatus());
+        String id = "rsrc_07a70ad3fca78c161846d0931058b6582c2ed94a";
+        Path file = downloads.getFiles().get(id);
+        eq(dir.resolve("out").resolve(id + ".png"), file);
+        assertTrue(Arrays.equals(data("/v1/resources/" + id), Files.readAllBytes(file)));
+        try (Stream<Path> files = Files.list(dir.resolve("out"))) {
+            eq(1L, files.count());
+        }
+    }
+
+    public void testExtensions () {
+        eq(".png", ResourceDownloads.extension("image/png"));
+        eq(".jpg", ResourceDownloads.extension("IMAGE/JPEG"));
+        eq(".xml", ResourceDownloads.extension("application/xml; charset=utf-8"));
+        eq(".bin", ResourceDownloads.extension("application/x-unknown"));
+        eq(".bin", ResourceDownloads.extension(null));
+    }
+}
@@ -0,0 +1,150 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestResourceStore extends LocalServerTestCase {
+    private Path dir;
+    private final List<String> downloads = new CopyOnWriteArrayList<>();
+
+    public void setUp () throws IOException {
+        dir = Files.createTempDirectory("pdfdata-resources");
+        super.setUp();
+    }
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/resources/", ex -> {
+            String uri = ex.getRequestURI().toString();
+            downloads.add(uri);
+            if (uri.contains("missing")) {
+                byte[] error = "{\"error\":\"no such resource\"}".getBytes(Network.CHARSET);
+                respond(ex, 404, error);
+                return;
+            }
+            byte[] body = data(uri);
+            ex.getResponseHeaders().set("Content-Type", "image/png");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    public void tearDown () throws IOException {
+        super.tearDown();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    /** 1000 bytes of data specific to each resource URI */
+    private static byte[] data (String uri) {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (uri.hashCode() + i);
+        return data;
+    }
+
+    private API api (ResourceStore store) throws IOException {
+        API api = localAPI();
+        api.setResourceStore(store);
+        return api;
+    }
+
+    private static byte[] read (InputStream in) throws IOException {
+        try (InputStream is = in) {
+            return Util.readBytes(is);
+        }
+    }
+
+    public void testRepeatReadsAreLocal () throws IOException {
+        ResourceStore store = new ResourceStore(dir, 1 << 20);
+        API api = api(store);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(Arrays.equals(data("/v1/resources/rsrc_a1"),
+                    read(api.resources().byID("rsrc_a1"))));
+        }
+        eq(1, downloads.size());
+        eq(1, store.size());
+        eq(1000L, store.getSizeBytes());
+
+        // a different query is a different resource
+        URL url = new URL(api.getEndpoint(), "resources/rsrc_a1?format=png");
+        assertTrue(Arrays.equals(data("/v1/resources/rsrc_a1?format=png"),
+                read(api.resources().byURL(url))));
+        read(api.resources().byURL(url));
+        eq(2, downloads.size());
+
+        // and the store persists
+        API reopened = api(new ResourceStore(dir, 1 << 20));
+        read(reopened.resources().byID("rsrc_a1"));
+        eq(2, downloads.size());
+    }
+
+    public void testStaleTempFilesAreDeleted () throws IOException {
+        Path stale = Files.createTempFile(dir, "tmp", ".part");
+        Path other = Files.createFile(dir.resolve("notes.part"));
+        new ResourceStore(dir, 1 << 20);
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(other));
+    }
+
+    public void testSaveToFromStore () throws IOException {
+        ResourceStore store = new ResourceStore(dir.resolve("store"), 1 << 20);
+        API api = api(store);
+        Path file = dir.resolve("saved").resolve("a.png");
+        URL url = new URL(api.getEndpoint(), "resources/rsrc_a");
+        for (int i = 0; i < 2; i++) {
+            eq(file, api.resources().saveTo(url, file));
+            assertTrue(Arrays.equals(data("/v1/resources/rsrc_a"), Files.readAllBytes(file)));
+        }
+        eq(1, downloads.size());
+        assertFalse(Files.exists(dir.resolve("saved").resolve("a.png.part")));
+    }
+
+    public void testEviction () throws IOException {
+        ResourceStore store = new ResourceStore(dir, 2500);
+        API api = api(store);
+        read(api.resources().byID("rsrc_a"));
+        read(api.resources().byID("rsrc_b"));
+        read(api.resources().byID("rsrc_a"));
+        read(api.resources().byID("rsrc_c"));
+        eq(2, store.size());
+        eq(3, downloads.size());
+
+        // b was least recently used
+        read(api.resources().byID("rsrc_a"));
+        read(api.resources().byID("rsrc_c"));
+        eq(3, downloads.size());
+        read(api.resources().byID("rsrc_b"));
+        eq(4, downloads.size());
+    }
+
+    public void testFailedDownloadsAreNotStored () throws IOException {
+        ResourceStore store = new ResourceStore(dir, 1 << 20);
+        API api = api(store);
+        try {
+            api.resources().byID("rsrc_missing");
+            fail();
+        } catch (APIException e) {
+            eq(404, e.getResponseStatus());
+        }
+        eq(0, store.size());
+        try (Stream<Path> files = Files.list(dir)) {
+            eq(0L, files.count());
+        }
+    }
+}
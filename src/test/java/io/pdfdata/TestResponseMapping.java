@@ -6,12 +6,21 @@ import io.pdfdata.model.ops.Images;
 import io.pdfdata.model.ops.Metadata;
 import io.pdfdata.model.ops.Text;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import static io.pdfdata.model.Proc.Status.COMPLETE;
 import static io.pdfdata.model.Proc.Status.PENDING;
@@ -51,7 +60,145 @@ public class TestResponseMapping extends BaseAPITestCase {
     }
 
     public void testBoundsFailure () throws IOException {
+        checkBounds(slurpResponse("completed-proc-2.js", Proc.class));
+    }
+
+    public void testStreamingParse () throws IOException {
+        byte[] json = Files.readAllBytes(Paths.get("src/test/resources/responses",
+                "completed-proc-2.js"));
+        Proc p = pdfdata.json.from(new ByteArrayInputStream(json), new TypeReference<Proc>() {});
+        assertNull(p.getResponseBody());
+        checkBounds(p);
+    }
+
+    public void testLazyResults () throws IOException {
+        pdfdata.setLazyResults(true);
         Proc p = slurpResponse("completed-proc-2.js", Proc.class);
+        checkBounds(p);
+        for (ProcessedDocument d : p.getDocuments()) {
+            Operation.Result res = d.getResults().get(0);
+            assertSame(res, d.getResults().get(0));
+            assertSame(d, res.getDocument());
+            for (Images.Page page : ((Images.Result) res).getData()) {
+                for (Image img : page.getImages()) assertNotNull(img.getResource());
+            }
+        }
+    }
+
+    public void testLazyResultsDeferErrors () throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get("src/test/resources/responses",
+                "completed-proc-2.js")), Network.CHARSET)
+                .replaceFirst("(\"results\": \\[\\s*\\{\\s*\"op\": )\"images\"", "$1\"bogus\"");
+        try {
+            pdfdata.json.from(json, Proc.class);
+            fail("unknown result type should fail eager mapping");
+        } catch (IOException e) {
+            // expected
+        }
+
+        pdfdata.setLazyResults(true);
+        Proc p = pdfdata.json.from(json, Proc.class);
+        try {
+            p.getDocuments().get(0).getResults().get(0);
+            fail("unknown result type should fail when the result is decoded");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        // other documents' results are unaffected
+        assertTrue(p.getDocuments().get(1).getResults().get(0) instanceof Images.Result);
+    }
+
+    public void testMappingIsBoundToAPI () throws Exception {
+        // lazily-mapped results are decoded on other threads, on behalf of their own APIs
+        API a = new API("key_a", new URL("http://a.example.com/v1/"));
+        API b = new API("key_b", new URL("http://b.example.com/v1/"));
+        a.setLazyResults(true);
+        b.setLazyResults(true);
+        byte[] json = Files.readAllBytes(Paths.get("src/test/resources/responses",
+                "completed-proc.js"));
+        Proc pa = a.json.from(new ByteArrayInputStream(json), Proc.class);
+        Proc pb = b.json.from(new ByteArrayInputStream(json), Proc.class);
+
+        for (Proc p : Arrays.asList(pa, pb)) {
+            String host = p == pa ? "a.example.com" : "b.example.com";
+            CompletableFuture<Operation.Result> res = CompletableFuture.supplyAsync(
+                    () -> p.getDocuments().get(0).getResults().get(0));
+            for (AResource r : res.get().getResources().values()) {
+                eq(host, ((Resource) r).getUrl().getHost());
+            }
+            assertFalse(res.get().getResources().isEmpty());
+        }
+    }
+
+    public void testParseDate () {
+        Random r = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String s = API.INSTANT_FORMATTER.format(LocalDateTime.ofEpochSecond(
+                    r.nextInt(Integer.MAX_VALUE) * 2L - Integer.MAX_VALUE, 0, ZoneOffset.UTC));
+            eq(LocalDateTime.parse(s, API.INSTANT_FORMATTER).toInstant(ZoneOffset.UTC),
+                    parseDate(s));
+        }
+        eq(Instant.parse("2016-02-29T23:59:59Z"), parseDate("2016-02-29T23:59:59Z"));
+        for (String bad : Arrays.asList("2016-06-15T19:19:19", "2016-06-15 19:19:19Z",
+                "2016-13-15T19:19:19Z", "2016-06-15T24:19:19Z", "2016-06-1aT19:19:19Z")) {
+            try {
+                parseDate(bad);
+                fail(bad);
+            } catch (DateTimeParseException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testValueDeserializers () throws IOException {
+        eq(new Bounds(1, 2.5, 3, -4e2), pdfdata.json.from("[1, 2.5, 3, -4e2]", Bounds.class));
+        eq(new Dimensions(595, 842), pdfdata.json.from("[595, 842]", Dimensions.class));
+        for (String bad : Arrays.asList("[1, 2, 3]", "[1, 2, 3, 4, 5]", "[1, \"2\", 3, 4]",
+                "{\"lx\": 1}")) {
+            try {
+                pdfdata.json.from(bad, Bounds.class);
+                fail(bad);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        try {
+            pdfdata.json.from("[1]", Dimensions.class);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        eq(Text.Layout.DECOMPOSE, pdfdata.json.from("\"decompose\"", Text.Layout.class));
+        eq(Text.Layout.DECOMPOSE, pdfdata.json.from("\"DECOMPOSE\"", Text.Layout.class));
+        eq(Text.Layout.PRESERVE, pdfdata.json.from("\"Preserve\"", Text.Layout.class));
+
+        AResource bitmap = pdfdata.json.from("{\"url\": \"/v1/resources/rsrc_1\", " +
+                "\"mimetype\": \"image/png\", \"dimensions\": [10, 20]}", AResource.class);
+        eq(new Dimensions(10, 20), ((BitmapResource) bitmap).getDimensions());
+        eq("image/png", ((BitmapResource) bitmap).getMimetype());
+        AResource plain = pdfdata.json.from("{\"mimetype\": \"text/xml\", " +
+                "\"url\": \"/v1/resources/rsrc_2\"}", AResource.class);
+        eq(Resource.class, plain.getClass());
+        eq(new URL(pdfdata.getEndpoint(), "/v1/resources/rsrc_2"), ((Resource) plain).getUrl());
+    }
+
+    public void testSharedMapper () throws IOException {
+        API.warmUp();
+        API other = new API("key_b", new URL("http://b.example.com/v1/"));
+        assertSame(pdfdata.json.mapper, other.json.mapper);
+        eq(COMPLETE, other.json.from(new String(Files.readAllBytes(Paths.get(
+                "src/test/resources/responses/completed-proc.js")), Network.CHARSET),
+                Proc.class).getStatus());
+    }
+
+    public void testResultsReferToDocument () throws IOException {
+        for (ProcessedDocument d : slurpResponse("completed-proc.js", Proc.class).getDocuments()) {
+            for (Operation.Result res : d.getResults()) assertSame(d, res.getDocument());
+        }
+    }
+
+    private void checkBounds (Proc p) throws IOException {
         List<Bounds> bounds = pdfdata.json.from("[[422.63,784.2718,490.4489,810.67914]," +
                 "[39.123013,667.83936,156.15565,750.06226]," +
                 "[18.909943, 733.7, 259.80994, 819.2]]", new TypeReference<List<Bounds>>(){});
@@ -0,0 +1,186 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.pdfdata.model.Operation;
+import io.pdfdata.model.Proc;
+import io.pdfdata.model.ProcessedDocument;
+import io.pdfdata.model.ops.Images;
+import io.pdfdata.model.ops.Metadata;
+import io.pdfdata.model.ops.Text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestResultCache extends LocalServerTestCase {
+    private static final Pattern DOCID = Pattern.compile(
+            "name=\"docid\"\r\n(?:[^\r\n]+\r\n)*\r\n(.*?)\r\n--");
+    private static final String DOC_ID = "doc_8e96ec0533ac3e1e988b7d1ca27bfdc096b82ddc";
+    private static final List<Operation> OPS = Arrays.asList(new Images(), new Text(),
+            new Text(Text.Layout.DECOMPOSE));
+
+    private Path dir;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> sentDocIDs = new CopyOnWriteArrayList<>();
+    /** if true, procs are started pending, and complete when retrieved */
+    private volatile boolean startPending;
+
+    public void setUp () throws IOException {
+        dir = Files.createTempDirectory("pdfdata-results");
+        super.setUp();
+    }
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/procs", this::procs);
+    }
+
+    public void tearDown () throws IOException {
+        super.tearDown();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    private void procs (HttpExchange ex) throws IOException {
+        requests.incrementAndGet();
+        try (InputStream in = ex.getRequestBody()) {
+            Matcher m = DOCID.matcher(new String(Util.readBytes(in), StandardCharsets.ISO_8859_1));
+            while (m.find()) sentDocIDs.add(m.group(1));
+        }
+        boolean pending = startPending && ex.getRequestMethod().equals("POST");
+        byte[] body = Files.readAllBytes(Paths.get("src/test/resources/responses/" +
+                (pending ? "pending-proc.js" : "completed-proc.js")));
+        respond(ex, 200, body);
+    }
+
+    private API api (ResultCache cache) throws IOException {
+        API api = localAPI();
+        api.setResultCache(cache);
+        return api;
+    }
+
+    private Proc start (API api, List<Operation> ops, String... docIDs) throws IOException {
+        return api.procs().configure().withDocumentIDs(docIDs).withOperations(ops).start();
+    }
+
+    public void testCachedResults () throws IOException {
+        ResultCache cache = new ResultCache(dir, 1 << 20);
+        API api = api(cache);
+        Proc first = start(api, OPS, DOC_ID);
+        eq(1, requests.get());
+        eq(1, cache.size());
+        assertTrue(cache.getSizeBytes() > 0);
+
+        // served entirely from the cache, including by a fresh cache over the same directory
+        for (API cached : Arrays.asList(api, api(new ResultCache(dir, 1 << 20)))) {
+            Proc p = start(cached, Arrays.asList(new Images(), new Text(Text.Layout.PRESERVE),
+                    new Text(Text.Layout.DECOMPOSE)), DOC_ID);
+            eq(1, requests.get());
+            assertNull(p.getID());
+            eq(Proc.Status.COMPLETE, p.getStatus());
+            eq(OPS, p.getOperations());
+            eq(1, p.getDocuments().size());
+            ProcessedDocument d = p.getDocuments().get(0);
+            ProcessedDocument original = first.getDocuments().get(0);
+            eq(original.getID(), d.getID());
+            eq(original.getResults().size(), d.getResults().size());
+            eq(((Text.Result) original.getResults().get(1)).getData().get(0).getText(),
+                    ((Text.Result) d.getResults().get(1)).getData().get(0).getText());
+            assertNotNull(((Images.Result) d.getResults().get(0)).getData().get(0)
+                    .getImages().get(0).getResource());
+        }
+    }
+
+    public void testOnlyMissesAreSent () throws IOException {
+        API api = api(new ResultCache(dir, 1 << 20));
+        start(api, OPS, DOC_ID);
+        sentDocIDs.clear();
+
+        Proc p = start(api, OPS, DOC_ID, "doc_0123");
+        eq(Collections.singletonList("doc_0123"), sentDocIDs);
+        // the response (which is canned) plus the cached document
+        eq(2, p.getDocuments().size());
+
+        // different operations are a miss
+        sentDocIDs.clear();
+        start(api, Collections.singletonList(new Metadata()), DOC_ID);
+        eq(Collections.singletonList(DOC_ID), sentDocIDs);
+    }
+
+    public void testPendingProc () throws Exception {
+        API api = api(new ResultCache(dir, 1 << 20));
+        start(api, OPS, DOC_ID);
+        startPending = true;
+
+        Proc pending = api.procs().configure().withDocumentIDs(DOC_ID, "doc_0123")
+                .withOperations(OPS).withWait(0).start();
+        eq(Proc.Status.PENDING, pending.getStatus());
+        // the cached document is added whenever the proc is retrieved once complete
+        try (ProcWaiter waiter = new ProcWaiter(api)) {
+            eq(2, waiter.await(pending).get(10, TimeUnit.SECONDS).getDocuments().size());
+        }
+        eq(2, api.procs().byID(pending.getID()).getDocuments().size());
+        eq(2, api.procs().byIDAsync(pending.getID()).get().getDocuments().size());
+    }
+
+    public void testEvictedResultsAreReprocessed () throws IOException {
+        ResultCache cache = new ResultCache(dir, 1 << 20);
+        API api = api(cache);
+        start(api, OPS, DOC_ID);
+        startPending = true;
+        Proc pending = api.procs().configure().withDocumentIDs(DOC_ID, "doc_0123")
+                .withOperations(OPS).withWait(0).start();
+
+        cache.clear();
+        startPending = false;
+        sentDocIDs.clear();
+        // the response (which is canned) plus the evicted document, processed again
+        eq(2, api.procs().byID(pending.getID()).getDocuments().size());
+        eq(Collections.singletonList(DOC_ID), sentDocIDs);
+        eq(1, cache.size());
+    }
+
+    public void testLRUEviction () throws IOException {
+        byte[] json = "{\"id\":\"doc_1\"}".getBytes(StandardCharsets.UTF_8);
+        ResultCache sizing = new ResultCache(dir.resolve("sizing"), Long.MAX_VALUE);
+        sizing.put("x", json);
+        long entrySize = sizing.getSizeBytes();
+
+        ResultCache cache = new ResultCache(dir, 3 * entrySize);
+        for (String key : Arrays.asList("a", "b", "c")) cache.put(key, json);
+        eq(3, cache.size());
+        assertNotNull(cache.get("a"));
+        cache.put("d", json);
+        // b is now the least recently used
+        eq(3, cache.size());
+        assertNull(cache.get("b"));
+        for (String key : Arrays.asList("a", "c", "d")) {
+            assertTrue(Arrays.equals(json, cache.get(key)));
+        }
+        eq(3, new ResultCache(dir, 3 * entrySize).size());
+        eq(1, new ResultCache(dir, entrySize).size());
+
+        // an entry larger than the bound is still kept, alone
+        cache = new ResultCache(dir, 1);
+        cache.put("e", json);
+        eq(1, cache.size());
+        assertNotNull(cache.get("e"));
+    }
+}
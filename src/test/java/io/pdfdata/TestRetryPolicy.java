@@ -0,0 +1,159 @@
+package io.pdfdata;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestRetryPolicy extends LocalServerTestCase {
+    private static final byte[] INFO = ("{\"message\":\"Welcome to PDFDATA.io!\"," +
+            "\"api_version\":\"2016-09-01\",\"build\":\"x\"}").getBytes(Network.CHARSET);
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile int failureStatus = 503;
+    private volatile byte[] successBody;
+    private final List<String> idempotencyKeys = new CopyOnWriteArrayList<>();
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/", this::flaky);
+    }
+
+    private API api () throws IOException {
+        return localAPI(RetryPolicy.DEFAULT.withMaxAttempts(4)
+                .withBackoff(Duration.ofMillis(1), Duration.ofMillis(5)));
+    }
+
+    /**
+     * Fails with {@link #failureStatus} until {@link #failures} is exhausted.
+     */
+    private void flaky (HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] buf = new byte[4096];
+            while (in.read(buf) != -1) ;
+        }
+        idempotencyKeys.add(String.valueOf(ex.getRequestHeaders().getFirst("Idempotency-Key")));
+
+        boolean fail = failures.getAndDecrement() > 0;
+        byte[] response = fail ? "{\"error\":\"unavailable\"}".getBytes(Network.CHARSET) :
+                successBody != null ? successBody :
+                "POST".equals(ex.getRequestMethod()) ? "[]".getBytes(Network.CHARSET) : INFO;
+        respond(ex, fail ? failureStatus : 200, response);
+    }
+
+    public void testRetryGet () throws IOException {
+        failures.set(2);
+        eq("x", api().info().get().getBuild());
+        eq(3, idempotencyKeys.size());
+        eq("null", idempotencyKeys.get(0));
+    }
+
+    public void testRetryPostWithIdempotencyKey () throws IOException {
+        failures.set(3);
+        api().documents().uploadSources(DocumentSource.of("a.pdf", new byte[100]));
+        eq(4, idempotencyKeys.size());
+        assertFalse(idempotencyKeys.get(0).equals("null"));
+        for (String key : idempotencyKeys) eq(idempotencyKeys.get(0), key);
+
+        String firstKey = idempotencyKeys.get(0);
+        idempotencyKeys.clear();
+        api().documents().uploadSources(DocumentSource.of("a.pdf", new byte[100]));
+        assertFalse(idempotencyKeys.get(0).equals(firstKey));
+    }
+
+    public void testMaxAttempts () throws IOException {
+        failures.set(10);
+        try {
+            api().info().get();
+            fail("request should have failed after exhausting its attempts");
+        } catch (APIException e) {
+            eq(503, e.getResponseStatus());
+        }
+        eq(4, idempotencyKeys.size());
+    }
+
+    public void testNonRetryableStatus () throws IOException {
+        failures.set(1);
+        failureStatus = 400;
+        try {
+            api().info().get();
+            fail("400 responses should not be retried");
+        } catch (APIException e) {
+            eq(400, e.getResponseStatus());
+        }
+        eq(1, idempotencyKeys.size());
+    }
+
+    public void testUnmappableResponse () throws IOException {
+        successBody = "{\"message\":".getBytes(Network.CHARSET);
+        try {
+            api().info().get();
+            fail("the response cannot be mapped");
+        } catch (JsonProcessingException e) {
+            // expected
+        }
+        eq(1, idempotencyKeys.size());
+    }
+
+    public void testDeterministicFailures () {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        assertTrue(policy.isRetryable(new ConnectException()));
+        assertTrue(policy.isRetryable(new SocketTimeoutException()));
+        assertTrue(policy.isRetryable(new EOFException()));
+        assertTrue(policy.isRetryable(new IOException("Premature EOF")));
+        assertFalse(policy.isRetryable(new InterruptedIOException()));
+        assertFalse(policy.isRetryable(new NoSuchFileException("a.pdf")));
+        assertFalse(policy.isRetryable(new FileNotFoundException("a.pdf")));
+        assertFalse(policy.isRetryable(new ProtocolException("unexpected Content-Range")));
+    }
+
+    public void testNonRepeatableBody () throws IOException {
+        failures.set(1);
+        try {
+            api().documents().uploadSources(DocumentSource.of("a.pdf",
+                    new ByteArrayInputStream(new byte[100]), 100));
+            fail("uploads from streams cannot be retried");
+        } catch (APIException e) {
+            eq(503, e.getResponseStatus());
+        }
+        eq(1, idempotencyKeys.size());
+    }
+
+    public void testRetryBudget () throws IOException {
+        API api = api();
+        api.setRetryPolicy(api.getRetryPolicy().withRetryBudget(4, 1));
+        failures.set(100);
+        for (int i = 0; i < 3; i++) {
+            try {
+                api.info().get();
+                fail();
+            } catch (APIException e) {
+                // expected
+            }
+        }
+        // 4 tokens: the first request's first failure leaves 3 (retry permitted), its second 2
+        // (budget exhausted); every request thereafter is only attempted once
+        eq(4, idempotencyKeys.size());
+
+        // successes earn back the budget
+        failures.set(0);
+        for (int i = 0; i < 4; i++) api.info().get();
+        failures.set(1);
+        idempotencyKeys.clear();
+        api.info().get();
+        eq(2, idempotencyKeys.size());
+    }
+}
@@ -0,0 +1,328 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.pdfdata.model.Info;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestTransport extends LocalServerTestCase {
+    private static final byte[] INFO = ("{\"message\":\"Welcome to PDFDATA.io!\"," +
+            "\"api_version\":\"2016-09-01\",\"build\":\"x\"}").getBytes(Network.CHARSET);
+
+    private final AtomicInteger uploads = new AtomicInteger();
+    private volatile String uploadContentLength;
+    private volatile int uploadSize;
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/", this::info);
+        server.createContext("/v1/documents", this::upload);
+    }
+
+    private void info (HttpExchange ex) throws IOException {
+        respond(ex, 200, INFO);
+    }
+
+    private void upload (HttpExchange ex) throws IOException {
+        byte[] body = Util.readBytes(ex.getRequestBody());
+        assertTrue(new String(body, Network.CHARSET).endsWith("--\r\n"));
+        uploadContentLength = ex.getRequestHeaders().getFirst("Content-Length");
+        uploadSize = body.length;
+        uploads.incrementAndGet();
+        byte[] response = "[]".getBytes(Network.CHARSET);
+        respond(ex, 200, response);
+    }
+
+    public void testConnectionReuse () throws IOException {
+        PooledTransport transport = new PooledTransport(2, PooledTransport.DEFAULT_IDLE_TIMEOUT);
+        API api = new API("test_key", endpoint());
+        api.setTransport(transport);
+
+        for (int i = 0; i < 5; i++) {
+            Info info = api.info().get();
+            eq("Welcome to PDFDATA.io!", info.getMessage());
+        }
+
+        eq(1L, transport.getMisses());
+        eq(4L, transport.getHits());
+        eq(0L, transport.getHandshakes());
+        eq(1, transport.getIdleCount());
+
+        transport.clear();
+        eq(0, transport.getIdleCount());
+    }
+
+    /**
+     * Starts a server that resets the first connection once it's idle and sent another
+     * request, counting the requests it receives.
+     */
+    private static void resettingServer (ServerSocket listener, AtomicInteger requests) {
+        Thread accepter = new Thread(() -> {
+            try {
+                for (int i = 0; i < 2; i++) {
+                    try (Socket s = listener.accept()) {
+                        BufferedReader in = new BufferedReader(new InputStreamReader(
+                                s.getInputStream(), Network.CHARSET));
+                        for (String line; ; ) {
+                            // skip the request's headers; it has no body
+                            while ((line = in.readLine()) != null && !line.isEmpty()) ;
+                            if (line == null) break;
+                            if (requests.incrementAndGet() == 2) {
+                                s.setSoLinger(true, 0);
+                                break;
+                            }
+                            OutputStream out = s.getOutputStream();
+                            out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json" +
+                                    "\r\nContent-Length: " + INFO.length + "\r\n\r\n")
+                                    .getBytes(Network.CHARSET));
+                            out.write(INFO);
+                            out.flush();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // the test failed
+            }
+        });
+        accepter.setDaemon(true);
+        accepter.start();
+    }
+
+    public void testResetIdleConnection () throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        try (ServerSocket listener = new ServerSocket(0)) {
+            resettingServer(listener, requests);
+            PooledTransport transport =
+                    new PooledTransport(1, PooledTransport.DEFAULT_IDLE_TIMEOUT);
+            API api = new API("test_key",
+                    new URL("http://localhost:" + listener.getLocalPort() + "/v1/"));
+            api.setTransport(transport);
+            for (int i = 0; i < 2; i++) eq("x", api.info().get().getBuild());
+            eq(3, requests.get());
+            eq(1L, transport.getEvictions());
+        }
+    }
+
+    public void testResetPostIsNotReplayed () throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        try (ServerSocket listener = new ServerSocket(0)) {
+            resettingServer(listener, requests);
+            PooledTransport transport =
+                    new PooledTransport(1, PooledTransport.DEFAULT_IDLE_TIMEOUT);
+            URL url = new URL("http://localhost:" + listener.getLocalPort() + "/v1/procs");
+            try (Transport.Response resp = transport.send("GET", url, new HashMap<>(), null,
+                    1000, 1000)) {
+                Util.readBytes(resp.getBody());
+            }
+            try {
+                // the server may have acted on it, and there's no Idempotency-Key to dedupe it
+                transport.send("POST", url, new HashMap<>(), null, 1000, 1000);
+                fail("a POST without an Idempotency-Key must not be sent again");
+            } catch (IOException e) {
+                // expected
+            }
+            eq(2, requests.get());
+        }
+    }
+
+    public void testPoolWaitIsNotANetworkTimeout () throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/v1/held", ex -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            info(ex);
+        });
+        PooledTransport transport = new PooledTransport(1, PooledTransport.DEFAULT_IDLE_TIMEOUT);
+        URL url = new URL(endpoint(), "held");
+        CompletableFuture<Void> held = CompletableFuture.runAsync(() -> {
+            try (Transport.Response resp = transport.send("GET", url, new HashMap<>(), null,
+                    5000, 5000)) {
+                Util.readBytes(resp.getBody());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            for (int i = 0; i < 500 && transport.getMisses() == 0; i++) Thread.sleep(10);
+            try {
+                transport.send("GET", url, new HashMap<>(), null, 5000, 100);
+                fail("no connection became free");
+            } catch (RequestRejectedException e) {
+                // expected
+            }
+        } finally {
+            release.countDown();
+        }
+        held.get(5, TimeUnit.SECONDS);
+    }
+
+    public void testChunkedUpload () throws IOException {
+        PooledTransport transport = new PooledTransport();
+        API api = new API("test_key", endpoint());
+        api.setTransport(transport);
+
+        eq(0, api.documents().upload(Util.setFrom("some_tag"), Util.setFrom()).size());
+        eq(0, api.info().get().getMessage().indexOf("Welcome"));
+        eq(1, uploads.get());
+        eq(1L, transport.getHits());
+    }
+
+    public void testFixedLengthUpload () throws IOException {
+        File pdf = new File("src/test/resources/pdfs/W-2.pdf");
+        for (Transport transport : Arrays.asList(new PooledTransport(), new HttpURLConnectionTransport())) {
+            API api = new API("test_key", endpoint());
+            api.setTransport(transport);
+            api.documents().upload(Util.setFrom("some_tag"), Util.setFrom(pdf));
+
+            assertTrue(uploadSize > pdf.length());
+            eq(String.valueOf(uploadSize), uploadContentLength);
+        }
+    }
+
+    public void testChunkedFileTransfer () throws IOException {
+        File pdf = new File("src/test/resources/pdfs/W-2.pdf");
+        MultipartProcessor mpp = new MultipartProcessor(MultipartProcessor.getBoundary(),
+                Network.CHARSET_NAME) {
+            @Override
+            public long getContentLength () {
+                return -1;
+            }
+        };
+        mpp.addFormField("tag", "some_tag");
+        mpp.addFileField("file", pdf);
+
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", mpp.getContentType());
+        try (Transport.Response resp = new PooledTransport().send("POST",
+                new URL(endpoint(), "documents"), headers, mpp, 1000, 1000)) {
+            eq(200, resp.getStatus());
+        }
+
+        assertNull(uploadContentLength);
+        assertTrue(uploadSize > pdf.length());
+    }
+
+    public void testDocumentSources () throws IOException {
+        File pdf = new File("src/test/resources/pdfs/W-2.pdf");
+        byte[] data = Files.readAllBytes(pdf.toPath());
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        API api = new API("test_key", endpoint());
+
+        api.documents().uploadSources(DocumentSource.of("a.pdf", data),
+                DocumentSource.of("b.pdf", direct),
+                DocumentSource.of("c.pdf", new ByteArrayInputStream(data), data.length),
+                DocumentSource.of(pdf.toPath()));
+        assertTrue(uploadSize > data.length * 4);
+        eq(String.valueOf(uploadSize), uploadContentLength);
+        eq(0, direct.position());
+
+        DocumentSource stream = DocumentSource.of("d.pdf", new ByteArrayInputStream(data));
+        assertFalse(stream.isRepeatable());
+        api.documents().uploadSources(stream);
+        assertNull(uploadContentLength);
+        assertTrue(uploadSize > data.length);
+
+        try {
+            api.documents().uploadSources(stream);
+            fail("Stream-backed document sources should only be uploadable once");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testShortDocumentStream () throws IOException {
+        API api = new API("test_key", endpoint());
+        try {
+            api.documents().uploadSources(
+                    DocumentSource.of("a.pdf", new ByteArrayInputStream(new byte[10]), 20));
+            fail("Stream shorter than its declared length should fail the upload");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testMultipartContentLength () throws IOException {
+        MultipartProcessor mpp = new MultipartProcessor(MultipartProcessor.getBoundary(),
+                Network.CHARSET_NAME);
+        mpp.addFormField("tag", "\u00fcber");
+        mpp.addFileField("file", new File("src/test/resources/pdfs/attachments.pdf"));
+        mpp.addFileField("file", new File("pom.xml"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mpp.writeTo(out);
+        eq((long) out.size(), mpp.getContentLength());
+    }
+
+    public void testAsync () throws Exception {
+        API api = new API("test_key", endpoint());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        api.setExecutor(executor);
+        try {
+            eq("Welcome to PDFDATA.io!", api.info().getAsync().get().getMessage());
+
+            // occupy the only thread, so the next request is queued and can be cancelled
+            CountDownLatch latch = new CountDownLatch(1);
+            executor.execute(() -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // done
+                }
+            });
+            CompletableFuture<Info> queued = api.info().getAsync();
+            assertTrue(queued.cancel(true));
+            latch.countDown();
+
+            eq(2, api.documents().uploadAsync(Util.setFrom("some_tag"), Util.setFrom())
+                    .thenCombine(api.documents().uploadAsync(Util.setFrom("other_tag"), Util.setFrom()),
+                            (a, b) -> uploads.get())
+                    .get().intValue());
+            assertTrue(queued.isCancelled());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testAsyncFailure () throws Exception {
+        API api = new API("test_key", new URL(endpoint(), "/nowhere/"));
+        try {
+            api.info().getAsync().get();
+            fail("request should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof APIException);
+            eq(404, ((APIException) e.getCause()).getResponseStatus());
+        }
+    }
+
+    public void testHttpURLConnectionTransport () throws IOException {
+        API api = new API("test_key", endpoint());
+        api.setTransport(new HttpURLConnectionTransport());
+        eq("Welcome to PDFDATA.io!", api.info().get().getMessage());
+        eq(0, api.documents().upload(Util.setFrom("some_tag"), Util.setFrom()).size());
+    }
+}
@@ -0,0 +1,293 @@
+package io.pdfdata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.pdfdata.model.Document;
+import io.pdfdata.model.ops.Metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+
+public class TestUploadDeduplication extends LocalServerTestCase {
+    /** the documents "stored" by the server, by ID */
+    private final Map<String, String> stored = new ConcurrentHashMap<>();
+    private volatile Instant expires = Instant.now().plus(1, ChronoUnit.DAYS);
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicInteger lists = new AtomicInteger();
+    /** if nonzero, the status with which document lookups fail */
+    private volatile int lookupFailure;
+    private final List<String> uploadedFiles = new CopyOnWriteArrayList<>();
+    private final List<String> procDocIDs = new CopyOnWriteArrayList<>();
+    private final List<String> procFiles = new CopyOnWriteArrayList<>();
+
+    private final Path w2 = Paths.get("src/test/resources/pdfs/W-2.pdf");
+    private final Path attachments = Paths.get("src/test/resources/pdfs/attachments.pdf");
+
+    protected void configureServer (HttpServer server) {
+        server.createContext("/v1/documents", this::documents);
+        server.createContext("/v1/procs", this::procs);
+    }
+
+    private API api (boolean deduplicate) throws IOException {
+        API api = localAPI();
+        api.setDeduplicateUploads(deduplicate);
+        return api;
+    }
+
+    private static String sha1 (byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String idOf (Path p) throws IOException {
+        return "doc_" + sha1(Files.readAllBytes(p));
+    }
+
+    private String documentJSON (String id, String filename) {
+        return String.format("{\"id\":\"%s\",\"filename\":\"%s\",\"tags\":[]," +
+                        "\"created\":\"2016-06-15T19:19:19Z\",\"expires\":\"%s\",\"pagecount\":1}",
+                id, filename, API.INSTANT_FORMATTER.format(expires.atOffset(ZoneOffset.UTC)));
+    }
+
+    /**
+     * Returns the multipart fields of the request body as (name, value) pairs, file contents
+     * being decoded as ISO-8859-1 so as to preserve their bytes.
+     */
+    private static List<String[]> fields (HttpExchange ex) throws IOException {
+        List<String[]> fields = new ArrayList<>();
+        Matcher m = FIELD.matcher(requestBody(ex));
+        while (m.find()) fields.add(new String[] {m.group(1), m.group(3)});
+        return fields;
+    }
+
+    private void documents (HttpExchange ex) throws IOException {
+        if (ex.getRequestMethod().equals("GET") && ex.getRequestURI().getPath().equals("/v1/documents")) {
+            lists.incrementAndGet();
+            List<String> docs = new ArrayList<>();
+            for (Map.Entry<String, String> d : stored.entrySet()) {
+                docs.add(documentJSON(d.getKey(), d.getValue()));
+            }
+            respond(ex, 200, "[" + String.join(",", docs) + "]");
+        } else if (ex.getRequestMethod().equals("GET")) {
+            lookups.incrementAndGet();
+            String id = ex.getRequestURI().getPath().substring("/v1/documents/".length());
+            String filename = stored.get(id);
+            if (lookupFailure != 0) {
+                respond(ex, lookupFailure, "{\"error\":\"forbidden\"}");
+            } else if (filename == null) {
+                respond(ex, 404, "{\"error\":\"no such document\"}");
+            } else {
+                respond(ex, 200, documentJSON(id, filename));
+            }
+        } else {
+            List<String> docs = new ArrayList<>();
+            for (String[] field : fields(ex)) {
+                if (!field[0].equals("file")) continue;
+                String id = "doc_" + sha1(field[1].getBytes(StandardCharsets.ISO_8859_1));
+                uploadedFiles.add(id);
+                stored.put(id, "uploaded.pdf");
+                docs.add(documentJSON(id, "uploaded.pdf"));
+            }
+            respond(ex, 200, "[" + String.join(",", docs) + "]");
+        }
+    }
+
+    private void procs (HttpExchange ex) throws IOException {
+        for (String[] field : fields(ex)) {
+            if (field[0].equals("docid")) procDocIDs.add(field[1]);
+            if (field[0].equals("file")) procFiles.add(field[1]);
+        }
+        respond(ex, 200, new String(Files.readAllBytes(
+                Paths.get("src/test/resources/responses/pending-proc.js")), Network.CHARSET));
+    }
+
+    private void startProc (API api, Object... files) throws IOException {
+        List<Object> sources = new ArrayList<>();
+        for (Object f : files) sources.add(f);
+        api.procs().configure().withFiles(sources).withOperations(new Metadata()).start();
+    }
+
+    public void testDisabledByDefault () throws IOException {
+        stored.put(idOf(w2), "W-2.pdf");
+        startProc(api(false), w2);
+        eq(0, lookups.get());
+        eq(1, procFiles.size());
+        eq(0, procDocIDs.size());
+    }
+
+    public void testDeduplication () throws IOException {
+        API api = api(true);
+        stored.put(idOf(w2), "W-2.pdf");
+
+        startProc(api, w2, attachments);
+        // W-2 was found on the server, attachments.pdf had to be uploaded
+        eq(2, lookups.get());
+        eq(1, uploadedFiles.size());
+        eq(idOf(attachments), uploadedFiles.get(0));
+        eq(0, procFiles.size());
+        eq(setOf(idOf(w2), idOf(attachments)), new HashSet<>(procDocIDs));
+        eq(2, api.getDocumentCache().size());
+
+        // now both are cached
+        procDocIDs.clear();
+        startProc(api, w2, DocumentSource.of("copy.pdf", Files.readAllBytes(attachments)));
+        eq(2, lookups.get());
+        eq(1, uploadedFiles.size());
+        eq(setOf(idOf(w2), idOf(attachments)), new HashSet<>(procDocIDs));
+    }
+
+    public void testLookupFailure () throws IOException {
+        lookupFailure = 403;
+        try {
+            startProc(api(true), w2);
+            fail("only a 404 means that the document needs uploading");
+        } catch (APIException e) {
+            eq(403, e.getResponseStatus());
+        }
+        eq(0, uploadedFiles.size());
+        eq(0, procDocIDs.size() + procFiles.size());
+    }
+
+    public void testStartAsyncOnBusyExecutor () throws Exception {
+        API api = api(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        api.setExecutor(executor);
+        try {
+            // the lookups can't wait for a thread of the executor the start itself is using
+            api.procs().configure().withFiles(w2, attachments).withOperations(new Metadata())
+                    .startAsync().get(5, TimeUnit.SECONDS);
+            eq(2, lookups.get());
+            eq(2, procDocIDs.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testStartAsyncIsChargedOnce () throws Exception {
+        // rate limiters are shared per API key across the JVM, so this test uses its own key
+        API api = new API("test_key_" + getName(), endpoint());
+        api.setDeduplicateUploads(true);
+        api.getRateLimiter().setRate(RateLimiter.Bucket.PROC_CREATION, 0.001, 1);
+        stored.put(idOf(w2), "W-2.pdf");
+        // the lookups and the upload mustn't use up the token the proc's creation needs
+        api.procs().configure().withFiles(w2, attachments).withOperations(new Metadata())
+                .startAsync().get(5, TimeUnit.SECONDS);
+        eq(2, lookups.get());
+        eq(1, uploadedFiles.size());
+        eq(2, procDocIDs.size());
+    }
+
+    public void testExpiringDocuments () throws IOException {
+        API api = api(true);
+        api.setDocumentCache(new DocumentCache(Duration.ofHours(1)));
+        expires = Instant.now().plus(30, ChronoUnit.MINUTES);
+        stored.put(idOf(w2), "W-2.pdf");
+
+        // the stored document expires too soon to be used
+        startProc(api, w2);
+        eq(1, lookups.get());
+        eq(1, uploadedFiles.size());
+        eq(0, api.getDocumentCache().size());
+    }
+
+    public void testStreamsAreUploaded () throws IOException {
+        API api = api(true);
+        byte[] data = Files.readAllBytes(w2);
+        stored.put(idOf(w2), "W-2.pdf");
+        startProc(api, DocumentSource.of("W-2.pdf", new ByteArrayInputStream(data), data.length));
+        eq(0, lookups.get());
+        eq(1, uploadedFiles.size());
+        eq(Collections.singletonList(idOf(w2)), procDocIDs);
+    }
+
+    private static Set<String> setOf (String... ids) {
+        return Util.setFrom(ids);
+    }
+
+    public void testCacheHonorsExpiry () throws IOException {
+        DocumentCache cache = new DocumentCache(Duration.ofMinutes(5));
+        Document d = pdfdata.json.from(documentJSON("doc_abc", "a.pdf"), Document.class);
+        cache.put(d);
+        assertSame(d, cache.get("abc"));
+
+        expires = Instant.now().plus(1, ChronoUnit.MINUTES);
+        cache.put("def", pdfdata.json.from(documentJSON("doc_def", "b.pdf"), Document.class));
+        assertNull(cache.get("def"));
+    }
+
+    public void testDocumentCaching () throws Exception {
+        API api = api(false);
+        String w2ID = idOf(w2);
+        stored.put(w2ID, "W-2.pdf");
+
+        // disabled by default
+        api.documents().byID(w2ID);
+        api.documents().byID(w2ID);
+        eq(2, lookups.get());
+
+        api.setCacheDocuments(true);
+        Document d = api.documents().byID(w2ID);
+        assertSame(d, api.documents().byID(w2ID));
+        assertSame(d, api.documents().byIDAsync(w2ID).get());
+        eq(3, lookups.get());
+
+        // listed documents are cached in bulk
+        String attachmentsID = idOf(attachments);
+        stored.put(attachmentsID, "attachments.pdf");
+        eq(2, api.documents().list().size());
+        eq(1, lists.get());
+        eq("attachments.pdf", api.documents().byID(attachmentsID).getFilename());
+        eq(3, lookups.get());
+
+        // documents about to expire are looked up every time
+        api.getDocumentCache().clear();
+        expires = Instant.now().plus(1, ChronoUnit.MINUTES);
+        api.documents().byID(w2ID);
+        api.documents().byID(w2ID);
+        eq(5, lookups.get());
+    }
+
+    public void testCacheIsBounded () throws IOException {
+        DocumentCache cache = new DocumentCache(Duration.ofMinutes(5), 10);
+        for (int i = 0; i < 20; i++) {
+            expires = Instant.now().plus(i + 1, ChronoUnit.DAYS);
+            cache.put(String.valueOf(i), pdfdata.json.from(documentJSON("doc_" + i, i + ".pdf"),
+                    Document.class));
+            assertTrue(cache.size() <= 10);
+        }
+        // those expiring soonest were evicted
+        assertNull(cache.get("0"));
+        assertNotNull(cache.get("19"));
+        assertNotNull(cache.getByID("doc_19"));
+    }
+}